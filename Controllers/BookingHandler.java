@@ -4,154 +4,191 @@ import src.Models.Booking;
 import src.Models.Room;
 import src.Models.User;
 import src.Server.Database;
+import src.Util.IdAllocator;
+import src.Util.ResponseWriter;
+import src.Util.Tokens;
 
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 public class BookingHandler
 {
     // private static BookingHandler instance; // TODO: unused variables???
 
-    private static final DateTimeFormatter formatter = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+    private static final String INVERTED_STAY = "400 ❌ Check-out time must be after check-in time";
 
-    private static final DateTimeFormatter displayFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    // ==== Pre-encoded listing fragments ====
 
-    public static String handleBooking(String[] parts)
-    {
-        try
-        {
-            var lastIndex = parts.length - 1;
+    private static final byte[] BOOKINGS_HEADER = ResponseWriter.constant("200 📅 All Bookings:\n");
 
-            var password = parts[lastIndex];
+    private static final byte[] TRANSACTION = ResponseWriter.constant("Transaction #");
 
-            var username = parts[lastIndex - 1];
+    private static final byte[] BOOKING = ResponseWriter.constant("  Booking #");
 
-            var checkOutTime = LocalDateTime.parse(parts[lastIndex - 2], formatter);
+    private static final byte[] ROOM = ResponseWriter.constant("    - Room: ");
 
-            var checkInTime = LocalDateTime.parse(parts[lastIndex - 3], formatter);
+    private static final byte[] ROOM_ID = ResponseWriter.constant(" (RoomId: ");
 
-            // Validate user
-            var user = UserHandler.findUser(username);
+    private static final byte[] USER = ResponseWriter.constant("    - User: ");
 
-            if (user == null || user.validatePassword(password))
-            {
-                return "403 ❌ Invalid credentials";
-            }
+    private static final byte[] USER_ID = ResponseWriter.constant(" (UserId: ");
 
-            // Generate transaction ID
-            var transactionId = generateTransactionId();
+    private static final byte[] CLOSE = ResponseWriter.constant(")\n");
 
-            // Process room IDs
-            var bookingResults = new StringBuilder("200 ✅ Booking results:\n");
+    private static final byte[] ROOM_TYPE = ResponseWriter.constant("    - Room Type: ");
 
-            var anyFail = false;
+    private static final byte[] HOTEL = ResponseWriter.constant("    - Hotel: ");
 
-            var bookings = new ArrayList<Booking>();
+    private static final byte[] CHECK_IN = ResponseWriter.constant("    - Check-in: ");
 
-            // TODO: can we reduce this for loop to 1 for loop
+    private static final byte[] CHECK_OUT = ResponseWriter.constant("    - Check-out: ");
 
-            for (var i = 1; i < parts.length - 4; i++)
-            {
-                var roomId = Integer.parseInt(parts[i]);
+    // BOOK <ROOMID>... <CHECKINTIME> <CHECKOUTTIME> <USERNAME> <USERPASS>, for user, who the credentials
+    // belong to (null if they did not check out)
+    public static String handleBooking(Tokens tokens, User user)
+    {
+        try
+        {
+            var lastIndex = tokens.count() - 1;
 
-                // Verify room exists
-                var room = RoomHandler.findRoomById(roomId);
+            var checkOutTime = tokens.parseDateTime(lastIndex - 2);
 
-                // THREAD-2: 1 sec
-                if(!room.getLock().tryLock(1000, TimeUnit.MILLISECONDS))
-                {
-                    anyFail = true;
-                }
+            var checkInTime = tokens.parseDateTime(lastIndex - 3);
+
+            // Room IDs sit between "BOOK" and the dates and credentials
+            var roomIds = new int[tokens.count() - 5];
+
+            for (var i = 1; i < tokens.count() - 4; i++)
+            {
+                roomIds[i - 1] = tokens.parseInt(i);
             }
 
-            if (anyFail)
+            var outcome = bookRooms(user, roomIds, checkInTime, checkOutTime);
+
+            if (!outcome.isSuccess())
             {
-                return "400 ❌ No rooms were successfully booked";
+                return outcome.getMessage();
             }
 
-            // Start from index 1 (after "BOOK") and stop before the dates and credentials
-            for (var i = 1; i < parts.length - 4; i++)
+            var bookingResults = new StringBuilder("200 ✅ Booking results:\n");
+
+            for (var booking : outcome.getValue())
             {
-                try {
-                    var roomId = Integer.parseInt(parts[i]);
+                var room = RoomHandler.findRoomById(booking.getRoomId());
 
-                    // Verify room exists
-                    var room = RoomHandler.findRoomById(roomId);
+                bookingResults.append("  Room ").append(room.getRoomNumber())
+                        .append(": Successfully booked (Booking ID: ").append(booking.getId()).append(")\n");
+            }
 
-                    if (room == null)
-                    {
-                        rollBackBookings(bookings);
+            String res = bookingResults.toString();
 
-                        bookingResults.append("  Room ID ").append(roomId).append(": Room not found\n");
+            bookingResults.setLength(0);
 
-                        break;
-                    }
+            return res;
+        }
+        catch (Exception e)
+        {
+            return "500 ❌ Booking error: " + e.getMessage();
+        }
+    }
 
-                    // Book the room
-                    var bookingId = bookRoomWithTransaction(roomId, user.getId(), checkInTime, checkOutTime, transactionId);
+    // Books every room in one transaction or none of them, for user; null when the credentials did not check out
+    public static Outcome<List<Booking>> bookRooms(User user, int[] roomIds,
+                                                   LocalDateTime checkInTime, LocalDateTime checkOutTime) throws InterruptedException
+    {
+        // Validate user
+        if (user == null)
+        {
+            return Outcome.failure("403 ❌ Invalid credentials");
+        }
 
-                    if (bookingId == -1)
-                    {
-                        anyFail = true;
+        // Before any room is locked: an inverted stay in a calendar would break the order its search relies on
+        if (!checkInTime.isBefore(checkOutTime))
+        {
+            return Outcome.failure(INVERTED_STAY);
+        }
 
-                        rollBackBookings(bookings);
+        var outcome = bookLocked(user, roomIds, checkInTime, checkOutTime);
 
-                        bookingResults.append("  Room ").append(room.getRoomNumber()).append(": Not available for selected dates\n");
+        // Only now that the rooms are unlocked; a rolled back BOOK waits too, so its removal is as durable as its bookings
+        Database.awaitDurable();
 
-                        break;
-                    }
-                    else
-                    {
-                        bookingResults.append("  Room ").append(room.getRoomNumber())
-                                .append(": Successfully booked (Booking ID: ").append(bookingId).append(")\n");
-                    }
-                } catch (NumberFormatException e) {
-                    anyFail = true;
+        return outcome;
+    }
 
-                    rollBackBookings(bookings);
+    private static Outcome<List<Booking>> bookLocked(User user, int[] roomIds, LocalDateTime checkInTime,
+                                                     LocalDateTime checkOutTime) throws InterruptedException
+    {
+        var bookings = new ArrayList<Booking>();
 
-                    bookingResults.append("  Invalid room ID format: ").append(parts[i]).append("\n");
-                }
-            }
+        var lockedRooms = new ArrayList<Room>();
 
-            for (var i = 1; i < parts.length - 4; i++)
+        try
+        {
+            for (var roomId : roomIds)
             {
-                var roomId = Integer.parseInt(parts[i]);
-
                 // Verify room exists
                 var room = RoomHandler.findRoomById(roomId);
 
-                room.getLock().unlock();
+                if (room == null)
+                {
+                    return Outcome.failure("404 ❌ Room not found: " + roomId);
+                }
+
+                // THREAD-2: 1 sec
+                if (!room.getLock().tryLock(1000, TimeUnit.MILLISECONDS))
+                {
+                    return Outcome.failure("400 ❌ No rooms were successfully booked");
+                }
+
+                lockedRooms.add(room);
             }
 
-            if (anyFail)
+            // Ids only once every room is locked, so a BOOK that cannot start leaves no gap
+            var transactionId = IdAllocator.next(IdAllocator.Sequence.TRANSACTION);
+
+            var firstBookingId = IdAllocator.reserve(IdAllocator.Sequence.BOOKING, lockedRooms.size());
+
+            for (var i = 0; i < lockedRooms.size(); i++)
             {
-                return "400 ❌ No rooms were successfully booked";
-            }
+                var booking = bookRoomWithTransaction(firstBookingId + i, lockedRooms.get(i), user.getId(), checkInTime, checkOutTime, transactionId);
 
-            String res = bookingResults.toString();
+                if (booking == null)
+                {
+                    rollBackBookings(bookings);
 
-            bookingResults.setLength(0);
+                    return Outcome.failure("400 ❌ No rooms were successfully booked");
+                }
 
-            return res;
+                bookings.add(booking);
+            }
+
+            return Outcome.success(bookings);
         }
-        catch (Exception e)
+        finally
         {
-            return "500 ❌ Booking error: " + e.getMessage();
+            // Release only what we acquired, also when a later room could not be locked
+            for (var room : lockedRooms)
+            {
+                room.getLock().unlock();
+            }
         }
     }
 
     // == READ ==
-    public static String listBookings(User usr)
+    // Writes the listing into out, returns its status code
+    public static int listBookings(User usr, ResponseWriter out)
     {
         if (usr == null)
         {
-            return "404 📅 No USER found";
+            out.line("404 📅 No USER found");
+
+            return 404;
         }
 
         // TODO : first null check then pass to function
@@ -159,129 +196,88 @@ public class BookingHandler
 
         if (bookings.isEmpty())
         {
-            return "404 📅 No bookings found";
-        }
+            out.line("404 📅 No bookings found");
 
-        var response = new StringBuilder("200 📅 All Bookings:\n");
+            return 404;
+        }
 
+        out.append(BOOKINGS_HEADER);
 
         for (var booking : bookings)
         {
-            response.append("Transaction #").append(booking.getTransactionId())
-                    .append("\n");
-
-            String roomType, roomNumber, hotelName;
-            int roomId;
+            out.append(TRANSACTION).append(booking.getTransactionId()).append('\n');
 
             var room = Database.rooms.get(booking.getRoomId());
 
             var hotel = Database.hotels.get(room.getHotel());
 
-            roomType = room.getType().toString();
-
-            roomNumber = room.getRoomNumber();
-
-            roomId = room.getId();
-
-            hotelName = hotel.getName();
-
-            User bookingUser = null;
-
-            for(var u: Database.users.values())
-            {
-                if(u.getId() == booking.getUserId()) // TODO: why to search every users?
-                {
-                    bookingUser = u;
-                    break;
-                }
-            }
+            var bookingUser = Database.usersById.get(booking.getUserId());
 
             // TODO: what if booking user is null?
 
             assert bookingUser != null;
-            response
-                    .append("  Booking #").append(booking.getId()).append("\n")
-                    .append("    - Room: ").append(roomNumber).append(" (RoomId: ").append(roomId).append(")\n")
-                    .append("    - User: ").append(bookingUser.getUsername()).append(" (UserId: ").append(bookingUser.getId()).append(")\n")
-                    .append("    - Room Type: ").append(roomType).append("\n")
-                    .append("    - Hotel: ").append(hotelName).append("\n")
-                    .append("    - Check-in: ").append(booking.getCheckInTime().format(displayFormatter)).append("\n")
-                    .append("    - Check-out: ").append(booking.getCheckOutTime().format(displayFormatter)).append("\n");
-        }
-
+            out.append(BOOKING).append(booking.getId()).append('\n')
+                    .append(ROOM).append(room.getRoomNumber()).append(ROOM_ID).append(room.getId()).append(CLOSE)
+                    .append(USER).append(bookingUser.getUsername()).append(USER_ID).append(bookingUser.getId()).append(CLOSE)
+                    .append(ROOM_TYPE).append(room.getType().name()).append('\n')
+                    .append(HOTEL).append(hotel.getName()).append('\n');
 
-        response.append("\n");
+            writeDate(out.append(CHECK_IN), booking.getCheckInTime());
 
-        String res = response.toString();
+            writeDate(out.append(CHECK_OUT), booking.getCheckOutTime());
+        }
 
-        response.setLength(0);
+        return 200;
+    }
 
-        return res;
+    // "yyyy-MM-dd HH:mm" and a line end, written as digits without formatting a String
+    private static void writeDate(ResponseWriter out, LocalDateTime time)
+    {
+        out.appendPadded(time.getYear(), 4).append('-')
+                .appendPadded(time.getMonthValue(), 2).append('-')
+                .appendPadded(time.getDayOfMonth(), 2).append(' ')
+                .appendPadded(time.getHour(), 2).append(':')
+                .appendPadded(time.getMinute(), 2).append('\n');
     }
 
-    public static List<Booking> getBookings(User user)
+    public static Collection<Booking> getBookings(User user)
     {
         if (!user.isAdmin())
         {
-            return Database.bookings.stream().filter((b) ->
-                    b.getUserId() == user.getId()).collect(Collectors.toList());
+            return Database.bookingsOf(user.getId());
         }
 
-        return Database.bookings;
+        // By id, which is the order they were made in; the store hands them over in no particular order
+        var all = new ArrayList<>(Database.allBookings());
+
+        all.sort(Comparator.comparingInt(Booking::getId));
+
+        return all;
     }
 
-    public static String handleCheck(String[] parts)
+    public static String handleCheck(Tokens tokens, User user)
     {
         try
         {
             // New CHECK format: CHECK <CHECKINTIME> <CHECKOUTTIME> <USERNAME> <USERPASS>
-            var checkInTime = LocalDateTime.parse(parts[1], formatter);
-
-            var checkOutTime = LocalDateTime.parse(parts[2], formatter);
+            var checkInTime = tokens.parseDateTime(1);
 
-            var username = parts[3];
+            var checkOutTime = tokens.parseDateTime(2);
 
-            var password = parts[4];
+            var outcome = findAvailableRooms(user, checkInTime, checkOutTime);
 
-            // Validate user
-            var user = UserHandler.findUser(username);
-
-            if (user == null || user.validatePassword(password))
+            if (!outcome.isSuccess())
             {
-                return "403 ❌ Invalid credentials";
-            }
-
-            // Find all available rooms
-            var availableRooms = new ArrayList<Room>();
-
-            for (var room : Database.rooms.values())
-            {
-                if (isRoomAvailable(room.getId(), checkInTime, checkOutTime))
-                {
-                    availableRooms.add(room);
-                }
-            }
-
-            if (availableRooms.isEmpty())
-            {
-                return "404 ❌ No rooms available for the selected dates";
+                return outcome.getMessage();
             }
 
             var response = new StringBuilder("200 ✅ Available rooms for the selected dates:\n");
 
-            for (var room : availableRooms)
+            for (var room : outcome.getValue())
             {
-                var hotelName = "Unknown";
+                var hotel = Database.hotels.get(room.getHotel());
 
-                for (var hotel : Database.hotels.values())
-                {
-                    if (hotel.getId() == room.getHotel())
-                    {
-                        hotelName = hotel.getName();
-
-                        break;
-                    }
-                }
+                var hotelName = hotel == null ? "Unknown" : hotel.getName();
 
                 response.append("  Room ID: ").append(room.getId())
                         .append(" - Number: ").append(room.getRoomNumber())
@@ -307,6 +303,38 @@ public class BookingHandler
         }
     }
 
+    public static Outcome<List<Room>> findAvailableRooms(User user, LocalDateTime checkInTime, LocalDateTime checkOutTime)
+    {
+        // Validate user
+        if (user == null)
+        {
+            return Outcome.failure("403 ❌ Invalid credentials");
+        }
+
+        if (!checkInTime.isBefore(checkOutTime))
+        {
+            return Outcome.failure(INVERTED_STAY);
+        }
+
+        // Find all available rooms
+        var availableRooms = new ArrayList<Room>();
+
+        for (var room : Database.rooms.values())
+        {
+            if (Database.isFree(room, checkInTime, checkOutTime))
+            {
+                availableRooms.add(room);
+            }
+        }
+
+        if (availableRooms.isEmpty())
+        {
+            return Outcome.failure("404 ❌ No rooms available for the selected dates");
+        }
+
+        return Outcome.success(availableRooms);
+    }
+
     // == DELETE ==
     public static String removeBooking(String bookingIdStr)
     {
@@ -314,77 +342,106 @@ public class BookingHandler
         {
             var bookingId = Integer.parseInt(bookingIdStr);
 
-            for (var booking : Database.bookings)
-            {
-                if (booking.getId() == bookingId)
-                {
-                    Database.bookings.remove(booking);
+            var booking = Database.findBooking(bookingId);
 
-                    return "200 ✅ Booking removed successfully";
-                }
+            // A concurrent REMOVE or CANCEL may get there first
+            if (booking == null || !Database.removeBooking(booking))
+            {
+                return "404 ❌ Booking not found";
             }
 
-            return "404 ❌ Booking not found";
+            return "200 ✅ Booking removed successfully";
         }
         catch (Exception e)
         {
             return "500 ❌ Error removing booking: " + e.getMessage();
         }
+        finally
+        {
+            Database.awaitDurable();
+        }
     }
 
-    // ==== HELPER METHODS ====
-
-    public static boolean isRoomAvailable(int roomId, LocalDateTime checkInTime, LocalDateTime checkOutTime)
+    // CANCEL <TRANSACTIONID> <USERNAME> <USERPASS>: removes every booking of one BOOK, for its owner or an admin
+    public static String handleCancel(Tokens tokens, User user)
     {
-        for (Booking booking : Database.bookings)
+        try
         {
-            if (booking.getRoomId() == roomId)
-            {
-                // Check if there's an overlap in booking periods
-                var overlapExists =
-                        (checkInTime.isBefore(booking.getCheckOutTime()) || checkInTime.isEqual(booking.getCheckOutTime())) &&
-                                (checkOutTime.isAfter(booking.getCheckInTime()) || checkOutTime.isEqual(booking.getCheckInTime()));
+            var transactionId = tokens.parseInt(1);
 
-                if (overlapExists)
-                {
-                    return false;
-                }
+            if (user == null)
+            {
+                return "403 ❌ Invalid credentials";
             }
-        }
 
-        return true;
+            return cancelTransaction(user, transactionId);
+        }
+        catch (Exception e)
+        {
+            return "500 ❌ Error cancelling transaction: " + e.getMessage();
+        }
     }
 
-    private static int bookRoomWithTransaction(int roomId, int userId, LocalDateTime checkInTime, LocalDateTime checkOutTime, int transactionId)
+    public static String cancelTransaction(User user, int transactionId)
     {
-        if (!isRoomAvailable(roomId, checkInTime, checkOutTime))
+        var bookings = Database.bookingsIn(transactionId);
+
+        // Someone else's transaction looks the same as none at all
+        if (bookings.isEmpty() || (!user.isAdmin() && bookings.get(0).getUserId() != user.getId()))
         {
-            return -1; // Room not available
+            return "404 ❌ Transaction not found";
         }
 
-        var booking = new Booking(roomId, userId, checkInTime, checkOutTime, transactionId);
+        var removed = 0;
 
-        Database.bookings.add(booking);
+        for (var booking : bookings)
+        {
+            if (Database.removeBooking(booking))
+            {
+                removed++;
+            }
+        }
+
+        Database.awaitDurable();
+
+        if (removed == 0)
+        {
+            return "404 ❌ Transaction not found";
+        }
 
-        return booking.getId();
+        return "200 ✅ Transaction #" + transactionId + " cancelled, " + removed + " booking(s) removed";
     }
 
-    private static void rollBackBookings(ArrayList<Booking> bookings)
+    // ==== HELPER METHODS ====
+
+    // One binary search over the room's bookings instead of a scan over every booking of every room
+    public static boolean isRoomAvailable(int roomId, LocalDateTime checkInTime, LocalDateTime checkOutTime)
     {
-        for (Booking booking : bookings)
+        var room = Database.rooms.get(roomId);
+
+        return room == null || Database.isFree(room, checkInTime, checkOutTime);
+    }
+
+    private static Booking bookRoomWithTransaction(int bookingId, Room room, int userId, LocalDateTime checkInTime, LocalDateTime checkOutTime, int transactionId)
+    {
+        if (!Database.isFree(room, checkInTime, checkOutTime))
         {
-            Database.bookings.remove(booking);
+            return null; // Room not available
         }
+
+        var booking = new Booking(bookingId, room.getId(), userId, checkInTime, checkOutTime, transactionId);
+
+        Database.addBooking(booking);
+
+        return booking;
     }
 
-    private static int generateTransactionId()
+    private static void rollBackBookings(List<Booking> bookings)
     {
-        var maxTransactionId = Database.bookings.stream()
-                .mapToInt(Booking::getTransactionId)
-                .max()
-                .orElse(0); // TODO: Why can't we maintina a static incremental variable??
-
-        return maxTransactionId + 1;
+        for (Booking booking : bookings)
+        {
+            Database.removeBooking(booking);
+        }
     }
 
 }
@@ -1,30 +1,35 @@
 package src.Controllers;
 
 import src.Models.Hotel;
+import src.Models.User;
 import src.Server.Database;
+import src.Util.ResponseWriter;
 
 public class HotelHandler
 {
+    // ==== Pre-encoded listing fragments ====
+
+    private static final byte[] HOTELS_HEADER = ResponseWriter.constant("200 🏨 Hotels:\n");
+
+    private static final byte[] HOTEL_ID = ResponseWriter.constant("  Hotel ID: ");
+
+    private static final byte[] NAME = ResponseWriter.constant(" - Name: ");
+
+    private static final byte[] ROOM_ID = ResponseWriter.constant("          Room ID: ");
 
     public static Hotel findHotelById(int hotelId)
     {
         return Database.hotels.get(hotelId);
     }
 
-    public static String handleCreateHotel(String[] parts)
+    public static String handleCreateHotel(String[] parts, User admin)
     {
         try
         {
             var hotelName = parts[2];
 
-            var adminUsername = parts[3];
-
-            var adminPassword = parts[4];
-
             // Validate admin
-            var admin = UserHandler.findUser(adminUsername);
-
-            if (admin == null || !admin.isAdmin() || admin.validatePassword(adminPassword))
+            if (admin == null || !admin.isAdmin())
             {
                 return "403 ❌ Unauthorized access";
             }
@@ -32,7 +37,7 @@ public class HotelHandler
             // Create and add hotel
             var hotel = new Hotel(hotelName);
 
-            Database.hotels.put(hotel.getId(), hotel);
+            Database.addHotel(hotel);
 
             return "200 ✅ Hotel added successfully - ID: " + hotel.getId() + " - Name: " + hotel.getName();
         }
@@ -40,47 +45,44 @@ public class HotelHandler
         {
             return "500 ❌ Error creating hotel: " + e.getMessage();
         }
+        finally
+        {
+            Database.awaitDurable();
+        }
     }
 
-    public static String listHotels()
+    // Writes the listing into out, returns its status code
+    public static int listHotels(ResponseWriter out)
     {
         var hotels = Database.hotels;
 
         if (hotels.isEmpty())
         {
-            return "404 🏨 No hotels found";
+            out.line("404 🏨 No hotels found");
+
+            return 404;
         }
 
-        var response = new StringBuilder("200 🏨 Hotels:\n");
+        out.append(HOTELS_HEADER);
 
         for (var hotel : hotels.values())
         {
-            response.append("  Hotel ID: ").append(hotel.getId())
-                    .append(" - Name: ").append(hotel.getName())
-                    .append("\n");
+            out.append(HOTEL_ID).append(hotel.getId())
+                    .append(NAME).append(hotel.getName())
+                    .append('\n');
 
-            for (var room : Database.rooms.values())
+            for (var room : Database.roomsOf(hotel.getId()))
             {
-                if (room.getHotel() == hotel.getId())
-                {
-                    response.append("          Room ID: ").append(room.getId())
-                            .append(" - Number: ").append(room.getRoomNumber())
-                            .append(" - Type: ").append(room.getType())
-                            .append(" - Price: $").append(room.getPrice())
-                            .append("\n");
-                }
+                RoomHandler.writeRoom(out, ROOM_ID, room);
+
+                out.append('\n');
             }
         }
 
-
-        String res = response.toString();
-
-        response.setLength(0);
-
-        return res;
+        return 200;
     }
 
-    public static String handleUpdateHotel(String[] parts)
+    public static String handleUpdateHotel(String[] parts, User admin)
     {
         try
         {
@@ -88,14 +90,8 @@ public class HotelHandler
 
             var hotelName = parts[3];
 
-            var adminUsername = parts[4];
-
-            var adminPassword = parts[5];
-
             // Validate admin
-            var admin = UserHandler.findUser(adminUsername);
-
-            if (admin == null || !admin.isAdmin() || admin.validatePassword(adminPassword))
+            if (admin == null || !admin.isAdmin())
             {
                 return "403 ❌ Unauthorized access";
             }
@@ -109,7 +105,7 @@ public class HotelHandler
             }
 
             // Update hotel
-            targetHotel.setName(hotelName);
+            Database.updateHotel(targetHotel, hotelName);
 
             return "200 ✅ Hotel updated successfully";
         }
@@ -117,6 +113,10 @@ public class HotelHandler
         {
             return "500 ❌ Error updating hotel: " + e.getMessage();
         }
+        finally
+        {
+            Database.awaitDurable();
+        }
     }
 
     public static String removeHotel(String hotelIdStr)
@@ -126,21 +126,21 @@ public class HotelHandler
             var hotelId = Integer.parseInt(hotelIdStr);
 
             // Check if there are any rooms in this hotel
-            for (var room : Database.rooms.values())
+            if (!Database.roomsOf(hotelId).isEmpty())
             {
-                if (room.getHotel() == hotelId)
-                {
-                    return "400 ❌ Cannot remove hotel with existing rooms";
-                }
+                return "400 ❌ Cannot remove hotel with existing rooms";
             }
 
-
             if(Database.hotels.get(hotelId) == null)
             {
                 return "404 ❌ Hotel not found";
             }
 
-            Database.hotels.remove(hotelId);
+            // Checked again as it goes, a room may have been added meanwhile
+            if (!Database.removeHotel(hotelId))
+            {
+                return "400 ❌ Cannot remove hotel with existing rooms";
+            }
 
             return "200 ✅ Hotel removed successfully";
 
@@ -149,6 +149,10 @@ public class HotelHandler
         {
             return "500 ❌ Error removing hotel: " + e.getMessage();
         }
+        finally
+        {
+            Database.awaitDurable();
+        }
     }
 
 }
@@ -0,0 +1,51 @@
+package src.Controllers;
+
+// Result of a handler operation before it is rendered, so the text and binary protocols can format it differently
+public class Outcome<T>
+{
+    private final int status;
+
+    private final String message;
+
+    private final T value;
+
+    private Outcome(int status, String message, T value)
+    {
+        this.status = status;
+
+        this.message = message;
+
+        this.value = value;
+    }
+
+    public static <T> Outcome<T> success(T value)
+    {
+        return new Outcome<>(200, null, value);
+    }
+
+    // Takes a complete text response such as "403 ❌ Invalid credentials"
+    public static <T> Outcome<T> failure(String response)
+    {
+        return new Outcome<>(Integer.parseInt(response.substring(0, 3)), response, null);
+    }
+
+    public boolean isSuccess()
+    {
+        return status == 200;
+    }
+
+    public int getStatus()
+    {
+        return status;
+    }
+
+    public String getMessage()
+    {
+        return message;
+    }
+
+    public T getValue()
+    {
+        return value;
+    }
+}
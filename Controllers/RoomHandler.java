@@ -1,12 +1,37 @@
 package src.Controllers;
 
 import src.Models.Room;
+import src.Models.User;
 import src.Server.Database;
+import src.Util.ResponseWriter;
 
 import java.time.LocalDateTime;
 
 public class RoomHandler
 {
+    // ==== Pre-encoded listing fragments ====
+
+    private static final byte[] ROOMS_HEADER = ResponseWriter.constant("200 🏨 Rooms:\n");
+
+    private static final byte[] ROOM_ID = ResponseWriter.constant("  Room ID: ");
+
+    private static final byte[] NUMBER = ResponseWriter.constant(" - Number: ");
+
+    private static final byte[] TYPE = ResponseWriter.constant(" - Type: ");
+
+    private static final byte[] PRICE = ResponseWriter.constant(" - Price: $");
+
+    private static final byte[] HOTEL = ResponseWriter.constant(" - Hotel: ");
+
+    private static final byte[][] TYPE_NAMES = new byte[Room.RoomType.values().length][];
+
+    static
+    {
+        for (var type : Room.RoomType.values())
+        {
+            TYPE_NAMES[type.ordinal()] = ResponseWriter.constant(type.name());
+        }
+    }
 
     public static Room findRoomById(int roomId)
     {
@@ -16,7 +41,7 @@ public class RoomHandler
     // ==== CRUD ====
 
     // == CREATE ==
-    public static String handleCreateRoom(String[] parts)
+    public static String handleCreateRoom(String[] parts, User admin)
     {
         try
         {
@@ -28,14 +53,8 @@ public class RoomHandler
 
             var price = Integer.parseInt(parts[5]);
 
-            var adminUsername = parts[6];
-
-            var adminPassword = parts[7];
-
             // Validate admin
-            var admin = UserHandler.findUser(adminUsername);
-
-            if (admin == null || !admin.isAdmin() || admin.validatePassword(adminPassword))
+            if (admin == null || !admin.isAdmin())
             {
                 return "403 ❌ Unauthorized access";
             }
@@ -63,7 +82,11 @@ public class RoomHandler
             // Create and add room
             var room = new Room(roomNumber, price, roomType, hotelId);
 
-            Database.rooms.put(room.getId(), room);
+            // The hotel may have been removed since it was checked
+            if (!Database.addRoom(room))
+            {
+                return "404 ❌ Hotel not found";
+            }
 
             return "200 ✅ Room added successfully - ID: " + room.getId();
         }
@@ -71,50 +94,56 @@ public class RoomHandler
         {
             return "500 ❌ Error creating room: " + e.getMessage();
         }
+        finally
+        {
+            Database.awaitDurable();
+        }
     }
 
     // == READ ==
-    public static String listRooms()
+    // Writes the listing into out, returns its status code
+    public static int listRooms(ResponseWriter out)
     {
         var rooms = Database.rooms;
 
         if (rooms.isEmpty())
         {
-            return "404 🏨 No rooms found";
+            out.line("404 🏨 No rooms found");
+
+            return 404;
         }
 
-        var response = new StringBuilder("200 🏨 Rooms:\n");
+        out.append(ROOMS_HEADER);
 
         for (var room : rooms.values())
         {
-            response.append("  Room ID: ").append(room.getId())
-                    .append(" - Number: ").append(room.getRoomNumber())
-                    .append(" - Type: ").append(room.getType())
-                    .append(" - Price: $").append(room.getPrice());
+            writeRoom(out, ROOM_ID, room);
 
             // Add hotel name
-            for (var hotel : Database.hotels.values())
-            {
-                if (hotel.getId() == room.getHotel())
-                {
-                    response.append(" - Hotel: ").append(hotel.getName());
+            var hotel = Database.hotels.get(room.getHotel());
 
-                    break;
-                }
+            if (hotel != null)
+            {
+                out.append(HOTEL).append(hotel.getName());
             }
 
-            response.append("\n");
+            out.append('\n');
         }
 
-        String res = response.toString();
-
-        response.setLength(0);
+        return 200;
+    }
 
-        return res;
+    // One room without its line end; prefix is the label in front of the id, which also sets the indentation
+    static void writeRoom(ResponseWriter out, byte[] prefix, Room room)
+    {
+        out.append(prefix).append(room.getId())
+                .append(NUMBER).append(room.getRoomNumber())
+                .append(TYPE).append(TYPE_NAMES[room.getType().ordinal()])
+                .append(PRICE).append(room.getPrice());
     }
 
     // == UPDATE ==
-    public static String handleUpdateRoom(String[] parts)
+    public static String handleUpdateRoom(String[] parts, User admin)
     {
         try
         {
@@ -128,14 +157,8 @@ public class RoomHandler
 
             var price = Integer.parseInt(parts[6]);
 
-            var adminUsername = parts[7];
-
-            var adminPassword = parts[8];
-
             // Validate admin
-            var admin = UserHandler.findUser(adminUsername);
-
-            if (admin == null || !admin.isAdmin() || admin.validatePassword(adminPassword))
+            if (admin == null || !admin.isAdmin())
             {
                 return "403 ❌ Unauthorized access";
             }
@@ -168,14 +191,11 @@ public class RoomHandler
                 return "400 ❌ Invalid room type. Valid types: SINGLE_ROOM, DOUBLE_ROOM, DELUX_ROOM, SUITE";
             }
 
-            // Update room
-            targetRoom.setRoomNumber(roomNumber);
-
-            targetRoom.setHotelId(hotelId);
-
-            targetRoom.setType(roomType);
-
-            targetRoom.setPrice(price);
+            // Update room; a hotel removed meanwhile leaves the room as it was
+            if (!Database.updateRoom(targetRoom, hotelId, roomNumber, roomType, price))
+            {
+                return "404 ❌ Hotel not found";
+            }
 
             return "200 ✅ Room updated successfully";
         }
@@ -183,6 +203,10 @@ public class RoomHandler
         {
             return "500 ❌ Error updating room: " + e.getMessage();
         }
+        finally
+        {
+            Database.awaitDurable();
+        }
     }
 
     // == DELETE ==
@@ -193,7 +217,7 @@ public class RoomHandler
             var roomId = Integer.parseInt(roomIdStr);
 
             // Check for future bookings
-            var hasFutureBookings = Database.bookings.stream()
+            var hasFutureBookings = Database.allBookings().stream()
                     .anyMatch(booking -> booking.getRoomId() == roomId
                             && booking.getCheckOutTime().isAfter(LocalDateTime.now()));
 
@@ -202,12 +226,14 @@ public class RoomHandler
                 return "400 ❌ Cannot remove room with future bookings";
             }
 
-            if(Database.rooms.get(roomId) == null)
+            var room = Database.rooms.get(roomId);
+
+            if(room == null)
             {
                 return "404 ❌ Room not found";
             }
 
-            Database.rooms.remove(roomId);
+            Database.removeRoom(room);
 
 
             return "200 ✅ Room removed successfully";
@@ -217,6 +243,10 @@ public class RoomHandler
         {
             return "500 ❌ Error removing room: " + e.getMessage();
         }
+        finally
+        {
+            Database.awaitDurable();
+        }
     }
 
 }
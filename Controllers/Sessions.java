@@ -0,0 +1,130 @@
+package src.Controllers;
+
+import src.Models.User;
+import src.Server.ThreadPools;
+import src.Util.Metrics;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Sessions opened by LOGIN. A command carries "SESSION <token>" where the username and password would go,
+// so authenticating it is one hash lookup instead of a password check. A session ends after
+// --sessionTimeoutMs without use or when its user is removed; a background sweep drops expired ones.
+public class Sessions
+{
+    // Takes the place of the username in front of a token; no account may be called this
+    public static final String USERNAME = "SESSION";
+
+    private static final int TOKEN_BYTES = 18;
+
+    private static final long SWEEP_INTERVAL_SECONDS = 30;
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private static final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+
+    private static final LongAdder openedSessions = Metrics.counter("sessions.opened");
+
+    private static final LongAdder expiredSessions = Metrics.counter("sessions.expired");
+
+    private static volatile long timeoutNanos = TimeUnit.MINUTES.toNanos(30);
+
+    private static final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(ThreadPools.daemon("session-sweeper"));
+
+    static
+    {
+        sweeper.scheduleWithFixedDelay(Sessions::sweep, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static final class Session
+    {
+        private final User user;
+
+        // System.nanoTime() of the last command that used the session
+        private volatile long lastUsed = System.nanoTime();
+
+        private Session(User user)
+        {
+            this.user = user;
+        }
+
+        private boolean isExpired(long now)
+        {
+            return now - lastUsed > timeoutNanos;
+        }
+    }
+
+    private Sessions() {}
+
+    public static void setTimeout(long timeoutMs)
+    {
+        timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    }
+
+    // A new session for an already authenticated user; returns its token
+    public static String open(User user)
+    {
+        var bytes = new byte[TOKEN_BYTES];
+
+        random.nextBytes(bytes);
+
+        var token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+
+        sessions.put(token, new Session(user));
+
+        openedSessions.increment();
+
+        return token;
+    }
+
+    // The user of a live session, or null for an unknown or expired token. Using a session keeps it alive.
+    public static User find(String token)
+    {
+        var session = sessions.get(token);
+
+        if (session == null)
+        {
+            return null;
+        }
+
+        var now = System.nanoTime();
+
+        if (session.isExpired(now))
+        {
+            if (sessions.remove(token, session))
+            {
+                expiredSessions.increment();
+            }
+
+            return null;
+        }
+
+        session.lastUsed = now;
+
+        return session.user;
+    }
+
+    // Ends every session of a user, e.g. once the account is removed
+    public static void closeAll(User user)
+    {
+        sessions.values().removeIf(session -> session.user == user);
+    }
+
+    private static void sweep()
+    {
+        var now = System.nanoTime();
+
+        for (var entry : sessions.entrySet())
+        {
+            if (entry.getValue().isExpired(now) && sessions.remove(entry.getKey(), entry.getValue()))
+            {
+                expiredSessions.increment();
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package src.Controllers;
 
 import src.Models.User;
 import src.Server.Database;
+import src.Util.ResponseWriter;
 
 import java.time.LocalDateTime;
 
@@ -13,62 +14,66 @@ public class UserHandler
     // == CREATE ==
     public static String handleCreateUser(String username, String password)
     {
-        var existingUser = findUser(username);
+        if (username.equals(Sessions.USERNAME))
+        {
+            return "400 ❌ Username " + Sessions.USERNAME + " is reserved";
+        }
 
-        if (existingUser != null)
+        if (findUser(username) != null)
         {
             return "409 ❌ User already exists";
         }
 
         var newUser = new User(username, password, false);
 
-        Database.users.put(newUser.getUsername(), newUser);
+        // Checked again as it goes in, another CREATE USER may have taken the name while the password hashed
+        if (!Database.addUser(newUser))
+        {
+            return "409 ❌ User already exists";
+        }
+
+        Database.awaitDurable();
 
         return "200 ✅ User created successfully: " + username + " (ID: " + newUser.getId() + ")";
     }
 
     // == READ ==
-    public static String handleLogin(String username, String password)
+    // LOGIN <USERNAME> <USERPASS>; user is who the credentials belong to, null if they did not check out
+    public static String handleLogin(String username, User user)
     {
-        User user = Database.users.get(username);
-
-        if (user == null)
+        // SESSION and a token authenticate too, but there is no account of that name to log in to
+        if (user == null || !user.getUsername().equals(username))
         {
-            return "404 ❌ User not found";
+            return findUser(username) == null ? "404 ❌ User not found" : "403 ❌ Invalid password";
         }
 
-        if (user.validatePassword(password))
-        {
-            return "403 ❌ Invalid password";
-        }
-
-        return "200 ✅ Login successful. User: " + username + " (ID: " + user.getId() + "), Admin: " + (user.isAdmin() ? "Yes" : "No");
+        return "200 ✅ Login successful. User: " + username + " (ID: " + user.getId() + "), Admin: " + (user.isAdmin() ? "Yes" : "No")
+                + ", Session: " + Sessions.open(user);
     }
 
-    public static String listUsers()
+    // Writes the listing into out, returns its status code
+    public static int listUsers(ResponseWriter out)
     {
         var users = Database.users;
 
         if (users.isEmpty())
         {
-            return "404 👤 No users found";
+            out.line("404 👤 No users found");
+
+            return 404;
         }
 
-        var response = new StringBuilder("200 👤 Users:\n");
+        out.line("200 👤 Users:");
 
         for (var user : users.values())
         {
-            response.append("  User ID: ").append(user.getId())
+            out.append("  User ID: ").append(user.getId())
                     .append(" - Username: ").append(user.getUsername())
                     .append(" - Admin: ").append(user.isAdmin() ? "Yes" : "No")
-                    .append("\n");
+                    .append('\n');
         }
 
-        String res = response.toString();
-
-        response.setLength(0);
-
-        return res;
+        return 200;
     }
 
     // == DELETE ==
@@ -89,16 +94,19 @@ public class UserHandler
             }
 
             // Check for future bookings
-            var hasFutureBookings = Database.bookings.stream()
-                    .anyMatch(booking -> booking.getUserId() == targetUser.getId()
-                            && booking.getCheckOutTime().isAfter(LocalDateTime.now()));
+            var hasFutureBookings = Database.bookingsOf(targetUser.getId()).stream()
+                    .anyMatch(booking -> booking.getCheckOutTime().isAfter(LocalDateTime.now()));
 
             if (hasFutureBookings)
             {
                 return "400 ❌ Cannot remove user with future bookings";
             }
 
-            Database.users.remove(targetUser.getUsername());
+            Database.removeUser(targetUser);
+
+            Sessions.closeAll(targetUser);
+
+            VerifiedCredentials.forget(targetUser);
 
             return "200 ✅ User removed successfully";
         }
@@ -106,6 +114,22 @@ public class UserHandler
         {
             return "500 ❌ Error removing user: " + e.getMessage();
         }
+        finally
+        {
+            Database.awaitDurable();
+        }
+    }
+
+    // Cache of recently checked passwords in front of the slow hash, see VerifiedCredentials
+    public static void configureCredentialCache(long ttlMs, int size)
+    {
+        VerifiedCredentials.configure(ttlMs, size);
+    }
+
+    // Wrong passwords remembered, and how many slow checks of one username may fail, per window
+    public static void configureCredentialFailures(long windowMs, int limit)
+    {
+        VerifiedCredentials.configureFailures(windowMs, limit);
     }
 
     // ==== HELPER METHODS ====
@@ -114,5 +138,20 @@ public class UserHandler
         return Database.users.get(username);
     }
 
+    // The user behind the credentials every command ends with: a username and password, or SESSION and a
+    // token from LOGIN. Null if they do not check out. Passwords are checked through VerifiedCredentials.
+    // The server checks a command's credentials once, before it runs, and hands the handler the user found.
+    public static User authenticate(String username, String password)
+    {
+        if (username.equals(Sessions.USERNAME))
+        {
+            return Sessions.find(password);
+        }
+
+        var user = findUser(username);
+
+        return user != null && VerifiedCredentials.matches(user, password) ? user : null;
+    }
+
 
 }
@@ -0,0 +1,282 @@
+package src.Controllers;
+
+import src.Models.User;
+import src.Util.Metrics;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Passwords checked recently, so the slow PBKDF2 check of User runs about once per user and
+// --credentialCacheTtlMs instead of on every command. Only an HMAC of the password under a key made at
+// startup is kept, bound to the user's current salt, so a changed password or a recreated account misses.
+// Holds at most --credentialCacheSize users.
+//
+// Wrong passwords are kept the same way for --credentialFailureWindowMs, so repeating one costs no hash.
+// Once --credentialFailureLimit slow checks of a username failed within that window, passwords not known
+// to be right are refused without hashing until the window ends; a password checked right before stays
+// good, so the owner is only locked out if their entry expires meanwhile.
+class VerifiedCredentials
+{
+    private static final int KEY_BYTES = 32;
+
+    private static final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private static final byte[] key = new byte[KEY_BYTES];
+
+    // Password checks running right now, by username and digest
+    private static final ConcurrentHashMap<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+
+    // Wrong passwords, by username and digest like inFlight, with the time they are forgotten
+    private static final ConcurrentHashMap<String, Long> refused = new ConcurrentHashMap<>();
+
+    // Slow checks that failed, per username
+    private static final ConcurrentHashMap<String, Failures> failures = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<Mac> macs = ThreadLocal.withInitial(VerifiedCredentials::newMac);
+
+    private static final LongAdder hits = Metrics.counter("credentials.cacheHits");
+
+    private static final LongAdder misses = Metrics.counter("credentials.cacheMisses");
+
+    private static final LongAdder refusedHits = Metrics.counter("credentials.refusedHits");
+
+    private static final LongAdder throttled = Metrics.counter("credentials.throttled");
+
+    private static final LongAdder slowChecks = Metrics.counter("credentials.slowChecks");
+
+    private static volatile long ttlNanos = TimeUnit.MINUTES.toNanos(5);
+
+    private static volatile int maxEntries = 10_000;
+
+    private static volatile long failureWindowNanos = TimeUnit.MINUTES.toNanos(1);
+
+    private static volatile int failureLimit = 5;
+
+    static
+    {
+        new SecureRandom().nextBytes(key);
+    }
+
+    private static final class Entry
+    {
+        private final User user;
+
+        private final byte[] digest;
+
+        private final long expiresAt;
+
+        private Entry(User user, byte[] digest, long expiresAt)
+        {
+            this.user = user;
+
+            this.digest = digest;
+
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // Failed slow checks of one username in the window ending at windowEnd
+    private static final class Failures
+    {
+        private final int count;
+
+        private final long windowEnd;
+
+        private Failures(int count, long windowEnd)
+        {
+            this.count = count;
+
+            this.windowEnd = windowEnd;
+        }
+    }
+
+    private VerifiedCredentials() {}
+
+    static void configure(long ttlMs, int size)
+    {
+        ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+
+        maxEntries = size;
+    }
+
+    static void configureFailures(long windowMs, int limit)
+    {
+        failureWindowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+
+        failureLimit = limit;
+    }
+
+    // Same answer as user.validatePassword(password) == false, i.e. true if the password is right
+    static boolean matches(User user, String password)
+    {
+        var digest = digest(user, password);
+
+        var entry = entries.get(user.getUsername());
+
+        if (entry != null && entry.user == user && System.nanoTime() - entry.expiresAt < 0 && MessageDigest.isEqual(entry.digest, digest))
+        {
+            hits.increment();
+
+            return true;
+        }
+
+        misses.increment();
+
+        var flight = user.getUsername() + '\0' + Base64.getEncoder().encodeToString(digest);
+
+        var now = System.nanoTime();
+
+        var forgetAt = refused.get(flight);
+
+        if (forgetAt != null && now - forgetAt < 0)
+        {
+            refusedHits.increment();
+
+            return false;
+        }
+
+        var failed = failures.get(user.getUsername());
+
+        if (failed != null && now - failed.windowEnd < 0 && failed.count >= failureLimit)
+        {
+            throttled.increment();
+
+            return false;
+        }
+
+        // Requests that miss together with the same password wait for one hash instead of running their own
+        var check = new CompletableFuture<Boolean>();
+
+        var running = inFlight.putIfAbsent(flight, check);
+
+        if (running != null)
+        {
+            return running.join();
+        }
+
+        try
+        {
+            slowChecks.increment();
+
+            var matches = !user.validatePassword(password);
+
+            if (matches)
+            {
+                failures.remove(user.getUsername());
+
+                if (maxEntries > 0)
+                {
+                    if (entries.size() >= maxEntries)
+                    {
+                        evict();
+                    }
+
+                    entries.put(user.getUsername(), new Entry(user, digest, System.nanoTime() + ttlNanos));
+                }
+            }
+            else
+            {
+                fail(user, flight);
+            }
+
+            check.complete(matches);
+
+            return matches;
+        }
+        catch (RuntimeException e)
+        {
+            check.completeExceptionally(e);
+
+            throw e;
+        }
+        finally
+        {
+            inFlight.remove(flight, check);
+        }
+    }
+
+    static void forget(User user)
+    {
+        entries.remove(user.getUsername());
+
+        failures.remove(user.getUsername());
+    }
+
+    // Remembers a wrong password and counts it against the username
+    private static void fail(User user, String flight)
+    {
+        var now = System.nanoTime();
+
+        if (refused.size() >= maxEntries)
+        {
+            refused.values().removeIf(forgetAt -> now - forgetAt >= 0);
+        }
+
+        // Still full of live entries: an attacker cycling passwords, who the failure limit stops anyway
+        if (refused.size() < maxEntries)
+        {
+            refused.put(flight, now + failureWindowNanos);
+        }
+
+        if (failures.size() >= maxEntries)
+        {
+            failures.values().removeIf(failed -> now - failed.windowEnd >= 0);
+        }
+
+        failures.compute(user.getUsername(), (username, failed) -> failed == null || now - failed.windowEnd >= 0
+                ? new Failures(1, now + failureWindowNanos)
+                : new Failures(failed.count + 1, failed.windowEnd));
+    }
+
+    // Drops the expired entries, or if there are none, whichever ones iteration meets first
+    private static void evict()
+    {
+        var now = System.nanoTime();
+
+        entries.values().removeIf(entry -> now - entry.expiresAt >= 0);
+
+        var excess = entries.size() - maxEntries + 1;
+
+        for (var iterator = entries.keySet().iterator(); excess > 0 && iterator.hasNext(); excess--)
+        {
+            iterator.next();
+
+            iterator.remove();
+        }
+    }
+
+    private static byte[] digest(User user, String password)
+    {
+        var mac = macs.get();
+
+        mac.update(user.getSalt());
+
+        return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Mac newMac()
+    {
+        try
+        {
+            var mac = Mac.getInstance("HmacSHA256");
+
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+
+            return mac;
+        }
+        catch (GeneralSecurityException e)
+        {
+            // Every Java runtime ships HmacSHA256
+            throw new IllegalStateException("HmacSHA256 unavailable", e);
+        }
+    }
+}
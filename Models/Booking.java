@@ -1,14 +1,12 @@
 // src/Model/Booking.java
 package src.Models;
 
+import src.Util.IdAllocator;
+
 import java.time.LocalDateTime;
 
 public class Booking
 {
-    private static int bookingCounter = 0;
-
-    private static int transactionCounter = 0;
-
     private final int id;
 
     private final int roomId;
@@ -26,7 +24,20 @@ public class Booking
     // Constructor with specified transaction ID
     public Booking(int roomId, int userId, LocalDateTime checkInTime, LocalDateTime checkOutTime, int transactionId)
     {
-        this.id = ++bookingCounter;
+        this(IdAllocator.next(IdAllocator.Sequence.BOOKING), roomId, userId, checkInTime, checkOutTime, transactionId);
+    }
+
+    // With an id taken beforehand, e.g. one of a block reserved for all rooms of a BOOK
+    public Booking(int id, int roomId, int userId, LocalDateTime checkInTime, LocalDateTime checkOutTime, int transactionId)
+    {
+        this(id, roomId, userId, checkInTime, checkOutTime, transactionId, LocalDateTime.now());
+    }
+
+    // As it was made before, e.g. read back from a snapshot
+    public Booking(int id, int roomId, int userId, LocalDateTime checkInTime, LocalDateTime checkOutTime, int transactionId,
+                   LocalDateTime bookedTime)
+    {
+        this.id = id;
 
         this.roomId = roomId;
 
@@ -38,13 +49,7 @@ public class Booking
 
         this.checkOutTime = checkOutTime;
 
-        this.bookedTime = LocalDateTime.now();
-
-        // Update the transaction counter if needed
-        if (transactionId > transactionCounter)
-        {
-            transactionCounter = transactionId;
-        }
+        this.bookedTime = bookedTime;
     }
 
     // Getters
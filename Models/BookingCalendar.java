@@ -0,0 +1,183 @@
+package src.Models;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+// The bookings of one room, sorted by check-in. Bookings of a room never overlap, so their check-outs are
+// sorted as well and whether a stay collides with any of them is a single binary search. Readers use the
+// current snapshot without locking; a change copies it, which is cheap for the bookings of one room.
+public class BookingCalendar
+{
+    private static final Snapshot EMPTY = new Snapshot(new long[0], new long[0], new Booking[0]);
+
+    private volatile Snapshot snapshot = EMPTY;
+
+    // Stay boundaries as epoch seconds, parallel to bookings
+    private static final class Snapshot
+    {
+        private final long[] checkIns;
+
+        private final long[] checkOuts;
+
+        private final Booking[] bookings;
+
+        private Snapshot(long[] checkIns, long[] checkOuts, Booking[] bookings)
+        {
+            this.checkIns = checkIns;
+
+            this.checkOuts = checkOuts;
+
+            this.bookings = bookings;
+        }
+    }
+
+    // True if no booking overlaps the stay. As before, stays that only touch (one checks out the minute the
+    // other checks in) count as overlapping.
+    public boolean isFree(LocalDateTime checkInTime, LocalDateTime checkOutTime)
+    {
+        var current = snapshot;
+
+        var first = firstCheckOutFrom(current.checkOuts, seconds(checkInTime));
+
+        return first == current.checkOuts.length || current.checkIns[first] > seconds(checkOutTime);
+    }
+
+    // The caller makes sure the booking is free, holding the room's lock
+    public synchronized void add(Booking booking)
+    {
+        var current = snapshot;
+
+        var checkIn = seconds(booking.getCheckInTime());
+
+        var at = firstCheckOutFrom(current.checkOuts, checkIn);
+
+        var size = current.bookings.length;
+
+        var checkIns = new long[size + 1];
+
+        var checkOuts = new long[size + 1];
+
+        var bookings = new Booking[size + 1];
+
+        System.arraycopy(current.checkIns, 0, checkIns, 0, at);
+
+        System.arraycopy(current.checkOuts, 0, checkOuts, 0, at);
+
+        System.arraycopy(current.bookings, 0, bookings, 0, at);
+
+        checkIns[at] = checkIn;
+
+        checkOuts[at] = seconds(booking.getCheckOutTime());
+
+        bookings[at] = booking;
+
+        System.arraycopy(current.checkIns, at, checkIns, at + 1, size - at);
+
+        System.arraycopy(current.checkOuts, at, checkOuts, at + 1, size - at);
+
+        System.arraycopy(current.bookings, at, bookings, at + 1, size - at);
+
+        snapshot = new Snapshot(checkIns, checkOuts, bookings);
+    }
+
+    // Enters many bookings at once, e.g. all of a room's when a snapshot is loaded, with one copy instead of
+    // one per booking; like add, the caller makes sure none of them overlap
+    public synchronized void addAll(Collection<Booking> added)
+    {
+        var current = snapshot;
+
+        var bookings = Arrays.copyOf(current.bookings, current.bookings.length + added.size());
+
+        var at = current.bookings.length;
+
+        for (var booking : added)
+        {
+            bookings[at++] = booking;
+        }
+
+        Arrays.sort(bookings, Comparator.comparing(Booking::getCheckInTime));
+
+        var checkIns = new long[bookings.length];
+
+        var checkOuts = new long[bookings.length];
+
+        for (var i = 0; i < bookings.length; i++)
+        {
+            checkIns[i] = seconds(bookings[i].getCheckInTime());
+
+            checkOuts[i] = seconds(bookings[i].getCheckOutTime());
+        }
+
+        snapshot = new Snapshot(checkIns, checkOuts, bookings);
+    }
+
+    public synchronized boolean remove(Booking booking)
+    {
+        var current = snapshot;
+
+        var at = firstCheckOutFrom(current.checkOuts, seconds(booking.getCheckOutTime()));
+
+        if (at == current.bookings.length || current.bookings[at] != booking)
+        {
+            return false;
+        }
+
+        var size = current.bookings.length;
+
+        if (size == 1)
+        {
+            snapshot = EMPTY;
+
+            return true;
+        }
+
+        var checkIns = new long[size - 1];
+
+        var checkOuts = new long[size - 1];
+
+        var bookings = new Booking[size - 1];
+
+        System.arraycopy(current.checkIns, 0, checkIns, 0, at);
+
+        System.arraycopy(current.checkOuts, 0, checkOuts, 0, at);
+
+        System.arraycopy(current.bookings, 0, bookings, 0, at);
+
+        System.arraycopy(current.checkIns, at + 1, checkIns, at, size - at - 1);
+
+        System.arraycopy(current.checkOuts, at + 1, checkOuts, at, size - at - 1);
+
+        System.arraycopy(current.bookings, at + 1, bookings, at, size - at - 1);
+
+        snapshot = new Snapshot(checkIns, checkOuts, bookings);
+
+        return true;
+    }
+
+    public int size()
+    {
+        return snapshot.bookings.length;
+    }
+
+    // Index of the first booking checking out at or after the given time, or the length if there is none
+    private static int firstCheckOutFrom(long[] checkOuts, long time)
+    {
+        var found = Arrays.binarySearch(checkOuts, time);
+
+        if (found < 0)
+        {
+            return -found - 1;
+        }
+
+        // Check-outs are distinct for non-overlapping stays, this is the only one at that time
+        return found;
+    }
+
+    private static long seconds(LocalDateTime time)
+    {
+        return time.toEpochSecond(ZoneOffset.UTC);
+    }
+}
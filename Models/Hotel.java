@@ -1,16 +1,21 @@
 package src.Models;
 
+import src.Util.IdAllocator;
+
 public class Hotel
 {
-    private static int hotelCounter = 0; // TODO : Why static variable in POJO??
-
     private final int id;
 
     private String name;
 
     public Hotel(String name)
     {
-        this.id = ++hotelCounter; // TODO : what about thread safety?
+        this(IdAllocator.next(IdAllocator.Sequence.HOTEL), name);
+    }
+
+    public Hotel(int id, String name)
+    {
+        this.id = id;
 
         this.name = name;
     }
@@ -1,5 +1,7 @@
 package src.Models;
 
+import src.Util.IdAllocator;
+
 import java.util.concurrent.locks.ReentrantLock;
 
 public class Room
@@ -16,8 +18,6 @@ public class Room
         SUITE
     }
 
-    private static int roomCounter = 0; // TODO : worst way to initialize unuiqe id
-
     private final int id;
 
     private RoomType type;
@@ -30,9 +30,16 @@ public class Room
 
     private final ReentrantLock lock;
 
+    private final BookingCalendar calendar = new BookingCalendar();
+
     public Room(String roomNumber, int price, RoomType type, int hotelId)
     {
-        this.id = ++roomCounter;
+        this(IdAllocator.next(IdAllocator.Sequence.ROOM), roomNumber, price, type, hotelId);
+    }
+
+    public Room(int id, String roomNumber, int price, RoomType type, int hotelId)
+    {
+        this.id = id;
 
         this.roomNumber = roomNumber;
 
@@ -76,6 +83,12 @@ public class Room
         return lock;
     }
 
+    // The room's bookings, kept by the heap booking store for availability checks
+    public BookingCalendar getCalendar()
+    {
+        return calendar;
+    }
+
     // Setters for updateable fields
     public void setPrice(int price)
     {
@@ -1,26 +1,54 @@
 package src.Models;
 
+import src.Util.IdAllocator;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
 public class User
 {
-    private static int userCounter = 0;
+    // PBKDF2 work factor for new hashes; each user keeps the one its hash was made with
+    private static final int HASH_ITERATIONS = 210_000;
+
+    private static final int HASH_BYTES = 32;
+
+    private static final int SALT_BYTES = 16;
+
+    private static final SecureRandom random = new SecureRandom();
 
     private final int id;
 
     private final String username;
 
-    private String password;
+    // Only the salted PBKDF2 hash of the password is kept; a new password gets a new salt
+    private volatile Credential credential;
 
     private final boolean isAdmin;
 
     public User(String username, String password, boolean isAdmin)
     {
-        this.id = ++userCounter;
+        this.id = IdAllocator.next(IdAllocator.Sequence.USER);
 
         this.username = username;
 
-        this.password = password;
+        this.isAdmin = isAdmin;
+
+        setPassword(password);
+    }
+
+    // A user as stored, e.g. replayed from the write-ahead log; the password itself was never kept
+    public User(int id, String username, boolean isAdmin, byte[] salt, byte[] hash, int iterations)
+    {
+        this.id = id;
+
+        this.username = username;
 
         this.isAdmin = isAdmin;
+
+        this.credential = new Credential(salt.clone(), hash.clone(), iterations);
     }
 
     // Getters
@@ -39,14 +67,75 @@ public class User
         return isAdmin;
     }
 
+    // True if the password does NOT match. Deliberately slow (PBKDF2), see UserHandler for the cache in front of it.
     public boolean validatePassword(String inputPassword)
     {
-        return !password.equals(inputPassword);
+        var current = credential;
+
+        return !MessageDigest.isEqual(current.hash, hash(inputPassword, current.salt, current.iterations));
+    }
+
+    // Changes whenever the password does, so anything derived from the old one stops matching
+    public byte[] getSalt()
+    {
+        return credential.salt.clone();
+    }
+
+    public byte[] getPasswordHash()
+    {
+        return credential.hash.clone();
+    }
+
+    public int getHashIterations()
+    {
+        return credential.iterations;
     }
 
     public void setPassword(String newPassword)
     {
-        this.password = newPassword;
+        var newSalt = new byte[SALT_BYTES];
+
+        random.nextBytes(newSalt);
+
+        this.credential = new Credential(newSalt, hash(newPassword, newSalt, HASH_ITERATIONS), HASH_ITERATIONS);
+    }
+
+    // Replaced as a whole, so a check never sees the salt of one password with the hash of another
+    private static final class Credential
+    {
+        private final byte[] salt;
+
+        private final byte[] hash;
+
+        private final int iterations;
+
+        private Credential(byte[] salt, byte[] hash, int iterations)
+        {
+            this.salt = salt;
+
+            this.hash = hash;
+
+            this.iterations = iterations;
+        }
+    }
+
+    private static byte[] hash(String password, byte[] salt, int iterations)
+    {
+        var spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BYTES * 8);
+
+        try
+        {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        }
+        catch (GeneralSecurityException e)
+        {
+            // Every Java runtime ships PBKDF2WithHmacSHA256
+            throw new IllegalStateException("PBKDF2 unavailable", e);
+        }
+        finally
+        {
+            spec.clearPassword();
+        }
     }
 
 }
@@ -0,0 +1,206 @@
+package src.Server;
+
+import src.Util.Metrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+// Accepts the connections of either front end on --acceptors threads. Where the platform supports
+// SO_REUSEPORT every thread listens on a socket of its own bound to the same port and the kernel spreads
+// new connections over them; elsewhere the threads take turns accepting on one shared socket.
+class Acceptor
+{
+    // Takes over an admitted connection; the channel is still in blocking mode
+    interface Handler
+    {
+        void accept(SocketChannel client) throws Exception;
+    }
+
+    private static final int BACKLOG = 1024;
+
+    private static final long ACCEPT_RETRY_MS = 10;
+
+    private static final LongAdder acceptedConnections = Metrics.counter("connections.accepted");
+
+    private static final Metrics.Rate acceptRate = Metrics.rate("connections.acceptRate");
+
+    private final List<ServerSocketChannel> listeners = new ArrayList<>();
+
+    private final int threads;
+
+    private final boolean logConnections;
+
+    private final ConnectionRegistry registry;
+
+    private volatile boolean accepting = true;
+
+    // Binds the port right away, so a port in use fails startup rather than the first accept
+    Acceptor(int port, int threads, boolean logConnections, ConnectionRegistry registry) throws IOException
+    {
+        this.threads = Math.max(1, threads);
+
+        this.logConnections = logConnections;
+
+        this.registry = registry;
+
+        var first = listen(port, this.threads > 1);
+
+        listeners.add(first);
+
+        if (this.threads > 1 && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT))
+        {
+            for (var i = 1; i < this.threads; i++)
+            {
+                listeners.add(listen(port, true));
+            }
+        }
+    }
+
+    int getThreads()
+    {
+        return threads;
+    }
+
+    int getListeners()
+    {
+        return listeners.size();
+    }
+
+    // Starts the other acceptor threads and runs the first one on the calling thread until stop()
+    void run(Handler handler)
+    {
+        for (var i = 1; i < threads; i++)
+        {
+            var listener = listeners.get(i % listeners.size());
+
+            new Thread(() -> acceptLoop(listener, handler), "acceptor-" + i).start();
+        }
+
+        acceptLoop(listeners.get(0), handler);
+    }
+
+    // Closes the listening sockets, which ends every accept loop
+    void stop()
+    {
+        accepting = false;
+
+        for (var listener : listeners)
+        {
+            try
+            {
+                listener.close();
+            }
+            catch (IOException e)
+            {
+                System.out.println("Server error during shutdown -> " + e.getMessage());
+            }
+        }
+    }
+
+    private static ServerSocketChannel listen(int port, boolean reusePort) throws IOException
+    {
+        var listener = ServerSocketChannel.open();
+
+        listener.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+
+        if (reusePort && listener.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT))
+        {
+            listener.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+
+        listener.bind(new InetSocketAddress(port), BACKLOG);
+
+        return listener;
+    }
+
+    private void acceptLoop(ServerSocketChannel listener, Handler handler)
+    {
+        while (accepting)
+        {
+            SocketChannel client;
+
+            try
+            {
+                client = listener.accept();
+            }
+            catch (ClosedChannelException e)
+            {
+                break;
+            }
+            catch (IOException e)
+            {
+                // E.g. out of file descriptors: this connection is lost, the listener is still fine
+                System.out.println("Accept failed -> " + e.getMessage());
+
+                pause();
+
+                continue;
+            }
+
+            acceptedConnections.increment();
+
+            acceptRate.mark();
+
+            serve(client, handler);
+        }
+    }
+
+    // Keeps a failing accept from spinning until descriptors free up again
+    private static void pause()
+    {
+        try
+        {
+            Thread.sleep(ACCEPT_RETRY_MS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void serve(SocketChannel client, Handler handler)
+    {
+        try
+        {
+            if (logConnections)
+            {
+                var remote = (InetSocketAddress) client.getRemoteAddress();
+
+                System.out.println("Connected IP [" + remote.getAddress().getHostAddress() + "] PORT [" + remote.getPort() + "]");
+            }
+
+            if (!registry.admit())
+            {
+                // Best effort, the socket buffer of a fresh connection easily holds this
+                client.write(ByteBuffer.wrap(Dispatcher.encode(Dispatcher.BUSY_RESPONSE)));
+
+                client.close();
+
+                return;
+            }
+
+            handler.accept(client);
+        }
+        catch (Exception e)
+        {
+            System.out.println("Server error -> " + e.getMessage());
+
+            try
+            {
+                client.close();
+            }
+            catch (IOException ignored)
+            {
+                // Closing is all that was left to do with it
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package src.Server;
+
+import src.Util.Metrics;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Front door of the request pool. Under overload a request is answered "503 busy" right away instead of
+// waiting in an ever growing queue: either because the pool's bounded queue is full, or because by the time
+// a worker picked it up it had already waited longer than the queue-time budget.
+class AdmissionControl implements Executor
+{
+    private final ExecutorService pool;
+
+    // Only used for virtual threads, which start immediately and so have no queue to bound
+    private final int maxInFlight;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final long queueBudgetNanos;
+
+    private final LongAdder admitted = Metrics.counter("requests.admitted");
+
+    private final LongAdder shedQueueFull = Metrics.counter("requests.shed.queueFull");
+
+    private final LongAdder shedDeadline = Metrics.counter("requests.shed.queueTimeout");
+
+    AdmissionControl(ExecutorService pool, int maxInFlight, long queueBudgetMs)
+    {
+        this.pool = pool;
+
+        this.maxInFlight = maxInFlight;
+
+        this.queueBudgetNanos = TimeUnit.MILLISECONDS.toNanos(queueBudgetMs);
+    }
+
+    @Override
+    public void execute(Runnable task)
+    {
+        if (maxInFlight > 0 && inFlight.incrementAndGet() > maxInFlight)
+        {
+            inFlight.decrementAndGet();
+
+            shedQueueFull.increment();
+
+            throw new RejectedExecutionException("Request queue full");
+        }
+
+        try
+        {
+            pool.execute(maxInFlight > 0 ? () -> runCounted(task) : task);
+
+            admitted.increment();
+        }
+        catch (RejectedExecutionException e)
+        {
+            if (maxInFlight > 0)
+            {
+                inFlight.decrementAndGet();
+            }
+
+            shedQueueFull.increment();
+
+            throw e;
+        }
+    }
+
+    // True, and counted as shed, when a request queued at queuedAt (System.nanoTime) is already past its budget
+    boolean isExpired(long queuedAt)
+    {
+        if (System.nanoTime() - queuedAt <= queueBudgetNanos)
+        {
+            return false;
+        }
+
+        shedDeadline.increment();
+
+        return true;
+    }
+
+    private void runCounted(Runnable task)
+    {
+        try
+        {
+            task.run();
+        }
+        finally
+        {
+            inFlight.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package src.Server;
+
+import src.Controllers.UserHandler;
+import src.Util.Compression;
+import src.Util.Metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+
+// BATCH <N> <USERNAME> <USERPASS> followed by N command lines without credentials, answered with one
+// result block. The credentials are checked once up front, which is also when the user's batch rate limit
+// is charged, and every command runs as the user found then. The credentials are still appended to each
+// command line, so its arguments sit where the handlers look for them.
+//
+// Commands run in parallel where the outcome cannot differ from running them one by one: read-only
+// commands run side by side, and UPDATE ROOM / UPDATE HOTEL only wait for earlier commands on the same
+// room or hotel. Anything that adds or removes data (CREATE, BOOK, REMOVE, ...) waits for everything
+// before it and everything after it waits for it.
+class Batch
+{
+    static final int MAX_COMMANDS = 10_000;
+
+    // Upper bound on the command lines of one batch together
+    static final int MAX_BYTES = 4 * 1024 * 1024;
+
+    // Separate from the request pool: a batch holds a request thread while it waits for its commands.
+    // Bounded like it, see usePool.
+    private static volatile ThreadPoolExecutor pool = ThreadPools.batchPool(Runtime.getRuntime().availableProcessors(), MAX_COMMANDS);
+
+    private static final LongAdder batchedCommands = Metrics.counter("batch.commands");
+
+    private final String username;
+
+    private final String password;
+
+    private final int expected;
+
+    private final List<String> commands = new ArrayList<>();
+
+    private int bytes = 0;
+
+    // Lines past MAX_BYTES are only counted, so the stream stays in step and the batch fails as a whole
+    private int overflow = 0;
+
+    private Batch(int expected, String username, String password)
+    {
+        this.expected = expected;
+
+        this.username = username;
+
+        this.password = password;
+    }
+
+    // Replaces the default pool, before the server takes connections
+    static void usePool(ThreadPoolExecutor batchPool)
+    {
+        var previous = pool;
+
+        pool = batchPool;
+
+        previous.shutdown();
+    }
+
+    static void shutdown()
+    {
+        pool.shutdown();
+    }
+
+    static boolean isBatch(String line)
+    {
+        var trimmed = line.trim();
+
+        return trimmed.equals("BATCH") || trimmed.startsWith("BATCH ");
+    }
+
+    // Batch announced by a "BATCH <N> <USERNAME> <USERPASS>" line, or null when the line is malformed
+    static Batch start(String line)
+    {
+        var parts = line.trim().split(" ");
+
+        try
+        {
+            var expected = parts.length == 4 ? Integer.parseInt(parts[1]) : -1;
+
+            return expected < 1 || expected > MAX_COMMANDS ? null : new Batch(expected, parts[2], parts[3]);
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    // Takes the next command line, true once all N have arrived
+    boolean add(String line)
+    {
+        bytes += line.length();
+
+        if (bytes > MAX_BYTES)
+        {
+            overflow++;
+        }
+        else
+        {
+            commands.add(line);
+        }
+
+        return commands.size() + overflow == expected;
+    }
+
+    // Commands announced, including any past MAX_BYTES
+    int size()
+    {
+        return expected;
+    }
+
+    Request toRequest(Compression compression, RateLimiter limiter)
+    {
+        return new Request(isReadOnly(), false, () -> execute(compression, limiter));
+    }
+
+    boolean isReadOnly()
+    {
+        for (var command : commands)
+        {
+            if (!Dispatcher.isReadOnly(command))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // ==== Running the commands ====
+
+    private Response execute(Compression compression, RateLimiter limiter)
+    {
+        if (overflow > 0)
+        {
+            return Response.of(Dispatcher.encode("413 ❌ Batch larger than " + MAX_BYTES + " bytes"));
+        }
+
+        var user = UserHandler.authenticate(username, password);
+
+        if (user == null)
+        {
+            return Response.of(Dispatcher.encode("403 ❌ Unauthorized access"));
+        }
+
+        var executor = pool;
+
+        // Turned away whole when the pool has no room for all of it, rather than run in part
+        if (executor.getQueue().remainingCapacity() < commands.size())
+        {
+            return Response.of(Dispatcher.encode(Dispatcher.BUSY_RESPONSE));
+        }
+
+        if (!limiter.tryAcquireUserBatch(user.getUsername(), size()))
+        {
+            return Response.of(Dispatcher.encode(RateLimiter.TOO_MANY_REQUESTS));
+        }
+
+        batchedCommands.add(commands.size());
+
+        var results = new ArrayList<CompletableFuture<String>>(commands.size());
+
+        // Everything submitted so far, the last add/remove barrier, and the reads and keyed updates since it
+        CompletableFuture<Void> all = CompletableFuture.completedFuture(null);
+
+        CompletableFuture<Void> barrier = all;
+
+        CompletableFuture<Void> reads = all;
+
+        CompletableFuture<Void> updates = all;
+
+        var lastByTarget = new HashMap<String, CompletableFuture<Void>>();
+
+        for (var command : commands)
+        {
+            var line = command.trim().startsWith("CREATE USER") ? command : command + " " + username + " " + password;
+
+            var readOnly = Dispatcher.isReadOnly(command);
+
+            var target = readOnly ? null : targetOf(command);
+
+            CompletableFuture<Void> after;
+
+            if (isBatch(command))
+            {
+                after = all;
+
+                line = null;
+            }
+            else if (readOnly)
+            {
+                after = CompletableFuture.allOf(barrier, updates);
+            }
+            else if (target != null)
+            {
+                after = CompletableFuture.allOf(barrier, reads, lastByTarget.getOrDefault(target, barrier));
+            }
+            else
+            {
+                after = all;
+            }
+
+            var dispatched = line;
+
+            var result = after.thenApplyAsync(v -> dispatched == null ? "400 ❌ BATCH cannot be nested" : Dispatcher.dispatch(dispatched, user), executor)
+                    .exceptionally(Batch::failed);
+
+            var done = result.thenAccept(response -> {});
+
+            results.add(result);
+
+            all = CompletableFuture.allOf(all, done);
+
+            if (readOnly)
+            {
+                reads = CompletableFuture.allOf(reads, done);
+            }
+            else if (target != null)
+            {
+                updates = CompletableFuture.allOf(updates, done);
+
+                lastByTarget.put(target, done);
+            }
+            else
+            {
+                // It waited for everything before it, so it alone stands for all of that now
+                barrier = done;
+
+                reads = done;
+
+                updates = done;
+
+                lastByTarget.clear();
+            }
+        }
+
+        all.join();
+
+        return Dispatcher.encode(render(results), compression);
+    }
+
+    // A command the pool refused, another batch having filled it meanwhile, is answered busy
+    private static String failed(Throwable e)
+    {
+        var cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+
+        return cause instanceof RejectedExecutionException ? Dispatcher.BUSY_RESPONSE : "500 ❌ Internal Server error";
+    }
+
+    // The one room or hotel an in-place update touches, or null for commands that add or remove data
+    private static String targetOf(String command)
+    {
+        var parts = command.trim().split(" ");
+
+        if (parts.length > 2 && parts[0].equals("UPDATE") && (parts[1].equals("ROOM") || parts[1].equals("HOTEL")))
+        {
+            return parts[1] + " " + parts[2];
+        }
+
+        return null;
+    }
+
+    private static String render(List<CompletableFuture<String>> results)
+    {
+        var succeeded = 0;
+
+        var block = new StringBuilder();
+
+        for (var i = 0; i < results.size(); i++)
+        {
+            var response = results.get(i).join();
+
+            if (response.startsWith("2"))
+            {
+                succeeded++;
+            }
+
+            // Continuation lines are indented, so no line of a result can end the whole response early
+            block.append("[").append(i + 1).append("] ")
+                    .append(Dispatcher.frame(response).strip().replace("\n", "\n    "))
+                    .append("\n");
+        }
+
+        return "200 📦 Batch results: " + results.size() + " commands, " + succeeded + " succeeded, "
+                + (results.size() - succeeded) + " failed\n" + block;
+    }
+}
@@ -0,0 +1,522 @@
+package src.Server;
+
+import src.Controllers.BookingHandler;
+import src.Controllers.HotelHandler;
+import src.Controllers.Outcome;
+import src.Controllers.UserHandler;
+import src.Models.Booking;
+import src.Models.Room;
+import src.Models.User;
+import src.Util.ResponseWriter;
+import src.Util.Tokens;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+// Compact framing for high volume clients, chosen by sending MAGIC as the very first byte of a connection.
+// The handlers are the same as for the text protocol, only parsing and formatting are skipped.
+//
+// Every frame is an int length followed by that many bytes. All numbers are big-endian, a string is an
+// unsigned short byte count plus UTF-8, so at most 65535 bytes, and a date is a LocalDateTime as seconds
+// since 1970-01-01T00:00 (long).
+//
+// Request:  opcode(byte) payload
+//   LOGIN  0x01  user pass
+//   CHECK  0x02  checkIn checkOut user pass
+//   BOOK   0x03  count(short) roomId(int)*count checkIn checkOut user pass
+//   LIST   0x04  type(byte: 0 ROOMS, 1 HOTELS, 2 USERS, 3 BOOKINGS) user pass
+//   REMOVE 0x05  type(byte: 0 USER, 1 BOOKING, 2 ROOM, 3 HOTEL) target(string) user pass
+//   TEXT   0x7E  line(string), any other text protocol command
+//   QUIT   0x7F
+//
+// Response: status(short) opcode(byte) payload
+//   CHECK with status 200: count(int), per room id(int) hotelId(int) price(int) type(byte) number(string) hotel(string)
+//   BOOK with status 200:  transactionId(int) count(int) bookingId(int)*count
+//   anything else:         message, the text response without its status code, as int byte count plus UTF-8
+public class BinaryProtocol
+{
+    public static final byte MAGIC = (byte) 0xB1;
+
+    public static final byte LOGIN = 0x01;
+
+    public static final byte CHECK = 0x02;
+
+    public static final byte BOOK = 0x03;
+
+    public static final byte LIST = 0x04;
+
+    public static final byte REMOVE = 0x05;
+
+    public static final byte TEXT = 0x7E;
+
+    public static final byte QUIT = 0x7F;
+
+    // Upper bound for a request frame, anything larger is treated as a broken client
+    public static final int MAX_REQUEST_FRAME = 64 * 1024;
+
+    // Frame length, status and opcode; the message length overwrites the text's own "NNN " status prefix
+    private static final int LISTING_HEADER = 7;
+
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+
+    private static final String[] LIST_TYPES = {"ROOMS", "HOTELS", "USERS", "BOOKINGS"};
+
+    private static final String[] REMOVE_TYPES = {"USER", "BOOKING", "ROOM", "HOTEL"};
+
+    private BinaryProtocol() {}
+
+    // ==== SERVER SIDE ====
+
+    // Decodes one request and charges it to the client address's rate limit; the user's is charged when it runs
+    static Request decode(ByteBuffer frame, RateLimiter limiter, String address)
+    {
+        var opcode = frame.hasRemaining() ? frame.get(frame.position()) : 0;
+
+        var request = decode(frame);
+
+        if (request.isQuit())
+        {
+            return request;
+        }
+
+        if (limiter.tryAcquire(address, request.isReadOnly(), 1))
+        {
+            return request.limitedBy(limiter, 1, () -> failed(opcode, RateLimiter.TOO_MANY_REQUESTS).execute());
+        }
+
+        return failed(opcode, RateLimiter.TOO_MANY_REQUESTS);
+    }
+
+    private static Request decode(ByteBuffer frame)
+    {
+        var opcode = frame.hasRemaining() ? frame.get() : 0;
+
+        try
+        {
+            return switch (opcode)
+            {
+                case LOGIN ->
+                {
+                    var username = readString(frame);
+
+                    var password = readString(frame);
+
+                    yield Request.as(username, password, true, user -> Response.of(encodeMessage(LOGIN, UserHandler.handleLogin(username, user))));
+                }
+
+                case CHECK ->
+                {
+                    var checkInTime = fromEpochSecond(frame.getLong());
+
+                    var checkOutTime = fromEpochSecond(frame.getLong());
+
+                    var username = readString(frame);
+
+                    var password = readString(frame);
+
+                    yield Request.as(username, password, true,
+                            user -> Response.of(encodeRooms(BookingHandler.findAvailableRooms(user, checkInTime, checkOutTime))));
+                }
+
+                case BOOK ->
+                {
+                    var roomIds = new int[frame.getShort() & 0xFFFF];
+
+                    for (var i = 0; i < roomIds.length; i++)
+                    {
+                        roomIds[i] = frame.getInt();
+                    }
+
+                    var checkInTime = fromEpochSecond(frame.getLong());
+
+                    var checkOutTime = fromEpochSecond(frame.getLong());
+
+                    var username = readString(frame);
+
+                    var password = readString(frame);
+
+                    yield Request.as(username, password, false, user -> Response.of(book(user, roomIds, checkInTime, checkOutTime)));
+                }
+
+                case LIST ->
+                {
+                    var type = LIST_TYPES[frame.get()];
+
+                    var username = readString(frame);
+
+                    var password = readString(frame);
+
+                    yield Request.as(username, password, true, user -> encodeListing(type, user));
+                }
+
+                case REMOVE ->
+                {
+                    var type = REMOVE_TYPES[frame.get()];
+
+                    var target = readString(frame);
+
+                    var username = readString(frame);
+
+                    var password = readString(frame);
+
+                    yield Request.as(username, password, false, user -> Response.of(encodeMessage(REMOVE, Dispatcher.remove(type, target, user))));
+                }
+
+                case TEXT ->
+                {
+                    var line = readString(frame);
+
+                    // Tokenized once here, for the credentials and then for the command
+                    var tokens = new Tokens().reset(line);
+
+                    var credentials = Dispatcher.credentials(tokens);
+
+                    yield Request.as(credentials[0], credentials[1], Dispatcher.isReadOnly(line),
+                            user -> Response.of(encodeMessage(TEXT, Dispatcher.dispatch(tokens, user))));
+                }
+
+                case QUIT -> new Request(() -> encodeMessage(QUIT, Dispatcher.QUIT_RESPONSE), true, true);
+
+                default -> failed(opcode, "400 ❌ Unknown opcode " + opcode);
+            };
+        }
+        catch (BufferUnderflowException | ArrayIndexOutOfBoundsException e)
+        {
+            return failed(opcode, "400 ❌ Malformed request");
+        }
+    }
+
+    // Encodes a text handler response; its three digit status code moves into the status field
+    static byte[] encodeMessage(byte opcode, String response)
+    {
+        var frame = new FrameWriter(statusOf(response), opcode);
+
+        frame.writeLongString(response.length() > 4 ? response.substring(4) : "");
+
+        return frame.finish();
+    }
+
+    // Same as encodeMessage, for responses that belong to no particular request
+    static byte[] encodeMessage(String response)
+    {
+        return encodeMessage((byte) 0, response);
+    }
+
+    // Streams the listing like the text protocol does. The text starts with "NNN ", right after LISTING_HEADER
+    // reserved bytes; the frame header is written over both, its message length landing where the status was.
+    private static Response encodeListing(String type, User user)
+    {
+        var writer = new ResponseWriter(LISTING_HEADER);
+
+        int status;
+
+        try
+        {
+            status = Dispatcher.list(type, user, writer);
+        }
+        catch (RuntimeException e)
+        {
+            writer.release();
+
+            return Response.of(encodeMessage(LIST, "500 ❌ Error listing resources: " + e.getMessage()));
+        }
+
+        var size = writer.size();
+
+        var buffers = writer.finish();
+
+        var first = buffers[0];
+
+        first.putInt(0, size - 4);
+
+        first.putShort(4, (short) status);
+
+        first.put(6, LIST);
+
+        first.putInt(7, size - 11);
+
+        return Response.of(buffers);
+    }
+
+    private static byte[] encodeRooms(Outcome<List<Room>> outcome)
+    {
+        if (!outcome.isSuccess())
+        {
+            return encodeMessage(CHECK, outcome.getMessage());
+        }
+
+        var rooms = outcome.getValue();
+
+        var frame = new FrameWriter(200, CHECK);
+
+        frame.writeInt(rooms.size());
+
+        for (var room : rooms)
+        {
+            var hotel = HotelHandler.findHotelById(room.getHotel());
+
+            frame.writeInt(room.getId());
+
+            frame.writeInt(room.getHotel());
+
+            frame.writeInt(room.getPrice());
+
+            frame.writeByte(room.getType().ordinal());
+
+            frame.writeString(room.getRoomNumber());
+
+            frame.writeString(hotel == null ? "Unknown" : hotel.getName());
+        }
+
+        return frame.finish();
+    }
+
+    private static byte[] book(User user, int[] roomIds, LocalDateTime checkInTime, LocalDateTime checkOutTime)
+    {
+        Outcome<List<Booking>> outcome;
+
+        try
+        {
+            outcome = BookingHandler.bookRooms(user, roomIds, checkInTime, checkOutTime);
+        }
+        catch (Exception e)
+        {
+            return encodeMessage(BOOK, "500 ❌ Booking error: " + e.getMessage());
+        }
+
+        if (!outcome.isSuccess())
+        {
+            return encodeMessage(BOOK, outcome.getMessage());
+        }
+
+        var bookings = outcome.getValue();
+
+        var frame = new FrameWriter(200, BOOK);
+
+        frame.writeInt(bookings.isEmpty() ? 0 : bookings.get(0).getTransactionId());
+
+        frame.writeInt(bookings.size());
+
+        for (var booking : bookings)
+        {
+            frame.writeInt(booking.getId());
+        }
+
+        return frame.finish();
+    }
+
+    private static Request failed(byte opcode, String response)
+    {
+        return new Request(() -> encodeMessage(opcode, response), true, false);
+    }
+
+    private static int statusOf(String response)
+    {
+        try
+        {
+            return Integer.parseInt(response.substring(0, 3));
+        }
+        catch (RuntimeException e)
+        {
+            return 500;
+        }
+    }
+
+    // ==== CLIENT SIDE ====
+
+    public static byte[] encodeCheck(LocalDateTime checkInTime, LocalDateTime checkOutTime, String username, String password)
+    {
+        var frame = new FrameWriter(CHECK);
+
+        frame.writeLong(toEpochSecond(checkInTime));
+
+        frame.writeLong(toEpochSecond(checkOutTime));
+
+        frame.writeString(username);
+
+        frame.writeString(password);
+
+        return frame.finish();
+    }
+
+    public static byte[] encodeBook(int[] roomIds, LocalDateTime checkInTime, LocalDateTime checkOutTime, String username, String password)
+    {
+        var frame = new FrameWriter(BOOK);
+
+        frame.writeShort(roomIds.length);
+
+        for (var roomId : roomIds)
+        {
+            frame.writeInt(roomId);
+        }
+
+        frame.writeLong(toEpochSecond(checkInTime));
+
+        frame.writeLong(toEpochSecond(checkOutTime));
+
+        frame.writeString(username);
+
+        frame.writeString(password);
+
+        return frame.finish();
+    }
+
+    public static byte[] encodeText(String line)
+    {
+        var frame = new FrameWriter(TEXT);
+
+        frame.writeString(line);
+
+        return frame.finish();
+    }
+
+    public static byte[] encodeQuit()
+    {
+        return new FrameWriter(QUIT).finish();
+    }
+
+    // ==== HELPER METHODS ====
+
+    public static long toEpochSecond(LocalDateTime time)
+    {
+        return time.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    public static LocalDateTime fromEpochSecond(long epochSecond)
+    {
+        return LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+    }
+
+    public static String readString(ByteBuffer buffer)
+    {
+        var bytes = new byte[buffer.getShort() & 0xFFFF];
+
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static String readLongString(ByteBuffer buffer)
+    {
+        var bytes = new byte[buffer.getInt()];
+
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Accumulates one frame; the length prefix is patched in by finish()
+    private static class FrameWriter
+    {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        // Request frame
+        FrameWriter(byte opcode)
+        {
+            writeInt(0);
+
+            writeByte(opcode);
+        }
+
+        // Response frame
+        FrameWriter(int status, byte opcode)
+        {
+            writeInt(0);
+
+            writeShort(status);
+
+            writeByte(opcode);
+        }
+
+        void writeByte(int value)
+        {
+            try
+            {
+                out.writeByte(value);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void writeShort(int value)
+        {
+            try
+            {
+                out.writeShort(value);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void writeInt(int value)
+        {
+            try
+            {
+                out.writeInt(value);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void writeLong(long value)
+        {
+            try
+            {
+                out.writeLong(value);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // Refuses what its unsigned short length cannot hold rather than cutting it off
+        void writeString(String value)
+        {
+            var encoded = value.getBytes(StandardCharsets.UTF_8);
+
+            if (encoded.length > MAX_STRING_BYTES)
+            {
+                throw new IllegalArgumentException("String of " + encoded.length + " bytes, at most " + MAX_STRING_BYTES + " fit in a frame");
+            }
+
+            writeShort(encoded.length);
+
+            bytes.write(encoded, 0, encoded.length);
+        }
+
+        void writeLongString(String value)
+        {
+            var encoded = value.getBytes(StandardCharsets.UTF_8);
+
+            writeInt(encoded.length);
+
+            bytes.write(encoded, 0, encoded.length);
+        }
+
+        byte[] finish()
+        {
+            var frame = bytes.toByteArray();
+
+            ByteBuffer.wrap(frame).putInt(0, frame.length - 4);
+
+            return frame;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package src.Server;
+
+import src.Models.Booking;
+import src.Models.Room;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+// Where Database keeps the bookings and the indexes over them, picked with --bookingStore:
+//   heap     Booking objects, see HeapBookingStore
+//   offheap  packed columns in memory-mapped segments, see OffHeapBookingStore
+// Database calls add and remove one at a time under its booking lock; everything else may run alongside
+// them without locking, and sees a booking either wholly or not at all.
+interface BookingStore
+{
+    // Null if there is none with that id
+    Booking get(int id);
+
+    // Every booking, in no particular order
+    Collection<Booking> all();
+
+    // A user's bookings in the order they were made; empty, not null, for a user without any
+    List<Booking> ofUser(int userId);
+
+    // The bookings made together by one BOOK; empty once all of them are gone
+    List<Booking> inTransaction(int transactionId);
+
+    // True if none of the room's bookings overlaps the stay; stays that only touch count as overlapping
+    boolean isFree(Room room, LocalDateTime checkInTime, LocalDateTime checkOutTime);
+
+    // The caller has made sure the room is free for it
+    void add(Booking booking);
+
+    // False if the booking was removed already
+    boolean remove(Booking booking);
+
+    // ==== Bulk loading ====
+
+    // Loading a snapshot of count bookings: put may be called by several threads at once, each for other
+    // indexes, times in epoch seconds (UTC). The bookings are visible once finishLoad returns.
+    void beginLoad(int count);
+
+    void put(int index, int id, int roomId, int userId, int transactionId, long checkIn, long checkOut, long booked);
+
+    void finishLoad(ExecutorService pool);
+}
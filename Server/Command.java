@@ -0,0 +1,58 @@
+package src.Server;
+
+import src.Util.Tokens;
+
+import java.util.ArrayList;
+
+// Verbs of the text protocol. of() finds one with a table lookup on the first letter and a compare
+// against the few verbs sharing it, instead of String.equals down a switch over the whole set.
+public enum Command
+{
+    LOGIN, CREATE, CHECK, BOOK, CANCEL, REMOVE, LIST, UPDATE, STATS;
+
+    private static final Command[][] BY_FIRST_LETTER = new Command[26][];
+
+    static
+    {
+        for (var letter = 0; letter < 26; letter++)
+        {
+            var candidates = new ArrayList<Command>();
+
+            for (var command : values())
+            {
+                if (command.name().charAt(0) == 'A' + letter)
+                {
+                    candidates.add(command);
+                }
+            }
+
+            BY_FIRST_LETTER[letter] = candidates.toArray(new Command[0]);
+        }
+    }
+
+    // The verb in the first token, or null when there is none; case sensitive like the protocol
+    public static Command of(Tokens tokens)
+    {
+        if (tokens.count() == 0)
+        {
+            return null;
+        }
+
+        var letter = tokens.charAt(0, 0) - 'A';
+
+        if (letter < 0 || letter >= 26)
+        {
+            return null;
+        }
+
+        for (var command : BY_FIRST_LETTER[letter])
+        {
+            if (tokens.is(0, command.name()))
+            {
+                return command;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,142 @@
+package src.Server;
+
+import src.Util.Metrics;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Every open client connection of either front end. A background sweep closes connections that sat idle
+// or got stuck halfway through a request, and on shutdown the registry drains them within a deadline.
+class ConnectionRegistry
+{
+    // What the registry needs to know about a connection; implemented by Worker and NioConnection
+    interface Connection
+    {
+        // System.nanoTime() of the last request read or response written
+        long lastActivity();
+
+        // Requests accepted but not yet answered
+        int inFlight();
+
+        // System.nanoTime() when the first byte of a still incomplete request arrived, 0 if there is none
+        long partialRequestSince();
+
+        // Stop taking new requests, answer the ones in flight, then close
+        void drain();
+
+        // Close right away, possibly from another thread
+        void close();
+    }
+
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+
+    private final long idleTimeoutNanos;
+
+    private final long readTimeoutNanos;
+
+    private final int maxConnections;
+
+    private final LongAdder shedConnections = Metrics.counter("connections.shed");
+
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(ThreadPools.daemon("connection-sweeper"));
+
+    ConnectionRegistry(long idleTimeoutMs, long readTimeoutMs, int maxConnections)
+    {
+        this.maxConnections = maxConnections;
+
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+
+        this.readTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(readTimeoutMs);
+
+        sweeper.scheduleWithFixedDelay(this::sweep, 1, 1, TimeUnit.SECONDS);
+    }
+
+    void register(Connection connection)
+    {
+        connections.add(connection);
+    }
+
+    void unregister(Connection connection)
+    {
+        connections.remove(connection);
+    }
+
+    int size()
+    {
+        return connections.size();
+    }
+
+    // Checked by the acceptors; a new connection over the limit is answered busy and closed at once
+    boolean admit()
+    {
+        if (connections.size() < maxConnections)
+        {
+            return true;
+        }
+
+        shedConnections.increment();
+
+        return false;
+    }
+
+    private void sweep()
+    {
+        var now = System.nanoTime();
+
+        for (var connection : connections)
+        {
+            var partialSince = connection.partialRequestSince();
+
+            if (partialSince != 0 && now - partialSince > readTimeoutNanos)
+            {
+                // A client that trickles a request byte by byte must not hold the connection forever
+                connection.close();
+            }
+            else if (connection.inFlight() == 0 && now - connection.lastActivity() > idleTimeoutNanos)
+            {
+                connection.close();
+            }
+        }
+    }
+
+    // Called after the listeners are closed: lets in-flight requests finish until the deadline, then closes the rest
+    void drain(long timeoutMs)
+    {
+        sweeper.shutdownNow();
+
+        System.out.println("Draining " + connections.size() + " connections...");
+
+        for (var connection : connections)
+        {
+            connection.drain();
+        }
+
+        var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+
+        try
+        {
+            while (!connections.isEmpty() && System.nanoTime() < deadline)
+            {
+                Thread.sleep(50);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        if (!connections.isEmpty())
+        {
+            System.out.println("Closing " + connections.size() + " connections still busy after " + timeoutMs + "ms");
+
+            for (var connection : connections)
+            {
+                connection.close();
+            }
+        }
+    }
+}
@@ -4,20 +4,721 @@ import src.Models.Booking;
 import src.Models.Hotel;
 import src.Models.Room;
 import src.Models.User;
-import java.util.HashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import src.Util.ConcurrentIntMap;
+import src.Util.IdAllocator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Database
 {
     private Database() {}
 
-    public static final HashMap<String, User> users = new HashMap<>();
+    // Read by every request and changed by CREATE/REMOVE/UPDATE at the same time, so all concurrent;
+    // hotels, rooms and bookings are looked up by int id without boxing
+    public static final ConcurrentHashMap<String, User> users = new ConcurrentHashMap<>();
 
-    public static final HashMap<Integer, Hotel> hotels = new HashMap<>();
+    public static final ConcurrentIntMap<Hotel> hotels = new ConcurrentIntMap<>();
 
-    public static final HashMap<Integer, Room> rooms = new HashMap<>();
+    public static final ConcurrentIntMap<Room> rooms = new ConcurrentIntMap<>();
 
-    public static final CopyOnWriteArrayList<Booking> bookings = new CopyOnWriteArrayList<>(); // TODO: justify
+    // Bookings and their indexes, on the heap unless --bookingStore says otherwise; set before any is added
+    private static volatile BookingStore bookings = new HeapBookingStore();
+
+    // ==================== Indexes ====================
+
+    // Secondary views of users and rooms, changed only through the methods below so they always hold the same
+    // entries as the maps above. Readers do not lock; writers of each kind take turns.
+    public static final ConcurrentIntMap<User> usersById = new ConcurrentIntMap<>();
+
+    // Rooms of each hotel by room id, so a hotel's rooms list without looking at any others
+    private static final ConcurrentIntMap<ConcurrentIntMap<Room>> roomsByHotel = new ConcurrentIntMap<>();
+
+    private static final Object userWrites = new Object();
+
+    private static final Object bookingWrites = new Object();
+
+    private static final Object catalogWrites = new Object();
+
+    // ==================== Write-ahead log ====================
+
+    private static final byte USER_ADDED = 1;
+
+    private static final byte USER_REMOVED = 2;
+
+    private static final byte HOTEL_ADDED = 3;
+
+    private static final byte HOTEL_UPDATED = 4;
+
+    private static final byte HOTEL_REMOVED = 5;
+
+    private static final byte ROOM_ADDED = 6;
+
+    private static final byte ROOM_UPDATED = 7;
+
+    private static final byte ROOM_REMOVED = 8;
+
+    private static final byte BOOKING_ADDED = 9;
+
+    private static final byte BOOKING_REMOVED = 10;
+
+    // Null unless --wal is given; every change below is appended under the lock that orders it, just before
+    // it is made, so the log holds the changes in the order they were made and never misses one in memory.
+    // Each comes with how to take it back, without logging, should the log fail before it reaches the disk.
+    private static volatile WriteAheadLog log;
+
+    static void useLog(WriteAheadLog writeAheadLog)
+    {
+        log = writeAheadLog;
+    }
+
+    static void closeLog()
+    {
+        var current = log;
+
+        if (current != null)
+        {
+            current.close();
+        }
+    }
+
+    // Waits until this thread's changes are as durable as --durability promises; the handlers call it
+    // before they answer, after giving up every lock
+    public static void awaitDurable()
+    {
+        var current = log;
+
+        if (current != null)
+        {
+            current.awaitDurable();
+        }
+    }
+
+    // Applies the changes recorded in file from byte from on, before the server starts; returns how many
+    // there were. Applying a change that is in memory already does nothing, so the log may be replayed
+    // from a snapshot's position although the snapshot caught some of the changes after it too.
+    static int replay(Path file, long from) throws IOException
+    {
+        return WriteAheadLog.replay(file, from, Database::apply);
+    }
+
+    // Where the log stands now, 0 without one; a snapshot started after this holds every change before it,
+    // and any change it holds is recorded before where the log stands once it is done
+    static long logPosition()
+    {
+        var current = log;
+
+        return current == null ? 0 : current.position();
+    }
+
+    static void syncLog(long position)
+    {
+        var current = log;
+
+        if (current != null)
+        {
+            current.syncTo(position);
+        }
+    }
+
+    // Drops the log before position once a snapshot taken at it is on disk; a log that cannot be cut keeps
+    // growing until the next snapshot tries again
+    static void cutLog(long position)
+    {
+        var current = log;
+
+        if (current == null)
+        {
+            return;
+        }
+
+        try
+        {
+            current.cutBefore(position);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Write-ahead log not cut at " + position + " -> " + e.getMessage());
+        }
+    }
+
+    private static void apply(byte type, ByteBuffer in)
+    {
+        switch (type)
+        {
+            case USER_ADDED ->
+            {
+                var user = new User(in.getInt(), WriteAheadLog.getString(in), WriteAheadLog.getBoolean(in),
+                        WriteAheadLog.getBytes(in), WriteAheadLog.getBytes(in), in.getInt());
+
+                IdAllocator.advance(IdAllocator.Sequence.USER, user.getId());
+
+                addUser(user);
+            }
+
+            case USER_REMOVED ->
+            {
+                var user = usersById.get(in.getInt());
+
+                if (user != null)
+                {
+                    removeUser(user);
+                }
+            }
+
+            case HOTEL_ADDED ->
+            {
+                var hotel = new Hotel(in.getInt(), WriteAheadLog.getString(in));
+
+                IdAllocator.advance(IdAllocator.Sequence.HOTEL, hotel.getId());
+
+                if (!hotels.containsKey(hotel.getId()))
+                {
+                    addHotel(hotel);
+                }
+            }
+
+            case HOTEL_UPDATED ->
+            {
+                var hotel = hotels.get(in.getInt());
+
+                var name = WriteAheadLog.getString(in);
+
+                if (hotel != null)
+                {
+                    updateHotel(hotel, name);
+                }
+            }
+
+            case HOTEL_REMOVED -> removeHotel(in.getInt());
+
+            case ROOM_ADDED ->
+            {
+                var id = in.getInt();
+
+                var hotelId = in.getInt();
+
+                var room = new Room(id, WriteAheadLog.getString(in), in.getInt(), Room.RoomType.values()[in.get()], hotelId);
+
+                IdAllocator.advance(IdAllocator.Sequence.ROOM, id);
+
+                if (!rooms.containsKey(id))
+                {
+                    addRoom(room);
+                }
+            }
+
+            case ROOM_UPDATED ->
+            {
+                var room = rooms.get(in.getInt());
+
+                var hotelId = in.getInt();
+
+                var roomNumber = WriteAheadLog.getString(in);
+
+                var price = in.getInt();
+
+                var roomType = Room.RoomType.values()[in.get()];
+
+                if (room != null)
+                {
+                    updateRoom(room, hotelId, roomNumber, roomType, price);
+                }
+            }
+
+            case ROOM_REMOVED ->
+            {
+                var room = rooms.get(in.getInt());
+
+                if (room != null)
+                {
+                    removeRoom(room);
+                }
+            }
+
+            case BOOKING_ADDED ->
+            {
+                var booking = new Booking(in.getInt(), in.getInt(), in.getInt(), WriteAheadLog.getTime(in),
+                        WriteAheadLog.getTime(in), in.getInt(), WriteAheadLog.getTime(in));
+
+                IdAllocator.advance(IdAllocator.Sequence.BOOKING, booking.getId());
+
+                IdAllocator.advance(IdAllocator.Sequence.TRANSACTION, booking.getTransactionId());
+
+                if (bookings.get(booking.getId()) == null)
+                {
+                    addBooking(booking);
+                }
+            }
+
+            case BOOKING_REMOVED ->
+            {
+                var booking = bookings.get(in.getInt());
+
+                if (booking != null)
+                {
+                    removeBooking(booking);
+                }
+            }
+
+            default -> throw new IllegalStateException("Unknown write-ahead log record " + type);
+        }
+    }
+
+    // ==================== Snapshots ====================
+
+    // Writes everything to file while requests go on, see Snapshot
+    public static void saveSnapshot(Path file) throws IOException
+    {
+        Snapshot.write(file);
+    }
+
+    // Loads file into the empty Database before the server starts; returns the log position to replay from
+    static long loadSnapshot(Path file) throws IOException
+    {
+        return Snapshot.load(file);
+    }
+
+    // The store the snapshot's bookings are loaded into
+    static BookingStore bookingStore()
+    {
+        return bookings;
+    }
+
+    // heap or offheap, the latter in scratch files under directory; called at startup before anything is loaded
+    public static void configureBookingStore(String kind, Path directory) throws IOException
+    {
+        switch (kind)
+        {
+            case "heap" -> bookings = new HeapBookingStore();
+
+            case "offheap" -> bookings = new OffHeapBookingStore(directory);
+
+            default -> System.out.println("Invalid booking store [" + kind + "], keeping bookings on the heap");
+        }
+    }
+
+    // ==================== Changes ====================
+
+    // False if the username is taken
+    public static boolean addUser(User user)
+    {
+        synchronized (userWrites)
+        {
+            if (users.containsKey(user.getUsername()))
+            {
+                return false;
+            }
+
+            if (log != null)
+            {
+                log.append(WriteAheadLog.record(USER_ADDED).putInt(user.getId()).putString(user.getUsername())
+                        .putBoolean(user.isAdmin()).putBytes(user.getSalt()).putBytes(user.getPasswordHash())
+                        .putInt(user.getHashIterations()), () -> dropUser(user));
+            }
+
+            putUser(user);
+
+            return true;
+        }
+    }
+
+    public static void removeUser(User user)
+    {
+        synchronized (userWrites)
+        {
+            if (users.get(user.getUsername()) != user)
+            {
+                return;
+            }
+
+            if (log != null)
+            {
+                log.append(WriteAheadLog.record(USER_REMOVED).putInt(user.getId()), () -> putUser(user));
+            }
+
+            dropUser(user);
+        }
+    }
+
+    // Also enters the booking in its room's calendar
+    public static void addBooking(Booking booking)
+    {
+        synchronized (bookingWrites)
+        {
+            if (log != null)
+            {
+                log.append(WriteAheadLog.record(BOOKING_ADDED).putInt(booking.getId()).putInt(booking.getRoomId())
+                        .putInt(booking.getUserId()).putTime(booking.getCheckInTime()).putTime(booking.getCheckOutTime())
+                        .putInt(booking.getTransactionId()).putTime(booking.getBookedTime()), () -> dropBooking(booking));
+            }
+
+            try
+            {
+                bookings.add(booking);
+            }
+            catch (RuntimeException e)
+            {
+                // Logged already; a removal after it keeps a replay from making the booking after all
+                if (log != null)
+                {
+                    log.append(WriteAheadLog.record(BOOKING_REMOVED).putInt(booking.getId()), () -> {});
+                }
+
+                throw e;
+            }
+        }
+    }
+
+    // False if the booking was removed already
+    public static boolean removeBooking(Booking booking)
+    {
+        synchronized (bookingWrites)
+        {
+            if (bookings.get(booking.getId()) == null)
+            {
+                return false;
+            }
+
+            if (log != null)
+            {
+                log.append(WriteAheadLog.record(BOOKING_REMOVED).putInt(booking.getId()), () -> restoreBooking(booking));
+            }
+
+            return bookings.remove(booking);
+        }
+    }
+
+    // Null if there is no booking with that id
+    public static Booking findBooking(int bookingId)
+    {
+        return bookings.get(bookingId);
+    }
+
+    // Every booking, in no particular order
+    public static Collection<Booking> allBookings()
+    {
+        return bookings.all();
+    }
+
+    // A user's bookings in the order they were made; empty, not null, for a user without any
+    public static List<Booking> bookingsOf(int userId)
+    {
+        return bookings.ofUser(userId);
+    }
+
+    // The bookings made together by one BOOK; empty once all of them are gone
+    public static List<Booking> bookingsIn(int transactionId)
+    {
+        return bookings.inTransaction(transactionId);
+    }
+
+    // True if none of the room's bookings overlaps the stay; stays that only touch count as overlapping
+    public static boolean isFree(Room room, LocalDateTime checkInTime, LocalDateTime checkOutTime)
+    {
+        return bookings.isFree(room, checkInTime, checkOutTime);
+    }
+
+    public static void addHotel(Hotel hotel)
+    {
+        synchronized (catalogWrites)
+        {
+            if (log != null)
+            {
+                log.append(WriteAheadLog.record(HOTEL_ADDED).putInt(hotel.getId()).putString(hotel.getName()),
+                        () -> dropHotel(hotel));
+            }
+
+            putHotel(hotel);
+        }
+    }
+
+    public static void updateHotel(Hotel hotel, String name)
+    {
+        synchronized (catalogWrites)
+        {
+            var before = hotel.getName();
+
+            if (log != null && hotels.get(hotel.getId()) == hotel)
+            {
+                log.append(WriteAheadLog.record(HOTEL_UPDATED).putInt(hotel.getId()).putString(name),
+                        () -> renameHotel(hotel, before));
+            }
+
+            hotel.setName(name);
+        }
+    }
+
+    // False if the hotel still has rooms, or is gone already
+    public static boolean removeHotel(int hotelId)
+    {
+        synchronized (catalogWrites)
+        {
+            var own = roomsByHotel.get(hotelId);
+
+            var hotel = hotels.get(hotelId);
+
+            if (own == null || !own.isEmpty() || hotel == null)
+            {
+                return false;
+            }
+
+            if (log != null)
+            {
+                log.append(WriteAheadLog.record(HOTEL_REMOVED).putInt(hotelId), () -> putHotel(hotel));
+            }
+
+            dropHotel(hotel);
+
+            return true;
+        }
+    }
+
+    // False if the room's hotel does not exist (any more)
+    public static boolean addRoom(Room room)
+    {
+        synchronized (catalogWrites)
+        {
+            var own = roomsByHotel.get(room.getHotel());
+
+            if (own == null)
+            {
+                return false;
+            }
+
+            if (log != null)
+            {
+                log.append(WriteAheadLog.record(ROOM_ADDED).putInt(room.getId()).putInt(room.getHotel())
+                        .putString(room.getRoomNumber()).putInt(room.getPrice()).putByte(room.getType().ordinal()),
+                        () -> dropRoom(room));
+            }
+
+            putRoom(room);
+
+            return true;
+        }
+    }
+
+    public static void removeRoom(Room room)
+    {
+        synchronized (catalogWrites)
+        {
+            if (rooms.get(room.getId()) != room)
+            {
+                return;
+            }
+
+            if (log != null)
+            {
+                log.append(WriteAheadLog.record(ROOM_REMOVED).putInt(room.getId()), () -> putRoom(room));
+            }
+
+            dropRoom(room);
+        }
+    }
+
+    // Changes every field of the room, moving it to another hotel if need be; false, and nothing changed,
+    // if that hotel does not exist (any more)
+    public static boolean updateRoom(Room room, int hotelId, String roomNumber, Room.RoomType type, int price)
+    {
+        synchronized (catalogWrites)
+        {
+            if (!roomsByHotel.containsKey(hotelId))
+            {
+                return false;
+            }
+
+            // A room removed meanwhile is only updated, there is nothing to log for it
+            if (log != null && rooms.get(room.getId()) == room)
+            {
+                var hotelBefore = room.getHotel();
+
+                var numberBefore = room.getRoomNumber();
+
+                var typeBefore = room.getType();
+
+                var priceBefore = room.getPrice();
+
+                log.append(WriteAheadLog.record(ROOM_UPDATED).putInt(room.getId()).putInt(hotelId)
+                        .putString(roomNumber).putInt(price).putByte(type.ordinal()),
+                        () -> changeRoom(room, hotelBefore, numberBefore, typeBefore, priceBefore));
+            }
+
+            changeRoom(room, hotelId, roomNumber, type, price);
+
+            return true;
+        }
+    }
+
+    // A hotel's rooms in id order; empty for a hotel without rooms or one that does not exist. A hotel's ids
+    // are not dense, so the map's own order is not relied on; sorting what is nearly sorted costs one pass.
+    public static List<Room> roomsOf(int hotelId)
+    {
+        var own = roomsByHotel.get(hotelId);
+
+        if (own == null || own.isEmpty())
+        {
+            return List.of();
+        }
+
+        var listed = new ArrayList<>(own.values());
+
+        listed.sort(Comparator.comparingInt(Room::getId));
+
+        return listed;
+    }
+
+    // ==================== Applying changes ====================
+
+    // The changes themselves, without logging, each under the lock its kind of change takes; the methods
+    // above make them once logged, and the log calls them to take a change back
+
+    private static void putUser(User user)
+    {
+        synchronized (userWrites)
+        {
+            users.put(user.getUsername(), user);
+
+            usersById.put(user.getId(), user);
+        }
+    }
+
+    private static void dropUser(User user)
+    {
+        synchronized (userWrites)
+        {
+            if (users.remove(user.getUsername(), user))
+            {
+                usersById.remove(user.getId());
+            }
+        }
+    }
+
+    private static void dropBooking(Booking booking)
+    {
+        synchronized (bookingWrites)
+        {
+            bookings.remove(booking);
+        }
+    }
+
+    private static void restoreBooking(Booking booking)
+    {
+        synchronized (bookingWrites)
+        {
+            if (bookings.get(booking.getId()) == null)
+            {
+                bookings.add(booking);
+            }
+        }
+    }
+
+    private static void putHotel(Hotel hotel)
+    {
+        synchronized (catalogWrites)
+        {
+            if (!roomsByHotel.containsKey(hotel.getId()))
+            {
+                roomsByHotel.put(hotel.getId(), new ConcurrentIntMap<>());
+            }
+
+            hotels.put(hotel.getId(), hotel);
+        }
+    }
+
+    private static void dropHotel(Hotel hotel)
+    {
+        synchronized (catalogWrites)
+        {
+            if (hotels.get(hotel.getId()) == hotel)
+            {
+                roomsByHotel.remove(hotel.getId());
+
+                hotels.remove(hotel.getId());
+            }
+        }
+    }
+
+    private static void renameHotel(Hotel hotel, String name)
+    {
+        synchronized (catalogWrites)
+        {
+            hotel.setName(name);
+        }
+    }
+
+    private static void putRoom(Room room)
+    {
+        synchronized (catalogWrites)
+        {
+            var own = roomsByHotel.get(room.getHotel());
+
+            if (own != null)
+            {
+                own.put(room.getId(), room);
+            }
+
+            rooms.put(room.getId(), room);
+        }
+    }
+
+    private static void dropRoom(Room room)
+    {
+        synchronized (catalogWrites)
+        {
+            if (rooms.get(room.getId()) != room)
+            {
+                return;
+            }
+
+            rooms.remove(room.getId());
+
+            var own = roomsByHotel.get(room.getHotel());
+
+            if (own != null)
+            {
+                own.remove(room.getId());
+            }
+        }
+    }
+
+    // Changes every field of the room, moving it in the index to its new hotel if it is listed
+    private static void changeRoom(Room room, int hotelId, String roomNumber, Room.RoomType type, int price)
+    {
+        synchronized (catalogWrites)
+        {
+            var listed = rooms.get(room.getId()) == room;
+
+            var own = roomsByHotel.get(room.getHotel());
+
+            if (listed && own != null)
+            {
+                own.remove(room.getId());
+            }
+
+            room.setHotelId(hotelId);
+
+            room.setRoomNumber(roomNumber);
+
+            room.setType(type);
+
+            room.setPrice(price);
+
+            var target = roomsByHotel.get(hotelId);
+
+            if (listed && target != null)
+            {
+                target.put(room.getId(), room);
+            }
+        }
+    }
 
     public static void populateSeedData()
     {
@@ -28,9 +729,9 @@ public class Database
 
         User user = new User("user", "user", false);
 
-        users.put(admin.getUsername(), admin);
+        addUser(admin);
 
-        users.put(user.getUsername(), user);
+        addUser(user);
 
         // ==================== Hotels ====================
 
@@ -40,11 +741,11 @@ public class Database
 
         var hotel3 = new Hotel("Taj Hotel - Ahmedabad");
 
-        hotels.put(hotel1.getId(), hotel1);
+        addHotel(hotel1);
 
-        hotels.put(hotel2.getId(), hotel2);
+        addHotel(hotel2);
 
-        hotels.put(hotel3.getId(), hotel3);
+        addHotel(hotel3);
 
         // ==================== Rooms ====================
 
@@ -60,17 +761,17 @@ public class Database
 
         Room room6 = new Room("D101", 350, Room.RoomType.SUITE, hotel1.getId());
 
-        rooms.put(room1.getId(), room1);
+        addRoom(room1);
 
-        rooms.put(room2.getId(), room2);
+        addRoom(room2);
 
-        rooms.put(room3.getId(), room3);
+        addRoom(room3);
 
-        rooms.put(room4.getId(), room4);
+        addRoom(room4);
 
-        rooms.put(room5.getId(), room5);
+        addRoom(room5);
 
-        rooms.put(room6.getId(), room6);
+        addRoom(room6);
 
         Room room7 = new Room("A201", 120, Room.RoomType.SINGLE_ROOM, hotel2.getId());
 
@@ -88,21 +789,21 @@ public class Database
 
         Room room14 = new Room("D201", 370, Room.RoomType.SUITE, hotel2.getId());
 
-        rooms.put(room7.getId(), room7);
+        addRoom(room7);
 
-        rooms.put(room8.getId(), room8);
+        addRoom(room8);
 
-        rooms.put(room9.getId(), room9);
+        addRoom(room9);
 
-        rooms.put(room10.getId(), room10);
+        addRoom(room10);
 
-        rooms.put(room11.getId(), room11);
+        addRoom(room11);
 
-        rooms.put(room12.getId(), room12);
+        addRoom(room12);
 
-        rooms.put(room13.getId(), room13);
+        addRoom(room13);
 
-        rooms.put(room14.getId(), room14);
+        addRoom(room14);
 
         Room room15 = new Room("A301", 90, Room.RoomType.SINGLE_ROOM, hotel3.getId());
 
@@ -117,18 +818,20 @@ public class Database
         Room room20 = new Room("D301", 340, Room.RoomType.SUITE, hotel3.getId());
 
 
-        rooms.put(room15.getId(), room15);
+        addRoom(room15);
 
-        rooms.put(room16.getId(), room16);
+        addRoom(room16);
 
-        rooms.put(room17.getId(), room17);
+        addRoom(room17);
 
-        rooms.put(room18.getId(), room18);
+        addRoom(room18);
 
-        rooms.put(room19.getId(), room19);
+        addRoom(room19);
 
-        rooms.put(room20.getId(), room20);  
+        addRoom(room20);  
         
+        awaitDurable();
+
         System.out.println("Populated seed data successfully");
         
     }
@@ -0,0 +1,346 @@
+package src.Server;
+
+import src.Controllers.*;
+import src.Models.User;
+import src.Util.Compression;
+import src.Util.Metrics;
+import src.Util.ResponseWriter;
+import src.Util.Tokens;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Maps one request line onto the controllers, shared by the blocking Worker and the NIO front end
+public class Dispatcher
+{
+    public static final String QUIT_RESPONSE = "200 ✅ Bye";
+
+    public static final String BUSY_RESPONSE = "503 ❌ Server busy, try again later";
+
+    // One tokenizer per thread, reused for every request that thread runs
+    private static final ThreadLocal<Tokens> TOKENS = ThreadLocal.withInitial(Tokens::new);
+
+    private Dispatcher() {}
+
+    public static boolean isQuit(String request)
+    {
+        return request.trim().equalsIgnoreCase("QUIT");
+    }
+
+    // Commands that never change Database and may therefore run concurrently on one connection
+    public static boolean isReadOnly(String request)
+    {
+        var trimmed = request.trim();
+
+        return trimmed.startsWith("CHECK ") || trimmed.startsWith("LIST ") || trimmed.startsWith("LOGIN ")
+                || trimmed.startsWith("STATS ");
+    }
+
+    // Text protocol encoding of a response
+    public static byte[] encode(String response)
+    {
+        return frame(response).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Every response ends with one empty line so a client on a persistent connection knows where it stops
+    public static String frame(String response)
+    {
+        var end = response.length();
+
+        while (end > 0 && response.charAt(end - 1) == '\n')
+        {
+            end--;
+        }
+
+        return response.substring(0, end) + "\n\n";
+    }
+
+    // Like dispatch, already encoded for the text protocol. LIST responses, which can run to megabytes,
+    // are written straight into pooled buffers instead of going through a String.
+    static Response respond(String request, User user, Compression compression)
+    {
+        var tokens = TOKENS.get().reset(request == null ? "" : request);
+
+        if (Command.of(tokens) == Command.LIST)
+        {
+            // The listing ends with a line end, one more makes the empty line that ends every response
+            return encode(list(tokens, user, compression).append('\n'));
+        }
+
+        return encode(dispatch(tokens, user), compression);
+    }
+
+    // The username and password a command carries, or SESSION and a token; both null for commands that carry
+    // none, such as CREATE USER, which makes the user, or a line that is no command at all
+    static String[] credentials(String request)
+    {
+        return credentials(TOKENS.get().reset(request == null ? "" : request));
+    }
+
+    static String[] credentials(Tokens tokens)
+    {
+        var at = credentialsAt(tokens);
+
+        return at < 0 ? new String[2] : new String[] {tokens.text(at), tokens.text(at + 1)};
+    }
+
+    // Where a command's username sits, its password follows; -1 if the command carries no credentials or
+    // is too short to hold them
+    private static int credentialsAt(Tokens tokens)
+    {
+        var command = Command.of(tokens);
+
+        if (command == null)
+        {
+            return -1;
+        }
+
+        var at = switch (command)
+        {
+            case LOGIN, STATS -> 1;
+
+            case CANCEL, LIST -> 2;
+
+            case CHECK -> 3;
+
+            case BOOK, REMOVE -> tokens.count() - 2;
+
+            case CREATE -> tokens.is(1, "ROOM") ? 6 : tokens.is(1, "HOTEL") ? 3 : -1;
+
+            case UPDATE -> tokens.is(1, "ROOM") ? 7 : tokens.is(1, "HOTEL") ? 4 : -1;
+        };
+
+        return at >= 1 && at + 1 < tokens.count() ? at : -1;
+    }
+
+    // A response in the compression the client asked for, if it is large enough to be worth it
+    static Response encode(String response, Compression compression)
+    {
+        var bytes = encode(response);
+
+        if (compression == Compression.NONE || bytes.length <= Compression.THRESHOLD)
+        {
+            return Response.of(bytes);
+        }
+
+        return encode(new ResponseWriter(0, compression).append(bytes));
+    }
+
+    // A finished writer as a text protocol response, announced by a COMPRESSED line if it was compressed
+    static Response encode(ResponseWriter out)
+    {
+        var buffers = out.finish();
+
+        if (!out.isCompressed())
+        {
+            return Response.of(buffers);
+        }
+
+        var length = 0L;
+
+        for (var buffer : buffers)
+        {
+            length += buffer.remaining();
+        }
+
+        var header = ByteBuffer.wrap(("COMPRESSED " + out.compression().token() + " " + length + "\n").getBytes(StandardCharsets.UTF_8));
+
+        var framed = new ByteBuffer[buffers.length + 1];
+
+        framed[0] = header;
+
+        System.arraycopy(buffers, 0, framed, 1, buffers.length);
+
+        return Response.of(framed);
+    }
+
+    // Checks the credentials the command carries, then runs it as the user they belong to
+    public static String dispatch(String request)
+    {
+        var tokens = TOKENS.get().reset(request == null ? "" : request);
+
+        var at = credentialsAt(tokens);
+
+        var user = at < 0 ? null : UserHandler.authenticate(tokens.text(at), tokens.text(at + 1));
+
+        return dispatch(tokens, user);
+    }
+
+    // Runs a command whose credentials were checked already; user is who they belong to, null if they did
+    // not check out or the command carries none
+    public static String dispatch(String request, User user)
+    {
+        return dispatch(TOKENS.get().reset(request == null ? "" : request), user);
+    }
+
+    // For callers that tokenized the line already, e.g. the binary protocol's TEXT
+    static String dispatch(Tokens tokens, User user)
+    {
+        if (tokens.count() == 0)
+        {
+            return "400 ❌ Empty command";
+        }
+
+        try
+        {
+            var command = Command.of(tokens);
+
+            if (command == null)
+            {
+                return "500 ❌ Unknown command";
+            }
+
+            // BOOK, CHECK and LIST read their arguments from the tokens, the rarer commands still take an array
+            return switch (command)
+            {
+                case LOGIN -> UserHandler.handleLogin(tokens.text(1), user);
+                case CREATE ->
+                {
+                    var parts = tokens.toArray();
+
+                    switch (parts[1])
+                    {
+                        case "USER" ->
+                        {
+                            yield UserHandler.handleCreateUser(parts[2], parts[3]);
+                        }
+
+                        case "ROOM" ->
+                        {
+                            yield RoomHandler.handleCreateRoom(parts, user);
+                        }
+
+                        case "HOTEL" -> {
+                            yield HotelHandler.handleCreateHotel(parts, user);
+                        }
+                    }
+
+                    yield "500 ❌ Unknown CREATE command";
+                }
+
+                case CHECK -> BookingHandler.handleCheck(tokens, user);
+
+                case BOOK -> BookingHandler.handleBooking(tokens, user);
+
+                case CANCEL -> BookingHandler.handleCancel(tokens, user);
+
+                case REMOVE -> handleRemove(tokens.toArray(), user);
+
+                case LIST -> list(tokens, user, Compression.NONE).toText();
+
+                case STATS -> handleStats(user);
+
+                case UPDATE ->
+                {
+                    var parts = tokens.toArray();
+
+                    if (parts[1].equals("ROOM"))
+                    {
+                        yield RoomHandler.handleUpdateRoom(parts, user);
+                    }
+                    else if (parts[1].equals("HOTEL"))
+                    {
+                        yield HotelHandler.handleUpdateHotel(parts, user);
+                    }
+
+                    yield "500 ❌ Unknown UPDATE command";
+                }
+            };
+        }
+        catch (Exception e)
+        {
+            System.out.println("Worker error = " + e.getMessage());
+
+            return "500 ❌ Internal Server error";
+        }
+    }
+
+    // LIST <ROOMS|HOTELS|USERS|BOOKINGS> <USERNAME> <USERPASS>, written for user
+    static ResponseWriter list(Tokens tokens, User user, Compression compression)
+    {
+        var out = new ResponseWriter(0, compression);
+
+        try
+        {
+            list(tokens.count() > 1 ? tokens.text(1) : "", user, out);
+
+            return out;
+        }
+        catch (Exception e)
+        {
+            out.release();
+
+            return new ResponseWriter(0, compression).line("500 ❌ Error listing resources: " + e.getMessage());
+        }
+    }
+
+    // Writes the listing of type (ROOMS, HOTELS, USERS or BOOKINGS) for user into out, returns its status code
+    static int list(String type, User user, ResponseWriter out)
+    {
+        if (user == null)
+        {
+            out.line("403 ❌ Unauthorized access");
+
+            return 403;
+        }
+
+        return switch (type)
+        {
+            case "ROOMS" -> RoomHandler.listRooms(out);
+
+            case "HOTELS" -> HotelHandler.listHotels(out);
+
+            case "USERS" -> UserHandler.listUsers(out);
+
+            case "BOOKINGS" -> BookingHandler.listBookings(user, out);
+
+            default ->
+            {
+                out.line("500 ❌ Unknown list type");
+
+                yield 500;
+            }
+        };
+    }
+
+    private static String handleStats(User admin)
+    {
+        // Validate admin
+        if (admin == null || !admin.isAdmin())
+        {
+            return "403 ❌ Unauthorized access";
+        }
+
+        return Metrics.render();
+    }
+
+    private static String handleRemove(String[] parts, User admin)
+    {
+        try
+        {
+            return remove(parts[1], parts.length > 2 ? parts[2] : "", admin);
+        }
+        catch (Exception e)
+        {
+            return "500 ❌ Error removing resource: " + e.getMessage();
+        }
+    }
+
+    // Removes the USER, BOOKING, ROOM or HOTEL named by target; admins only
+    static String remove(String type, String target, User admin)
+    {
+        // Validate admin
+        if (admin == null || !admin.isAdmin())
+        {
+            return "403 ❌ Unauthorized access";
+        }
+
+        return switch (type) {
+            case "USER" -> UserHandler.removeUser(target);
+            case "BOOKING" -> BookingHandler.removeBooking(target);
+            case "ROOM" -> RoomHandler.removeRoom(target);
+            case "HOTEL" -> HotelHandler.removeHotel(target);
+            default -> "500 ❌ Unknown remove type";
+        };
+    }
+}
@@ -0,0 +1,265 @@
+package src.Server;
+
+import src.Models.Booking;
+import src.Models.Room;
+import src.Util.ConcurrentIntMap;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+// The default store: Booking objects by id, concurrent sets of them per user and per transaction, and
+// each room's BookingCalendar. Quick to read, at a few hundred bytes of heap and several objects a booking.
+// Adding or removing a booking costs the same however many its user or transaction has; a user's listing
+// is sorted into booking order when it is read instead.
+class HeapBookingStore implements BookingStore
+{
+    // A booking is found and removed by id without a pass over the others or a copy of them all
+    private final ConcurrentIntMap<Booking> bookings = new ConcurrentIntMap<>();
+
+    // The Booking instances of bookings, so one per id; sets of them compare by identity
+    private final ConcurrentIntMap<Set<Booking>> byUser = new ConcurrentIntMap<>();
+
+    private final ConcurrentIntMap<Set<Booking>> byTransaction = new ConcurrentIntMap<>();
+
+    // Filled by put, entered by finishLoad
+    private Booking[] loading;
+
+    @Override
+    public Booking get(int id)
+    {
+        return bookings.get(id);
+    }
+
+    @Override
+    public Collection<Booking> all()
+    {
+        return bookings.values();
+    }
+
+    @Override
+    public List<Booking> ofUser(int userId)
+    {
+        return inOrder(byUser.get(userId));
+    }
+
+    @Override
+    public List<Booking> inTransaction(int transactionId)
+    {
+        return inOrder(byTransaction.get(transactionId));
+    }
+
+    // Ids are handed out in order, so sorting by id gives the order the bookings were made in
+    private static List<Booking> inOrder(Set<Booking> own)
+    {
+        if (own == null)
+        {
+            return List.of();
+        }
+
+        var sorted = new ArrayList<>(own);
+
+        sorted.sort(Comparator.comparingInt(Booking::getId));
+
+        return sorted;
+    }
+
+    @Override
+    public boolean isFree(Room room, LocalDateTime checkInTime, LocalDateTime checkOutTime)
+    {
+        return room.getCalendar().isFree(checkInTime, checkOutTime);
+    }
+
+    // Also enters the booking in its room's calendar
+    @Override
+    public void add(Booking booking)
+    {
+        bookings.put(booking.getId(), booking);
+
+        index(byUser, booking.getUserId(), booking);
+
+        index(byTransaction, booking.getTransactionId(), booking);
+
+        var room = Database.rooms.get(booking.getRoomId());
+
+        if (room != null)
+        {
+            room.getCalendar().add(booking);
+        }
+    }
+
+    @Override
+    public boolean remove(Booking booking)
+    {
+        // The instance the indexes hold, whichever one the caller has
+        var stored = bookings.remove(booking.getId());
+
+        if (stored == null)
+        {
+            return false;
+        }
+
+        unindex(byUser, stored.getUserId(), stored);
+
+        unindex(byTransaction, stored.getTransactionId(), stored);
+
+        // The room may have been removed meanwhile, its calendar went with it
+        var room = Database.rooms.get(stored.getRoomId());
+
+        if (room != null)
+        {
+            room.getCalendar().remove(stored);
+        }
+
+        return true;
+    }
+
+    private static void index(ConcurrentIntMap<Set<Booking>> index, int key, Booking booking)
+    {
+        var own = index.get(key);
+
+        if (own == null)
+        {
+            own = ConcurrentHashMap.newKeySet();
+
+            index.put(key, own);
+        }
+
+        own.add(booking);
+    }
+
+    private static void unindex(ConcurrentIntMap<Set<Booking>> index, int key, Booking booking)
+    {
+        var own = index.get(key);
+
+        own.remove(booking);
+
+        if (own.isEmpty())
+        {
+            index.remove(key);
+        }
+    }
+
+    // ==== Bulk loading ====
+
+    @Override
+    public void beginLoad(int count)
+    {
+        loading = new Booking[count];
+    }
+
+    @Override
+    public void put(int index, int id, int roomId, int userId, int transactionId, long checkIn, long checkOut, long booked)
+    {
+        loading[index] = new Booking(id, roomId, userId, time(checkIn), time(checkOut), transactionId, time(booked));
+    }
+
+    // Builds every index in one go instead of copying it once per booking. The indexes do not depend on each
+    // other, so they are built side by side on pool.
+    @Override
+    public void finishLoad(ExecutorService pool)
+    {
+        var loaded = loading;
+
+        loading = null;
+
+        // Groups keep this order, the order the bookings were made in, as add keeps them
+        Arrays.sort(loaded, Comparator.comparingInt(Booking::getId));
+
+        CompletableFuture.allOf(
+                CompletableFuture.runAsync(() ->
+                {
+                    for (var booking : loaded)
+                    {
+                        bookings.put(booking.getId(), booking);
+                    }
+                }, pool),
+                CompletableFuture.runAsync(() -> restoreIndex(byUser, loaded, Booking::getUserId), pool),
+                CompletableFuture.runAsync(() -> restoreIndex(byTransaction, loaded, Booking::getTransactionId), pool),
+                CompletableFuture.runAsync(() -> restoreCalendars(loaded), pool)).join();
+    }
+
+    private static void restoreIndex(ConcurrentIntMap<Set<Booking>> index, Booking[] loaded, ToIntFunction<Booking> key)
+    {
+        forEachGroup(loaded, key, group ->
+        {
+            var own = index.get(key.applyAsInt(group[0]));
+
+            if (own == null)
+            {
+                own = ConcurrentHashMap.newKeySet(group.length);
+
+                index.put(key.applyAsInt(group[0]), own);
+            }
+
+            Collections.addAll(own, group);
+        });
+    }
+
+    // The bookings of a room that is gone are kept, as remove keeps them, just in no calendar
+    private static void restoreCalendars(Booking[] loaded)
+    {
+        forEachGroup(loaded, Booking::getRoomId, group ->
+        {
+            var room = Database.rooms.get(group[0].getRoomId());
+
+            if (room != null)
+            {
+                room.getCalendar().addAll(Arrays.asList(group));
+            }
+        });
+    }
+
+    // Hands over the bookings of each key together, in their order in loaded. One sort of key and position
+    // packed into a long finds them, instead of a list per key grown one booking at a time.
+    private static void forEachGroup(Booking[] loaded, ToIntFunction<Booking> key, Consumer<Booking[]> action)
+    {
+        var order = new long[loaded.length];
+
+        for (var i = 0; i < loaded.length; i++)
+        {
+            order[i] = (long) key.applyAsInt(loaded[i]) << 32 | i;
+        }
+
+        Arrays.sort(order);
+
+        var start = 0;
+
+        while (start < order.length)
+        {
+            var end = start + 1;
+
+            while (end < order.length && order[end] >> 32 == order[start] >> 32)
+            {
+                end++;
+            }
+
+            var group = new Booking[end - start];
+
+            for (var i = start; i < end; i++)
+            {
+                group[i - start] = loaded[(int) order[i]];
+            }
+
+            action.accept(group);
+
+            start = end;
+        }
+    }
+
+    private static LocalDateTime time(long seconds)
+    {
+        return LocalDateTime.ofEpochSecond(seconds, 0, ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,808 @@
+package src.Server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import src.Controllers.BookingHandler;
+import src.Controllers.HotelHandler;
+import src.Controllers.Sessions;
+import src.Controllers.UserHandler;
+import src.Models.Booking;
+import src.Models.Room;
+import src.Models.User;
+import src.Util.BufferPool;
+import src.Util.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+// REST/JSON front end over the same controllers as the line protocol, for browsers and services that
+// would otherwise scrape the emoji text. Started with --httpPort; connections are kept alive (HTTP/1.1).
+// Credentials travel as HTTP Basic auth or as "Authorization: Bearer <session token>" from GET /login,
+// dates use the line protocol's yyyy-MM-ddTHH:mm form, and
+// parameters come from the query string or an application/x-www-form-urlencoded body.
+//
+//   POST   /users              username, password      create an account
+//   GET    /users                                      list accounts
+//   GET    /login                                      check credentials, returns a session token
+//   GET    /hotels                                     list hotels
+//   GET    /rooms                                      list rooms
+//   GET    /rooms/available    from, to                rooms free for the whole stay
+//   GET    /bookings                                   own bookings, every booking for an admin
+//   POST   /bookings           rooms (ids, comma separated), from, to
+//   DELETE /bookings/{id}                              admin only
+//   DELETE /transactions/{id}                          every booking of one BOOK, own or any for an admin
+//
+// Errors are {"status": 404, "error": "..."} with the same status as the HTTP response.
+class HttpGateway
+{
+    // The forms are a few short fields, anything much larger is not one of them
+    private static final int MAX_BODY_BYTES = 16 * 1024;
+
+    // Turned away exchanges waiting for their 503; past this many the connection is just closed
+    private static final int BUSY_QUEUE = 1024;
+
+    private final HttpServer server;
+
+    // Answers the exchanges admission control turned away. One thread, so overload cannot make more work,
+    // and it only reads the request head: the JDK server would close the connection without a response.
+    private final ThreadPoolExecutor busy = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(BUSY_QUEUE), BusyThread::new);
+
+    private final RateLimiter limiter;
+
+    // A handler body, run as user: who the request's credentials belong to, null if they did not check out or
+    // it carries none. Exceptions become a 500 response.
+    private interface Route
+    {
+        void handle(HttpExchange exchange, User user) throws Exception;
+    }
+
+    // The thread of busy; an exchange running on it is answered 503 without being routed
+    private static final class BusyThread extends Thread
+    {
+        private BusyThread(Runnable runnable)
+        {
+            super(runnable, "http-busy");
+
+            setDaemon(true);
+        }
+    }
+
+    // Exchanges run through admission, like the line protocols' requests: a full pool answers 503
+    HttpGateway(int port, AdmissionControl admission, RateLimiter limiter) throws IOException
+    {
+        this.limiter = limiter;
+
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+
+        server.createContext("/users", exchange -> serve(exchange, HttpGateway::users));
+
+        server.createContext("/login", exchange -> serve(exchange, HttpGateway::login));
+
+        server.createContext("/hotels", exchange -> serve(exchange, HttpGateway::hotels));
+
+        server.createContext("/rooms", exchange -> serve(exchange, HttpGateway::rooms));
+
+        server.createContext("/bookings", exchange -> serve(exchange, HttpGateway::bookings));
+
+        server.createContext("/transactions", exchange -> serve(exchange, HttpGateway::transactions));
+
+        server.setExecutor(task ->
+        {
+            var queuedAt = System.nanoTime();
+
+            try
+            {
+                admission.execute(() -> serveInTime(task, queuedAt, admission));
+            }
+            catch (RejectedExecutionException e)
+            {
+                busy.execute(task);
+            }
+        });
+    }
+
+    // An exchange that waited past the queue-time budget is answered busy, unless even that queue is full
+    private void serveInTime(Runnable task, long queuedAt, AdmissionControl admission)
+    {
+        if (admission.isExpired(queuedAt))
+        {
+            try
+            {
+                busy.execute(task);
+
+                return;
+            }
+            catch (RejectedExecutionException e)
+            {
+                // Late, but it has a thread now
+            }
+        }
+
+        task.run();
+    }
+
+    void start()
+    {
+        server.start();
+    }
+
+    // Stops listening and waits up to delaySeconds for exchanges in progress
+    void stop(int delaySeconds)
+    {
+        server.stop(delaySeconds);
+
+        busy.shutdown();
+    }
+
+    private void serve(HttpExchange exchange, Route route)
+    {
+        try
+        {
+            if (Thread.currentThread() instanceof BusyThread)
+            {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+
+                sendError(exchange, 503, "Server busy, try again later");
+
+                return;
+            }
+
+            var credentials = credentials(exchange);
+
+            var address = exchange.getRemoteAddress().getAddress().getHostAddress();
+
+            // Only GET leaves the data as it is
+            var readOnly = exchange.getRequestMethod().equals("GET");
+
+            if (!limiter.tryAcquire(address, readOnly, 1))
+            {
+                tooManyRequests(exchange);
+
+                return;
+            }
+
+            // Checked once, here; the user's own limit applies once they check out
+            var user = credentials == null ? null : UserHandler.authenticate(credentials[0], credentials[1]);
+
+            if (user != null && !limiter.tryAcquireUser(user.getUsername(), readOnly, 1))
+            {
+                tooManyRequests(exchange);
+
+                return;
+            }
+
+            route.handle(exchange, user);
+        }
+        catch (Exception e)
+        {
+            System.out.println("HTTP error " + exchange.getRequestURI() + " -> " + e.getMessage());
+
+            try
+            {
+                sendError(exchange, 500, "Internal Server error");
+            }
+            catch (IOException ignored)
+            {
+                // Headers were already sent, the client sees a truncated body
+            }
+        }
+        finally
+        {
+            // Also drains an unread request body, so the connection can be kept alive
+            exchange.close();
+        }
+    }
+
+    // ==== ROUTES ====
+
+    private static void users(HttpExchange exchange, User user) throws IOException
+    {
+        if (exchange.getRequestMethod().equals("POST"))
+        {
+            var params = params(exchange);
+
+            if (params == null)
+            {
+                return;
+            }
+
+            var username = params.get("username");
+
+            var password = params.get("password");
+
+            if (username == null || username.isBlank() || password == null || password.isBlank())
+            {
+                sendError(exchange, 400, "username and password are required");
+
+                return;
+            }
+
+            sendResult(exchange, UserHandler.handleCreateUser(username, password));
+
+            return;
+        }
+
+        if (!allow(exchange, "GET") || !signedIn(exchange, user))
+        {
+            return;
+        }
+
+        sendJson(exchange, 200, json ->
+        {
+            json.beginArray();
+
+            for (var each : new ArrayList<>(Database.users.values()))
+            {
+                writeUser(json, each);
+            }
+
+            json.endArray();
+        });
+    }
+
+    private static void login(HttpExchange exchange, User user) throws IOException
+    {
+        if (!allow(exchange, "GET") || !signedIn(exchange, user))
+        {
+            return;
+        }
+
+        var credentials = credentials(exchange);
+
+        // A client already holding a session keeps it
+        var token = credentials[0].equals(Sessions.USERNAME) ? credentials[1] : Sessions.open(user);
+
+        sendJson(exchange, 200, json ->
+        {
+            json.beginObject()
+                    .name("user");
+
+            writeUser(json, user);
+
+            json.name("session").value(token)
+                    .endObject();
+        });
+    }
+
+    private static void hotels(HttpExchange exchange, User user) throws IOException
+    {
+        if (!allow(exchange, "GET") || !signedIn(exchange, user))
+        {
+            return;
+        }
+
+        sendJson(exchange, 200, json ->
+        {
+            json.beginArray();
+
+            for (var hotel : new ArrayList<>(Database.hotels.values()))
+            {
+                json.beginObject().name("id").value(hotel.getId()).name("name").value(hotel.getName()).endObject();
+            }
+
+            json.endArray();
+        });
+    }
+
+    private static void rooms(HttpExchange exchange, User user) throws IOException
+    {
+        if (!allow(exchange, "GET"))
+        {
+            return;
+        }
+
+        var path = exchange.getRequestURI().getPath();
+
+        if (path.equals("/rooms/available"))
+        {
+            availableRooms(exchange, user);
+
+            return;
+        }
+
+        if (!path.equals("/rooms") && !path.equals("/rooms/"))
+        {
+            sendError(exchange, 404, "Not found");
+
+            return;
+        }
+
+        if (!signedIn(exchange, user))
+        {
+            return;
+        }
+
+        sendRooms(exchange, new ArrayList<>(Database.rooms.values()));
+    }
+
+    private static void availableRooms(HttpExchange exchange, User user) throws IOException
+    {
+        var credentials = credentials(exchange);
+
+        if (credentials == null)
+        {
+            unauthorized(exchange);
+
+            return;
+        }
+
+        var params = params(exchange);
+
+        if (params == null)
+        {
+            return;
+        }
+
+        var from = parseDate(exchange, params.get("from"));
+
+        var to = from == null ? null : parseDate(exchange, params.get("to"));
+
+        if (to == null)
+        {
+            return;
+        }
+
+        var outcome = BookingHandler.findAvailableRooms(user, from, to);
+
+        if (!outcome.isSuccess())
+        {
+            sendResult(exchange, outcome.getMessage());
+
+            return;
+        }
+
+        sendRooms(exchange, outcome.getValue());
+    }
+
+    private static void bookings(HttpExchange exchange, User user) throws Exception
+    {
+        var path = exchange.getRequestURI().getPath();
+
+        switch (exchange.getRequestMethod())
+        {
+            case "GET" ->
+            {
+                if (signedIn(exchange, user))
+                {
+                    sendJson(exchange, 200, json -> writeBookings(json, BookingHandler.getBookings(user)));
+                }
+            }
+
+            case "POST" -> book(exchange, user);
+
+            case "DELETE" ->
+            {
+                if (!signedIn(exchange, user))
+                {
+                    return;
+                }
+
+                if (!user.isAdmin())
+                {
+                    sendError(exchange, 403, "Unauthorized access");
+
+                    return;
+                }
+
+                sendResult(exchange, BookingHandler.removeBooking(path.substring(path.lastIndexOf('/') + 1)));
+            }
+
+            default -> sendError(exchange, 405, "Method not allowed");
+        }
+    }
+
+    private static void transactions(HttpExchange exchange, User user) throws Exception
+    {
+        if (!allow(exchange, "DELETE") || !signedIn(exchange, user))
+        {
+            return;
+        }
+
+        var path = exchange.getRequestURI().getPath();
+
+        int transactionId;
+
+        try
+        {
+            transactionId = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+        }
+        catch (NumberFormatException e)
+        {
+            sendError(exchange, 404, "Not found");
+
+            return;
+        }
+
+        sendResult(exchange, BookingHandler.cancelTransaction(user, transactionId));
+    }
+
+    private static void book(HttpExchange exchange, User user) throws Exception
+    {
+        var credentials = credentials(exchange);
+
+        if (credentials == null)
+        {
+            unauthorized(exchange);
+
+            return;
+        }
+
+        var params = params(exchange);
+
+        if (params == null)
+        {
+            return;
+        }
+
+        var from = parseDate(exchange, params.get("from"));
+
+        var to = from == null ? null : parseDate(exchange, params.get("to"));
+
+        if (to == null)
+        {
+            return;
+        }
+
+        int[] roomIds;
+
+        try
+        {
+            var ids = params.getOrDefault("rooms", "").split(",");
+
+            roomIds = new int[ids.length];
+
+            for (var i = 0; i < ids.length; i++)
+            {
+                roomIds[i] = Integer.parseInt(ids[i].trim());
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            sendError(exchange, 400, "rooms must be a comma separated list of room ids");
+
+            return;
+        }
+
+        var outcome = BookingHandler.bookRooms(user, roomIds, from, to);
+
+        if (!outcome.isSuccess())
+        {
+            sendResult(exchange, outcome.getMessage());
+
+            return;
+        }
+
+        var bookings = outcome.getValue();
+
+        sendJson(exchange, 200, json ->
+        {
+            json.beginObject().name("transactionId").value(bookings.isEmpty() ? 0 : bookings.get(0).getTransactionId());
+
+            json.name("bookings");
+
+            writeBookings(json, bookings);
+
+            json.endObject();
+        });
+    }
+
+    // ==== JSON ====
+
+    // Writes the body of a response; headers are already sent
+    private interface Body
+    {
+        void write(JsonWriter json) throws IOException;
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, Body body) throws IOException
+    {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+
+        var gzip = acceptsGzip(exchange);
+
+        if (gzip)
+        {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+
+        // Length 0 means chunked: the body is streamed as it is written
+        exchange.sendResponseHeaders(status, 0);
+
+        // Compressed as it is streamed, like the line protocol's COMPRESS, so a listing is never held in full
+        var out = gzip ? new GZIPOutputStream(exchange.getResponseBody(), BufferPool.BUFFER_SIZE) : exchange.getResponseBody();
+
+        var json = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+
+        body.write(json);
+
+        json.flush();
+
+        if (out instanceof GZIPOutputStream compressed)
+        {
+            compressed.finish();
+        }
+    }
+
+    private static boolean acceptsGzip(HttpExchange exchange)
+    {
+        for (var value : exchange.getRequestHeaders().getOrDefault("Accept-Encoding", List.of()))
+        {
+            for (var coding : value.split(","))
+            {
+                var name = coding.trim();
+
+                var parameters = name.indexOf(';');
+
+                // "gzip;q=0" is an explicit refusal
+                if (parameters >= 0 && name.substring(parameters).replace(" ", "").matches(";q=0(\\.0*)?"))
+                {
+                    continue;
+                }
+
+                if ((parameters >= 0 ? name.substring(0, parameters) : name).trim().equalsIgnoreCase("gzip"))
+                {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static void sendRooms(HttpExchange exchange, Iterable<Room> rooms) throws IOException
+    {
+        sendJson(exchange, 200, json ->
+        {
+            json.beginArray();
+
+            for (var room : rooms)
+            {
+                var hotel = HotelHandler.findHotelById(room.getHotel());
+
+                json.beginObject()
+                        .name("id").value(room.getId())
+                        .name("number").value(room.getRoomNumber())
+                        .name("type").value(room.getType().name())
+                        .name("price").value(room.getPrice())
+                        .name("hotelId").value(room.getHotel())
+                        .name("hotel").value(hotel == null ? null : hotel.getName())
+                        .endObject();
+            }
+
+            json.endArray();
+        });
+    }
+
+    private static void writeBookings(JsonWriter json, Iterable<Booking> bookings) throws IOException
+    {
+        json.beginArray();
+
+        for (var booking : bookings)
+        {
+            json.beginObject()
+                    .name("id").value(booking.getId())
+                    .name("transactionId").value(booking.getTransactionId())
+                    .name("roomId").value(booking.getRoomId())
+                    .name("userId").value(booking.getUserId())
+                    .name("checkIn").value(booking.getCheckInTime().toString())
+                    .name("checkOut").value(booking.getCheckOutTime().toString())
+                    .endObject();
+        }
+
+        json.endArray();
+    }
+
+    private static void writeUser(JsonWriter json, User user) throws IOException
+    {
+        json.beginObject()
+                .name("id").value(user.getId())
+                .name("username").value(user.getUsername())
+                .name("admin").value(user.isAdmin())
+                .endObject();
+    }
+
+    // Renders a text protocol response such as "404 ❌ Booking not found" with its status code
+    private static void sendResult(HttpExchange exchange, String response) throws IOException
+    {
+        int status;
+
+        try
+        {
+            status = Integer.parseInt(response.substring(0, 3));
+        }
+        catch (RuntimeException e)
+        {
+            status = 500;
+        }
+
+        var message = response.length() > 4 ? response.substring(4).strip() : "";
+
+        // Drop the emoji the text protocol puts in front of the message
+        var space = message.indexOf(' ');
+
+        if (space > 0 && !Character.isLetterOrDigit(message.codePointAt(0)))
+        {
+            message = message.substring(space + 1);
+        }
+
+        if (status == 200)
+        {
+            var text = message;
+
+            sendJson(exchange, 200, json -> json.beginObject().name("status").value(200).name("message").value(text).endObject());
+        }
+        else
+        {
+            sendError(exchange, status, message);
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException
+    {
+        sendJson(exchange, status, json -> json.beginObject().name("status").value(status).name("error").value(message).endObject());
+    }
+
+    // ==== HELPER METHODS ====
+
+    private static boolean allow(HttpExchange exchange, String method) throws IOException
+    {
+        if (exchange.getRequestMethod().equals(method))
+        {
+            return true;
+        }
+
+        exchange.getResponseHeaders().set("Allow", method);
+
+        sendError(exchange, 405, "Method not allowed");
+
+        return false;
+    }
+
+    // Username and password of the Basic Authorization header, or null when there is none
+    private static String[] credentials(HttpExchange exchange)
+    {
+        var header = exchange.getRequestHeaders().getFirst("Authorization");
+
+        if (header != null && header.regionMatches(true, 0, "Bearer ", 0, 7))
+        {
+            // Same form as on the line protocol
+            return new String[] {Sessions.USERNAME, header.substring(7).trim()};
+        }
+
+        if (header == null || !header.regionMatches(true, 0, "Basic ", 0, 6))
+        {
+            return null;
+        }
+
+        try
+        {
+            var decoded = new String(Base64.getDecoder().decode(header.substring(6).trim()), StandardCharsets.UTF_8);
+
+            var colon = decoded.indexOf(':');
+
+            return colon < 0 ? null : new String[] {decoded.substring(0, colon), decoded.substring(colon + 1)};
+        }
+        catch (IllegalArgumentException e)
+        {
+            return null;
+        }
+    }
+
+    // Whether the request came with valid credentials, user being who they belong to; answers 401 if not
+    private static boolean signedIn(HttpExchange exchange, User user) throws IOException
+    {
+        if (user == null)
+        {
+            unauthorized(exchange);
+
+            return false;
+        }
+
+        return true;
+    }
+
+    private static void tooManyRequests(HttpExchange exchange) throws IOException
+    {
+        exchange.getResponseHeaders().set("Retry-After", "1");
+
+        sendError(exchange, 429, "Too many requests, slow down");
+    }
+
+    private static void unauthorized(HttpExchange exchange) throws IOException
+    {
+        exchange.getResponseHeaders().set("WWW-Authenticate", "Basic realm=\"hotel\"");
+
+        sendError(exchange, 401, "Invalid credentials");
+    }
+
+    private static LocalDateTime parseDate(HttpExchange exchange, String value) throws IOException
+    {
+        try
+        {
+            return LocalDateTime.parse(value == null ? "" : value);
+        }
+        catch (DateTimeParseException e)
+        {
+            sendError(exchange, 400, "Invalid date format, expected yyyy-MM-ddTHH:mm");
+
+            return null;
+        }
+    }
+
+    // Query string and form body parameters; a body value wins over a query value of the same name
+    // The query and form parameters; answers 413 and returns null when the body is over MAX_BODY_BYTES
+    private static Map<String, String> params(HttpExchange exchange) throws IOException
+    {
+        var params = new HashMap<String, String>();
+
+        parseQuery(exchange.getRequestURI().getRawQuery(), params);
+
+        var contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+
+        if (contentType != null && contentType.startsWith("application/x-www-form-urlencoded"))
+        {
+            // Refused unread when it says it is too large; a chunked body is read no further than one byte past the limit
+            var body = contentLength(exchange) > MAX_BODY_BYTES ? null : exchange.getRequestBody().readNBytes(MAX_BODY_BYTES + 1);
+
+            if (body == null || body.length > MAX_BODY_BYTES)
+            {
+                sendError(exchange, 413, "Request body larger than " + MAX_BODY_BYTES + " bytes");
+
+                return null;
+            }
+
+            parseQuery(new String(body, StandardCharsets.UTF_8), params);
+        }
+
+        return params;
+    }
+
+    // The Content-Length header, -1 if there is none or it is no number
+    private static long contentLength(HttpExchange exchange)
+    {
+        try
+        {
+            return Long.parseLong(exchange.getRequestHeaders().getOrDefault("Content-Length", List.of("-1")).get(0).trim());
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    private static void parseQuery(String query, Map<String, String> params)
+    {
+        if (query == null || query.isEmpty())
+        {
+            return;
+        }
+
+        for (var pair : query.split("&"))
+        {
+            var equals = pair.indexOf('=');
+
+            var name = equals < 0 ? pair : pair.substring(0, equals);
+
+            var value = equals < 0 ? "" : pair.substring(equals + 1);
+
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+    }
+}
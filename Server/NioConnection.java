@@ -0,0 +1,449 @@
+package src.Server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+// State of one non-blocking connection. Only the owning event loop thread touches these fields,
+// business threads hand their responses back, in request order, through EventLoop.execute
+class NioConnection implements ConnectionRegistry.Connection
+{
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    // Stop reading once this many complete requests are waiting, so a flooding client cannot grow the queue
+    private static final int MAX_PENDING_REQUESTS = 64;
+
+    private final SocketChannel channel;
+
+    private final SelectionKey key;
+
+    private final NioServer.EventLoop loop;
+
+    private final AdmissionControl businessPool;
+
+    private final int pipelineDepth;
+
+    // Created once the first byte has told us which protocol the client speaks
+    private Pipeline pipeline;
+
+    private boolean binary = false;
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    // Bytes of the request that is still incomplete: a partial line, or partial binary frames
+    private byte[] inputBuffer = new byte[256];
+
+    private int inputLength = 0;
+
+    private final ArrayDeque<Request> pendingRequests = new ArrayDeque<>();
+
+    private final RateLimiter limiter;
+
+    // Client address, for the rate limiter
+    private final String address;
+
+    private final TextSession session;
+
+    private final ArrayDeque<Response> writeQueue = new ArrayDeque<>();
+
+    // Requests handed to the pipeline whose response has not been queued for writing yet
+    private volatile int inFlight = 0;
+
+    // Read by the registry's sweeper thread
+    private volatile long lastActivity = System.nanoTime();
+
+    private volatile long partialRequestSince = 0;
+
+    private final ConnectionRegistry registry;
+
+    private boolean quitting = false;
+
+    private boolean closed = false;
+
+    // Set by QUIT: close once the queued responses have been flushed
+    private boolean closeAfterFlush = false;
+
+    NioConnection(SocketChannel channel, SelectionKey key, NioServer.EventLoop loop, AdmissionControl businessPool,
+                  int pipelineDepth, ConnectionRegistry registry, RateLimiter limiter) throws IOException
+    {
+        this.channel = channel;
+
+        this.limiter = limiter;
+
+        this.address = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+
+        this.session = new TextSession(limiter, address);
+
+        this.key = key;
+
+        this.loop = loop;
+
+        this.businessPool = businessPool;
+
+        this.pipelineDepth = pipelineDepth;
+
+        this.registry = registry;
+
+        registry.register(this);
+    }
+
+    void onReadable() throws IOException
+    {
+        var read = channel.read(readBuffer);
+
+        if (read == -1)
+        {
+            closeNow();
+
+            return;
+        }
+
+        var now = System.nanoTime();
+
+        lastActivity = now;
+
+        readBuffer.flip();
+
+        if (pipeline == null && readBuffer.hasRemaining())
+        {
+            // The first byte picks the protocol for the whole connection
+            binary = readBuffer.get(0) == BinaryProtocol.MAGIC;
+
+            if (binary)
+            {
+                readBuffer.get();
+            }
+
+            pipeline = new Pipeline(businessPool, response -> loop.execute(() -> onResponse(response)),
+                    binary ? BinaryProtocol::encodeMessage : Dispatcher::encode);
+        }
+
+        if (binary)
+        {
+            readFrames();
+        }
+        else
+        {
+            readLines();
+        }
+
+        readBuffer.clear();
+
+        // The lines of an unfinished BATCH count as one incomplete request
+        if (inputLength == 0 && !session.isCollecting())
+        {
+            partialRequestSince = 0;
+        }
+        else if (partialRequestSince == 0)
+        {
+            partialRequestSince = now;
+        }
+
+        if (pendingRequests.size() >= MAX_PENDING_REQUESTS)
+        {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+
+        dispatchNext();
+    }
+
+    private void readLines()
+    {
+        while (readBuffer.hasRemaining() && !quitting)
+        {
+            var b = readBuffer.get();
+
+            if (b == '\n')
+            {
+                // Tolerate CRLF line endings from telnet style clients
+                var length = inputLength > 0 && inputBuffer[inputLength - 1] == '\r' ? inputLength - 1 : inputLength;
+
+                var request = session.accept(new String(inputBuffer, 0, length, StandardCharsets.UTF_8));
+
+                if (request != null)
+                {
+                    pendingRequests.add(request);
+                }
+
+                inputLength = 0;
+            }
+            else
+            {
+                if (inputLength == MAX_LINE_LENGTH)
+                {
+                    reject("413 ❌ Request line too long");
+
+                    return;
+                }
+
+                if (inputLength == inputBuffer.length)
+                {
+                    inputBuffer = Arrays.copyOf(inputBuffer, Math.min(inputBuffer.length * 2, MAX_LINE_LENGTH));
+                }
+
+                inputBuffer[inputLength++] = b;
+            }
+        }
+    }
+
+    private void readFrames()
+    {
+        var available = readBuffer.remaining();
+
+        if (inputLength + available > inputBuffer.length)
+        {
+            inputBuffer = Arrays.copyOf(inputBuffer, Math.max(inputBuffer.length * 2, inputLength + available));
+        }
+
+        readBuffer.get(inputBuffer, inputLength, available);
+
+        inputLength += available;
+
+        var offset = 0;
+
+        while (inputLength - offset >= 4 && !quitting)
+        {
+            var length = ByteBuffer.wrap(inputBuffer, offset, 4).getInt();
+
+            if (length <= 0 || length > BinaryProtocol.MAX_REQUEST_FRAME)
+            {
+                reject("413 ❌ Invalid frame length " + length);
+
+                return;
+            }
+
+            if (inputLength - offset - 4 < length)
+            {
+                break;
+            }
+
+            // decode copies every field out of the buffer, so the bytes can be reused right after
+            pendingRequests.add(BinaryProtocol.decode(ByteBuffer.wrap(inputBuffer, offset + 4, length).slice(), limiter, address));
+
+            offset += 4 + length;
+        }
+
+        System.arraycopy(inputBuffer, offset, inputBuffer, 0, inputLength - offset);
+
+        inputLength -= offset;
+    }
+
+    // Answers with an error after the responses already owed and then closes the connection
+    private void reject(String response)
+    {
+        pendingRequests.clear();
+
+        quitting = true;
+
+        inFlight++;
+
+        pipeline.reply(response);
+
+        pipeline.drain().thenRun(() -> loop.execute(this::closeAfterFlush));
+    }
+
+    // Feeds waiting requests into the pipeline while fewer than pipelineDepth are in flight
+    private void dispatchNext()
+    {
+        while (!quitting && !closed && inFlight < pipelineDepth && !pendingRequests.isEmpty())
+        {
+            var request = pendingRequests.poll();
+
+            inFlight++;
+
+            pipeline.submit(request);
+
+            if (request.isQuit())
+            {
+                pendingRequests.clear();
+
+                quitting = true;
+
+                // Runs after the QUIT response has been queued, since loop tasks execute in order
+                pipeline.drain().thenRun(() -> loop.execute(this::closeAfterFlush));
+
+                return;
+            }
+        }
+
+        if (pendingRequests.size() < MAX_PENDING_REQUESTS && key.isValid() && !quitting)
+        {
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    private void onResponse(Response response)
+    {
+        inFlight--;
+
+        enqueueResponse(response);
+
+        dispatchNext();
+    }
+
+    private void closeAfterFlush()
+    {
+        closeAfterFlush = true;
+
+        try
+        {
+            onWritable();
+        }
+        catch (IOException e)
+        {
+            closeNow();
+        }
+    }
+
+    private void enqueueResponse(Response response)
+    {
+        if (closed)
+        {
+            response.release();
+
+            return;
+        }
+
+        writeQueue.add(response);
+
+        try
+        {
+            onWritable();
+        }
+        catch (IOException e)
+        {
+            closeNow();
+        }
+    }
+
+    void onWritable() throws IOException
+    {
+        while (!writeQueue.isEmpty())
+        {
+            var response = writeQueue.peek();
+
+            // Gathering write: a listing spread over many pooled buffers goes out in one call
+            channel.write(response.buffers());
+
+            lastActivity = System.nanoTime();
+
+            if (response.hasRemaining())
+            {
+                // Socket send buffer is full, wait for the selector to report it writable again
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+
+                return;
+            }
+
+            writeQueue.poll().release();
+        }
+
+        if (closeAfterFlush)
+        {
+            closeNow();
+
+            return;
+        }
+
+        if (key.isValid())
+        {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    // ==== ConnectionRegistry.Connection ====
+
+    @Override
+    public long lastActivity()
+    {
+        return lastActivity;
+    }
+
+    @Override
+    public int inFlight()
+    {
+        return inFlight;
+    }
+
+    @Override
+    public long partialRequestSince()
+    {
+        return partialRequestSince;
+    }
+
+    @Override
+    public void drain()
+    {
+        loop.execute(() ->
+        {
+            if (closed)
+            {
+                return;
+            }
+
+            // Requests still waiting for a pipeline slot were never started, so they are dropped
+            pendingRequests.clear();
+
+            quitting = true;
+
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+
+            if (pipeline == null)
+            {
+                closeNow();
+
+                return;
+            }
+
+            pipeline.drain().thenRun(() -> loop.execute(this::closeAfterFlush));
+        });
+    }
+
+    @Override
+    public void close()
+    {
+        if (loop.inLoop())
+        {
+            closeNow();
+        }
+        else
+        {
+            loop.execute(this::closeNow);
+        }
+    }
+
+    private void closeNow()
+    {
+        if (closed)
+        {
+            return;
+        }
+
+        closed = true;
+
+        registry.unregister(this);
+
+        while (!writeQueue.isEmpty())
+        {
+            writeQueue.poll().release();
+        }
+
+        try
+        {
+            key.cancel();
+
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error closing connection -> " + e.getMessage());
+        }
+    }
+}
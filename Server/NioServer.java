@@ -0,0 +1,225 @@
+package src.Server;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Selector based front end: the acceptor threads plus a few I/O loops hold every connection,
+// complete request lines are handed to the business pool and answered asynchronously
+public class NioServer
+{
+    private final Acceptor acceptor;
+
+    private final EventLoop[] loops;
+
+    private final AdmissionControl businessPool;
+
+    private final int pipelineDepth;
+
+    private final ConnectionRegistry registry;
+
+    private final RateLimiter limiter;
+
+    private volatile boolean running = true;
+
+    // Acceptor threads hand connections out round robin
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    NioServer(Acceptor acceptor, int ioThreads, AdmissionControl businessPool, int pipelineDepth, ConnectionRegistry registry,
+              RateLimiter limiter) throws IOException
+    {
+        this.acceptor = acceptor;
+
+        this.limiter = limiter;
+
+        this.registry = registry;
+
+        this.businessPool = businessPool;
+
+        this.pipelineDepth = pipelineDepth;
+
+        this.loops = new EventLoop[Math.max(1, ioThreads)];
+
+        for (var i = 0; i < loops.length; i++)
+        {
+            loops[i] = new EventLoop(i);
+        }
+    }
+
+    int getIoThreads()
+    {
+        return loops.length;
+    }
+
+    // Runs the accept loop on the calling thread until shutdown() is called
+    void run()
+    {
+        for (var loop : loops)
+        {
+            loop.thread.start();
+        }
+
+        acceptor.run(client ->
+        {
+            client.configureBlocking(false);
+
+            client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)].register(client);
+        });
+    }
+
+    // Closes the listening sockets; open connections keep being served until shutdown()
+    void stopAccepting()
+    {
+        acceptor.stop();
+    }
+
+    // Stops the I/O loops, closing whatever connections are still open
+    void shutdown()
+    {
+        stopAccepting();
+
+        running = false;
+
+        for (var loop : loops)
+        {
+            loop.shutdown();
+        }
+    }
+
+    // One selector thread owning a subset of the connections; all connection state is touched only here
+    final class EventLoop implements Runnable
+    {
+        private final Selector selector;
+
+        private final Thread thread;
+
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        EventLoop(int index) throws IOException
+        {
+            this.selector = Selector.open();
+
+            this.thread = new Thread(this, "nio-io-" + index);
+        }
+
+        boolean inLoop()
+        {
+            return Thread.currentThread() == thread;
+        }
+
+        void register(SocketChannel channel)
+        {
+            execute(() ->
+            {
+                try
+                {
+                    var key = channel.register(selector, SelectionKey.OP_READ);
+
+                    key.attach(new NioConnection(channel, key, this, businessPool, pipelineDepth, registry, limiter));
+                }
+                catch (IOException e)
+                {
+                    System.out.println("Register error -> " + e.getMessage());
+                }
+            });
+        }
+
+        // Queues a task to run on this loop's thread, used by business threads to hand back responses
+        void execute(Runnable task)
+        {
+            tasks.add(task);
+
+            selector.wakeup();
+        }
+
+        @Override
+        public void run()
+        {
+            while (running)
+            {
+                try
+                {
+                    selector.select();
+
+                    Runnable task;
+
+                    while ((task = tasks.poll()) != null)
+                    {
+                        task.run();
+                    }
+
+                    var selected = selector.selectedKeys();
+
+                    for (var key : selected)
+                    {
+                        var connection = (NioConnection) key.attachment();
+
+                        if (connection == null || !key.isValid())
+                        {
+                            continue;
+                        }
+
+                        try
+                        {
+                            if (key.isReadable())
+                            {
+                                connection.onReadable();
+                            }
+
+                            if (key.isValid() && key.isWritable())
+                            {
+                                connection.onWritable();
+                            }
+                        }
+                        catch (IOException e)
+                        {
+                            connection.close();
+                        }
+                    }
+
+                    selected.clear();
+                }
+                catch (Exception e)
+                {
+                    if (running)
+                    {
+                        System.out.println("I/O loop error -> " + e.getMessage());
+                    }
+                }
+            }
+
+            closeAll();
+        }
+
+        private void closeAll()
+        {
+            try
+            {
+                for (var key : selector.keys())
+                {
+                    if (key.attachment() instanceof NioConnection connection)
+                    {
+                        connection.close();
+                    }
+                }
+
+                selector.close();
+            }
+            catch (IOException e)
+            {
+                System.out.println(e.getMessage());
+            }
+        }
+
+        void shutdown()
+        {
+            selector.wakeup();
+        }
+    }
+}
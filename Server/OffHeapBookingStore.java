@@ -0,0 +1,673 @@
+package src.Server;
+
+import src.Models.Booking;
+import src.Models.Room;
+import src.Util.ConcurrentIntMap;
+import src.Util.MappedColumns;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+// Bookings as packed columns in memory-mapped segments (--bookingStore=offheap), one row per booking id:
+// room, user and transaction as ints, check-in, check-out and the booked time in epoch seconds as longs,
+// 36 bytes a booking outside the heap. Ids are handed out densely, so the row number is
+// the id and no map from id to row is needed. A row with room 0 holds no booking.
+//
+// On the heap are only lists of booking ids (Ids): per user in id order, which is the order they were
+// made, and per room in check-in order for the availability search, which reads the times from the
+// columns. Readers never lock. A transaction's bookings have consecutive ids (BOOK reserves them together),
+// so a transaction only needs its first booking id, kept in a column of its own by transaction id.
+//
+// Booking objects are made when a query returns them and are garbage right after, so the old generation
+// holds the small arrays and nothing else. 50M bookings take about 1.8 GB of mapped file and 400 MB of id
+// arrays on the heap once loaded; arrays that grew since have up to as much room again.
+class OffHeapBookingStore implements BookingStore
+{
+    private static final int ROOM = 0;
+
+    private static final int USER = 1;
+
+    private static final int TRANSACTION = 2;
+
+    private static final int CHECK_IN = 3;
+
+    private static final int CHECK_OUT = 4;
+
+    private static final int BOOKED = 5;
+
+    private final MappedColumns rows;
+
+    // By transaction id, the first booking id of the transaction
+    private final MappedColumns transactions;
+
+    private final ConcurrentIntMap<Ids> byUser = new ConcurrentIntMap<>();
+
+    private final ConcurrentIntMap<Ids> byRoom = new ConcurrentIntMap<>();
+
+    private volatile int size;
+
+    OffHeapBookingStore(Path directory) throws IOException
+    {
+        rows = new MappedColumns(directory, "bookings", Integer.BYTES, Integer.BYTES, Integer.BYTES,
+                Long.BYTES, Long.BYTES, Long.BYTES);
+
+        transactions = new MappedColumns(directory, "transactions", Integer.BYTES);
+
+        System.out.println("Bookings kept off the heap in " + directory);
+    }
+
+    // ==== Reading ====
+
+    @Override
+    public Booking get(int id)
+    {
+        var roomId = roomOf(id);
+
+        return roomId == 0 ? null : new Booking(id, roomId, rows.getInt(USER, id), time(rows.getLong(CHECK_IN, id)),
+                time(rows.getLong(CHECK_OUT, id)), rows.getInt(TRANSACTION, id), time(rows.getLong(BOOKED, id)));
+    }
+
+    // 0 if the row holds no booking
+    private int roomOf(int id)
+    {
+        return id <= 0 || id >= rows.capacity() ? 0 : rows.getIntAcquire(ROOM, id);
+    }
+
+    // Made while iterating, in id order
+    @Override
+    public Collection<Booking> all()
+    {
+        return new AbstractCollection<>()
+        {
+            @Override
+            public Iterator<Booking> iterator()
+            {
+                return new RowIterator();
+            }
+
+            @Override
+            public int size()
+            {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public List<Booking> ofUser(int userId)
+    {
+        return bookings(byUser.get(userId));
+    }
+
+    @Override
+    public List<Booking> inTransaction(int transactionId)
+    {
+        if (transactionId <= 0 || transactionId >= transactions.capacity())
+        {
+            return List.of();
+        }
+
+        var found = new ArrayList<Booking>();
+
+        // Removed rows keep their transaction, so the run goes on past them
+        for (var id = transactions.getIntAcquire(0, transactionId); id > 0 && id < rows.capacity()
+                && rows.getInt(TRANSACTION, id) == transactionId; id++)
+        {
+            var booking = get(id);
+
+            if (booking != null)
+            {
+                found.add(booking);
+            }
+        }
+
+        return found;
+    }
+
+    private List<Booking> bookings(Ids list)
+    {
+        if (list == null)
+        {
+            return List.of();
+        }
+
+        var found = new ArrayList<Booking>(list.length - list.dead);
+
+        for (var i = 0; i < list.length; i++)
+        {
+            var id = list.ids[i];
+
+            // Marked removed, or removed since the list was read
+            var booking = id > 0 ? get(id) : null;
+
+            if (booking != null)
+            {
+                found.add(booking);
+            }
+        }
+
+        return found;
+    }
+
+    // The same search as BookingCalendar.isFree, over the room's ids and the time columns
+    @Override
+    public boolean isFree(Room room, LocalDateTime checkInTime, LocalDateTime checkOutTime)
+    {
+        var list = byRoom.get(room.getId());
+
+        if (list == null)
+        {
+            return true;
+        }
+
+        var first = firstCheckOutFrom(list, seconds(checkInTime));
+
+        // Removed bookings are still in order, but no longer in the way
+        while (first < list.length && list.ids[first] < 0)
+        {
+            first++;
+        }
+
+        return first == list.length || rows.getLong(CHECK_IN, list.ids[first]) > seconds(checkOutTime);
+    }
+
+    // Index of the first booking checking out at or after the given second, or the length if there is none;
+    // check-outs are in order as well, bookings of a room do not overlap, nor do those marked removed, whose
+    // rows keep their times
+    private int firstCheckOutFrom(Ids list, long second)
+    {
+        var low = 0;
+
+        var high = list.length;
+
+        while (low < high)
+        {
+            var middle = (low + high) >>> 1;
+
+            if (rows.getLong(CHECK_OUT, Math.abs(list.ids[middle])) < second)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    // ==== Changes ====
+
+    @Override
+    public void add(Booking booking)
+    {
+        var id = booking.getId();
+
+        write(id, booking.getRoomId(), booking.getUserId(), booking.getTransactionId(), seconds(booking.getCheckInTime()),
+                seconds(booking.getCheckOutTime()), seconds(booking.getBookedTime()));
+
+        var transactionId = booking.getTransactionId();
+
+        transactions.ensure(transactionId);
+
+        var first = transactions.getInt(0, transactionId);
+
+        if (first == 0 || id < first)
+        {
+            transactions.putIntRelease(0, transactionId, id);
+        }
+
+        byUser.put(booking.getUserId(), Ids.add(byUser.get(booking.getUserId()), id));
+
+        var own = byRoom.get(booking.getRoomId());
+
+        var at = own == null ? 0 : firstCheckOutFrom(own, seconds(booking.getCheckInTime()));
+
+        byRoom.put(booking.getRoomId(), Ids.insert(own, at, id));
+
+        size++;
+    }
+
+    // The row is filled in before its room marks it as a booking
+    private void write(int id, int roomId, int userId, int transactionId, long checkIn, long checkOut, long booked)
+    {
+        rows.ensure(id);
+
+        rows.putInt(USER, id, userId);
+
+        rows.putInt(TRANSACTION, id, transactionId);
+
+        rows.putLong(CHECK_IN, id, checkIn);
+
+        rows.putLong(CHECK_OUT, id, checkOut);
+
+        rows.putLong(BOOKED, id, booked);
+
+        rows.putIntRelease(ROOM, id, roomId);
+    }
+
+    @Override
+    public boolean remove(Booking booking)
+    {
+        var id = booking.getId();
+
+        if (roomOf(id) == 0)
+        {
+            return false;
+        }
+
+        var userId = rows.getInt(USER, id);
+
+        var roomId = roomOf(id);
+
+        var user = byUser.get(userId);
+
+        unindex(byUser, userId, user, user.indexOf(id));
+
+        // The only one of the room's bookings checking out then
+        var own = byRoom.get(roomId);
+
+        var at = firstCheckOutFrom(own, rows.getLong(CHECK_OUT, id));
+
+        unindex(byRoom, roomId, own, at < own.length && own.ids[at] == id ? at : own.linearIndexOf(id));
+
+        // Readers that still hold the old lists read the times of a booking that was there a moment ago
+        rows.putIntRelease(ROOM, id, 0);
+
+        size--;
+
+        return true;
+    }
+
+    private static void unindex(ConcurrentIntMap<Ids> index, int key, Ids list, int at)
+    {
+        var shrunk = list.remove(at);
+
+        if (shrunk == null)
+        {
+            index.remove(key);
+        }
+        else
+        {
+            index.put(key, shrunk);
+        }
+    }
+
+    // ==== Bulk loading ====
+
+    @Override
+    public void beginLoad(int count)
+    {
+        // Rows are written straight into the columns, nothing to set up
+    }
+
+    @Override
+    public void put(int index, int id, int roomId, int userId, int transactionId, long checkIn, long checkOut, long booked)
+    {
+        write(id, roomId, userId, transactionId, checkIn, checkOut, booked);
+    }
+
+    // One pass over the rows for the transactions, and counting sorts for the user and room arrays, which
+    // get their exact size up front; the users and the rooms are done side by side on pool
+    @Override
+    public void finishLoad(ExecutorService pool)
+    {
+        var end = (int) Math.min(Integer.MAX_VALUE, rows.capacity());
+
+        var live = 0;
+
+        for (var id = 1; id < end; id++)
+        {
+            if (rows.getInt(ROOM, id) != 0)
+            {
+                var transactionId = rows.getInt(TRANSACTION, id);
+
+                transactions.ensure(transactionId);
+
+                if (transactions.getInt(0, transactionId) == 0)
+                {
+                    transactions.putInt(0, transactionId, id);
+                }
+
+                live++;
+            }
+        }
+
+        size = live;
+
+        CompletableFuture.allOf(
+                CompletableFuture.runAsync(() -> group(byUser, USER, end), pool),
+                CompletableFuture.runAsync(() ->
+                {
+                    group(byRoom, ROOM, end);
+
+                    for (var list : byRoom.values())
+                    {
+                        sortByCheckIn(list.ids);
+                    }
+                }, pool)).join();
+    }
+
+    // The ids of every row under the value of its column, in id order
+    private void group(ConcurrentIntMap<Ids> index, int column, int end)
+    {
+        var counts = new ConcurrentIntMap<int[]>();
+
+        for (var id = 1; id < end; id++)
+        {
+            if (rows.getInt(ROOM, id) != 0)
+            {
+                var count = counts.get(rows.getInt(column, id));
+
+                if (count == null)
+                {
+                    counts.put(rows.getInt(column, id), new int[] {1});
+                }
+                else
+                {
+                    count[0]++;
+                }
+            }
+        }
+
+        for (var id = 1; id < end; id++)
+        {
+            if (rows.getInt(ROOM, id) != 0)
+            {
+                var key = rows.getInt(column, id);
+
+                var list = index.get(key);
+
+                // The count now says how many are still to come
+                var left = counts.get(key);
+
+                if (list == null)
+                {
+                    list = new Ids(new int[left[0]], left[0], 0);
+
+                    index.put(key, list);
+                }
+
+                list.ids[list.length - left[0]--] = id;
+            }
+        }
+    }
+
+    // Check-in, as seconds after the room's first one, and id packed into a long, so one primitive sort
+    // orders them; a room whose stays span more than 68 years is sorted the slow way
+    private void sortByCheckIn(int[] ids)
+    {
+        var first = Long.MAX_VALUE;
+
+        var last = Long.MIN_VALUE;
+
+        for (var id : ids)
+        {
+            first = Math.min(first, rows.getLong(CHECK_IN, id));
+
+            last = Math.max(last, rows.getLong(CHECK_IN, id));
+        }
+
+        if (last - first > Integer.MAX_VALUE)
+        {
+            var boxed = Arrays.stream(ids).boxed().sorted(Comparator.comparingLong(id -> rows.getLong(CHECK_IN, id))).toArray(Integer[]::new);
+
+            for (var i = 0; i < ids.length; i++)
+            {
+                ids[i] = boxed[i];
+            }
+
+            return;
+        }
+
+        var keys = new long[ids.length];
+
+        for (var i = 0; i < ids.length; i++)
+        {
+            keys[i] = (rows.getLong(CHECK_IN, ids[i]) - first) << 32 | ids[i];
+        }
+
+        Arrays.sort(keys);
+
+        for (var i = 0; i < ids.length; i++)
+        {
+            ids[i] = (int) keys[i];
+        }
+    }
+
+    private static long seconds(LocalDateTime time)
+    {
+        return time.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private static LocalDateTime time(long seconds)
+    {
+        return LocalDateTime.ofEpochSecond(seconds, 0, ZoneOffset.UTC);
+    }
+
+    // A list of booking ids that readers take without locking; the writer, one at a time, publishes a new Ids
+    // for every change, so a reader sees the entries up to its own length. The array is written in place
+    // only where no reader looks or where either value is fine to see: past every reader's length, and to
+    // mark a removed id by its negative, which readers skip and whose row keeps its times. Anything else
+    // copies the array with room to grow, leaving the removed ones out, as does a list that is mostly
+    // removed ones, so a change costs amortized constant time however many ids the list holds.
+    private static final class Ids
+    {
+        private final int[] ids;
+
+        private final int length;
+
+        // Entries marked removed
+        private final int dead;
+
+        private Ids(int[] ids, int length, int dead)
+        {
+            this.ids = ids;
+
+            this.length = length;
+
+            this.dead = dead;
+        }
+
+        // Adds id to a list in id order: at the end in place if it is the newest, else where it belongs
+        static Ids add(Ids list, int id)
+        {
+            if (list == null || list.length == 0 || Math.abs(list.ids[list.length - 1]) < id)
+            {
+                return insert(list, list == null ? 0 : list.length, id);
+            }
+
+            var at = list.indexOf(id);
+
+            if (at >= 0)
+            {
+                // Marked removed, a removal taken back; or there already
+                return list.ids[at] > 0 ? list : list.revive(at);
+            }
+
+            return insert(list, -at - 1, id);
+        }
+
+        // Puts id before the entry at, in place if at is the end and there is room
+        static Ids insert(Ids list, int at, int id)
+        {
+            if (list == null)
+            {
+                return new Ids(new int[] {id}, 1, 0);
+            }
+
+            if (at == list.length && list.length < list.ids.length)
+            {
+                list.ids[at] = id;
+
+                return new Ids(list.ids, list.length + 1, list.dead);
+            }
+
+            var live = list.length - list.dead;
+
+            var grown = new int[Math.max(4, 2 * (live + 1))];
+
+            var copied = 0;
+
+            for (var i = 0; i < list.length; i++)
+            {
+                if (i == at)
+                {
+                    grown[copied++] = id;
+                }
+
+                if (list.ids[i] > 0)
+                {
+                    grown[copied++] = list.ids[i];
+                }
+            }
+
+            if (at == list.length)
+            {
+                grown[copied++] = id;
+            }
+
+            return new Ids(grown, copied, 0);
+        }
+
+        // Marks the entry at removed; null once nothing is left
+        Ids remove(int at)
+        {
+            if (dead + 1 == length)
+            {
+                return null;
+            }
+
+            if (2 * (dead + 1) > length)
+            {
+                var kept = new int[2 * (length - dead - 1)];
+
+                var copied = 0;
+
+                for (var i = 0; i < length; i++)
+                {
+                    if (i != at && ids[i] > 0)
+                    {
+                        kept[copied++] = ids[i];
+                    }
+                }
+
+                return new Ids(kept, copied, 0);
+            }
+
+            ids[at] = -ids[at];
+
+            return new Ids(ids, length, dead + 1);
+        }
+
+        private Ids revive(int at)
+        {
+            ids[at] = -ids[at];
+
+            return new Ids(ids, length, dead - 1);
+        }
+
+        // Index of id, removed or not, in a list in id order; -(where it would go) - 1 if it is not there
+        int indexOf(int id)
+        {
+            var low = 0;
+
+            var high = length - 1;
+
+            while (low <= high)
+            {
+                var middle = (low + high) >>> 1;
+
+                var found = Math.abs(ids[middle]);
+
+                if (found < id)
+                {
+                    low = middle + 1;
+                }
+                else if (found > id)
+                {
+                    high = middle - 1;
+                }
+                else
+                {
+                    return middle;
+                }
+            }
+
+            return -low - 1;
+        }
+
+        // Index of id in a list in any order
+        int linearIndexOf(int id)
+        {
+            for (var i = 0; i < length; i++)
+            {
+                if (ids[i] == id)
+                {
+                    return i;
+                }
+            }
+
+            throw new IllegalStateException("Booking " + id + " is not indexed");
+        }
+    }
+
+    // Rows in id order, skipping those without a booking
+    private final class RowIterator implements Iterator<Booking>
+    {
+        private final long end = rows.capacity();
+
+        private int id = 0;
+
+        private Booking next;
+
+        private RowIterator()
+        {
+            advance();
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return next != null;
+        }
+
+        @Override
+        public Booking next()
+        {
+            if (next == null)
+            {
+                throw new NoSuchElementException();
+            }
+
+            var booking = next;
+
+            advance();
+
+            return booking;
+        }
+
+        private void advance()
+        {
+            next = null;
+
+            while (next == null && ++id < end)
+            {
+                next = get(id);
+            }
+        }
+    }
+}
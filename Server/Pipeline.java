@@ -0,0 +1,94 @@
+package src.Server;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Lets one connection have many requests in flight while keeping its responses in request order.
+// Read-only commands run side by side; a command that changes state waits for everything before it,
+// and everything after it waits for it, so a pipelined BOOK followed by CHECK still sees the booking.
+// Not thread safe: submit/reply are called by the single thread reading the connection.
+class Pipeline
+{
+    private final AdmissionControl executor;
+
+    private final Consumer<Response> writer;
+
+    // Encodes plain responses such as BUSY_RESPONSE for the connection's protocol
+    private final Function<String, byte[]> encoder;
+
+    // Tail of the write chain, responses are handed to the writer strictly in this order
+    private CompletableFuture<Void> lastWrite = CompletableFuture.completedFuture(null);
+
+    // Completes when the most recent state-changing command has finished
+    private CompletableFuture<Void> lastMutation = CompletableFuture.completedFuture(null);
+
+    // Completes when every command submitted so far has finished
+    private CompletableFuture<Void> allSubmitted = CompletableFuture.completedFuture(null);
+
+    Pipeline(AdmissionControl executor, Consumer<Response> writer, Function<String, byte[]> encoder)
+    {
+        this.executor = executor;
+
+        this.writer = writer;
+
+        this.encoder = encoder;
+    }
+
+    void submit(Request request)
+    {
+        var readOnly = request.isReadOnly();
+
+        var after = readOnly ? lastMutation : allSubmitted;
+
+        CompletableFuture<Response> result;
+
+        try
+        {
+            // Stamp the moment the request enters the pool queue, its queue-time budget starts there
+            result = after.thenApply(v -> System.nanoTime())
+                    .thenApplyAsync(queuedAt -> executor.isExpired(queuedAt)
+                            ? busy()
+                            : request.execute(), executor)
+                    .exceptionally(e -> busy());
+        }
+        catch (RejectedExecutionException e)
+        {
+            result = CompletableFuture.completedFuture(busy());
+        }
+
+        var done = result.thenAccept(response -> {});
+
+        if (!readOnly)
+        {
+            lastMutation = done;
+        }
+
+        allSubmitted = CompletableFuture.allOf(allSubmitted, done);
+
+        enqueue(result);
+    }
+
+    // Queues a response that needs no dispatching, e.g. the answer to QUIT
+    void reply(String response)
+    {
+        enqueue(CompletableFuture.completedFuture(Response.of(encoder.apply(response))));
+    }
+
+    private Response busy()
+    {
+        return Response.of(encoder.apply(Dispatcher.BUSY_RESPONSE));
+    }
+
+    // Completes once every response queued so far has been handed to the writer
+    CompletableFuture<Void> drain()
+    {
+        return lastWrite;
+    }
+
+    private void enqueue(CompletableFuture<Response> result)
+    {
+        lastWrite = lastWrite.thenCompose(v -> result).thenAccept(writer);
+    }
+}
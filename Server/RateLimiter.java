@@ -0,0 +1,179 @@
+package src.Server;
+
+import src.Util.Metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Token buckets per client address and per user. The address buckets are checked before a request is
+// queued, so a client over its rate is answered 429 at once instead of holding a worker and the room locks.
+// The user buckets are charged only once the request's credentials have checked out, under the user they
+// belong to, so nobody can spend another user's budget by sending their name. Reads and writes have buckets
+// of their own: --ipReadRate, --ipWriteRate, --userReadRate and --userWriteRate requests per second, 0 for
+// no limit; --rateLimit=false turns limiting off. A bucket holds one second of its rate as burst, and a
+// request costing more than that is refused rather than put on credit.
+//
+// BATCH commands count against buckets of their own, --ipBatchRate and --userBatchRate commands per
+// second, which hold a full batch of Batch.MAX_COMMANDS as burst. A nightly sync runs in one go and leaves
+// the user's interactive budget alone; another full batch has to wait until the bucket has refilled.
+class RateLimiter
+{
+    static final String TOO_MANY_REQUESTS = "429 ❌ Too many requests, slow down";
+
+    // Buckets that have refilled completely are dropped, a new one starts out full just the same
+    private static final long SWEEP_INTERVAL_SECONDS = 10;
+
+    private final Limit addressReads;
+
+    private final Limit addressWrites;
+
+    private final Limit userReads;
+
+    private final Limit userWrites;
+
+    private final Limit addressBatches;
+
+    private final Limit userBatches;
+
+    private final boolean enabled;
+
+    private final LongAdder limitedRequests = Metrics.counter("requests.rateLimited");
+
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(ThreadPools.daemon("rate-limit-sweeper"));
+
+    RateLimiter(ServerConfig config)
+    {
+        this.enabled = config.getBoolean("rateLimit", true);
+
+        this.addressReads = new Limit(config.getInt("ipReadRate", 1000));
+
+        this.addressWrites = new Limit(config.getInt("ipWriteRate", 200));
+
+        this.userReads = new Limit(config.getInt("userReadRate", 100));
+
+        this.userWrites = new Limit(config.getInt("userWriteRate", 20));
+
+        this.addressBatches = new Limit(config.getInt("ipBatchRate", 2000), Batch.MAX_COMMANDS);
+
+        this.userBatches = new Limit(config.getInt("userBatchRate", 500), Batch.MAX_COMMANDS);
+
+        if (enabled)
+        {
+            sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    // Takes cost tokens from the address bucket of the request's class, before the request is queued
+    boolean tryAcquire(String address, boolean readOnly, int cost)
+    {
+        return acquire(readOnly ? addressReads : addressWrites, address, cost);
+    }
+
+    // Takes cost tokens from the user bucket of the request's class, once its credentials have checked out
+    boolean tryAcquireUser(String username, boolean readOnly, int cost)
+    {
+        return acquire(readOnly ? userReads : userWrites, username, cost);
+    }
+
+    // Takes one token a command of a batch from the address's batch bucket, before the batch is queued
+    boolean tryAcquireBatch(String address, int commands)
+    {
+        return acquire(addressBatches, address, commands);
+    }
+
+    // Takes one token a command of a batch from the user's batch bucket, once its credentials have checked out
+    boolean tryAcquireUserBatch(String username, int commands)
+    {
+        return acquire(userBatches, username, commands);
+    }
+
+    private boolean acquire(Limit limit, String key, int cost)
+    {
+        if (!enabled || limit.tryAcquire(key, cost))
+        {
+            return true;
+        }
+
+        limitedRequests.increment();
+
+        return false;
+    }
+
+    private void sweep()
+    {
+        var now = System.nanoTime();
+
+        for (var limit : new Limit[] {addressReads, addressWrites, userReads, userWrites, addressBatches, userBatches})
+        {
+            limit.buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+        }
+    }
+
+    // One rate for many buckets. A bucket is a single AtomicLong holding the time at which it will be full
+    // again (the GCRA form of a token bucket), so taking tokens is one compare-and-set and never blocks.
+    private static final class Limit
+    {
+        private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+        // Time one token takes to come back, 0 for no limit
+        private final long nanosPerToken;
+
+        // How far ahead of now a bucket may be full again before it is empty: the time burst tokens take
+        private final long burstNanos;
+
+        // One second of tokens as burst
+        Limit(int perSecond)
+        {
+            this(perSecond, perSecond);
+        }
+
+        Limit(int perSecond, int burst)
+        {
+            this.nanosPerToken = perSecond <= 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / perSecond;
+
+            this.burstNanos = burst * nanosPerToken;
+        }
+
+        boolean tryAcquire(String key, int cost)
+        {
+            if (nanosPerToken == 0)
+            {
+                return true;
+            }
+
+            // More than a full bucket would leave the key in debt long after
+            if (cost * nanosPerToken > burstNanos)
+            {
+                return false;
+            }
+
+            var bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(System.nanoTime()));
+
+            while (true)
+            {
+                var now = System.nanoTime();
+
+                var fullAt = bucket.get();
+
+                var full = fullAt - now <= 0;
+
+                var next = (full ? now : fullAt) + cost * nanosPerToken;
+
+                if (!full && next - now > burstNanos)
+                {
+                    return false;
+                }
+
+                if (bucket.compareAndSet(fullAt, next))
+                {
+                    return true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package src.Server;
+
+import src.Controllers.UserHandler;
+import src.Models.User;
+import src.Util.Compression;
+
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// One decoded request, independent of the wire protocol it arrived on. The handler runs it and
+// returns the already encoded response.
+class Request
+{
+    // Gets the user the request's credentials belong to: null if they did not check out or it carries none
+    private final Function<User, Response> handler;
+
+    private final boolean readOnly;
+
+    private final boolean quit;
+
+    // The credentials the request carries, null if it carries none; checked once before it runs
+    private final String username;
+
+    private final String password;
+
+    private RateLimiter limiter;
+
+    private int cost;
+
+    // The answer when the user is over their rate, in the request's protocol
+    private Supplier<Response> tooMany;
+
+    Request(Supplier<byte[]> handler, boolean readOnly, boolean quit)
+    {
+        this(readOnly, quit, () -> Response.of(handler.get()));
+    }
+
+    // For handlers that stream their response into pooled buffers
+    Request(boolean readOnly, boolean quit, Supplier<Response> handler)
+    {
+        this(null, null, readOnly, quit, user -> handler.get());
+    }
+
+    private Request(String username, String password, boolean readOnly, boolean quit, Function<User, Response> handler)
+    {
+        this.username = username;
+
+        this.password = password;
+
+        this.handler = handler;
+
+        this.readOnly = readOnly;
+
+        this.quit = quit;
+    }
+
+    // A request carrying credentials; the handler runs as the user they belong to
+    static Request as(String username, String password, boolean readOnly, Function<User, Response> handler)
+    {
+        return new Request(username, password, readOnly, false, handler);
+    }
+
+    static Request text(String line, Compression compression)
+    {
+        if (Dispatcher.isQuit(line))
+        {
+            return new Request(() -> Dispatcher.encode(Dispatcher.QUIT_RESPONSE), true, true);
+        }
+
+        var credentials = Dispatcher.credentials(line);
+
+        return as(credentials[0], credentials[1], Dispatcher.isReadOnly(line), user -> Dispatcher.respond(line, user, compression));
+    }
+
+    // A fixed answer that needs no dispatching, e.g. to a malformed request
+    static Request reply(String response)
+    {
+        return new Request(() -> Dispatcher.encode(response), true, false);
+    }
+
+    // Charges cost to the user the credentials belong to, once they check out, answering with tooMany
+    // instead when the user is over their rate
+    Request limitedBy(RateLimiter limiter, int cost, Supplier<Response> tooMany)
+    {
+        this.limiter = limiter;
+
+        this.cost = cost;
+
+        this.tooMany = tooMany;
+
+        return this;
+    }
+
+    // Checks the credentials once, here, and hands the handler the user they belong to
+    Response execute()
+    {
+        if (username == null || password == null)
+        {
+            return handler.apply(null);
+        }
+
+        var user = UserHandler.authenticate(username, password);
+
+        if (user != null && limiter != null && !limiter.tryAcquireUser(user.getUsername(), readOnly, cost))
+        {
+            return tooMany.get();
+        }
+
+        return handler.apply(user);
+    }
+
+    boolean isReadOnly()
+    {
+        return readOnly;
+    }
+
+    boolean isQuit()
+    {
+        return quit;
+    }
+}
@@ -0,0 +1,57 @@
+package src.Server;
+
+import src.Util.ResponseWriter;
+
+import java.nio.ByteBuffer;
+
+// Encoded response on its way to the socket: either a plain byte[] or the pooled buffers of a ResponseWriter,
+// written with one gathering write and released back to the pool afterwards
+final class Response
+{
+    private final ByteBuffer[] buffers;
+
+    private final boolean pooled;
+
+    private Response(ByteBuffer[] buffers, boolean pooled)
+    {
+        this.buffers = buffers;
+
+        this.pooled = pooled;
+    }
+
+    static Response of(byte[] bytes)
+    {
+        return new Response(new ByteBuffer[] {ByteBuffer.wrap(bytes)}, false);
+    }
+
+    static Response of(ResponseWriter writer)
+    {
+        return of(writer.finish());
+    }
+
+    // Buffers of a finished ResponseWriter
+    static Response of(ByteBuffer[] pooledBuffers)
+    {
+        return new Response(pooledBuffers, true);
+    }
+
+    ByteBuffer[] buffers()
+    {
+        return buffers;
+    }
+
+    boolean hasRemaining()
+    {
+        // Written strictly in order, so the last buffer is the last to drain
+        return buffers[buffers.length - 1].hasRemaining();
+    }
+
+    // Must be called exactly once, when the response was written or will never be
+    void release()
+    {
+        if (pooled)
+        {
+            ResponseWriter.release(buffers);
+        }
+    }
+}
@@ -1,18 +1,50 @@
 package src.Server;
 
-import java.net.ServerSocket;
+import src.Controllers.Sessions;
+import src.Controllers.UserHandler;
+import src.Util.IdAllocator;
+
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class Server
 {
-    private static final int PORT = 8080;
+    private static final int DEFAULT_PORT = 8080;
+
+    private static ServerConfig config;
+
+    // Listening sockets and acceptor threads, shared by both front ends
+    private static Acceptor acceptor;
+
+    private static NioServer nioServer;
+
+    // Runs the requests themselves, in both I/O modes
+    private static ExecutorService threadPool;
+
+    // Sheds requests the pool cannot take or did not start in time
+    private static AdmissionControl admission;
 
-    private static ServerSocket server;
+    // Blocking mode only: one mostly idle thread per open connection
+    private static ExecutorService connectionPool;
 
-    private final static ExecutorService threadPool = Executors.newFixedThreadPool(8);
+    // Per address and per user request rates, shared by every front end
+    private static RateLimiter limiter;
 
-    private static boolean running = true;
+    // Open connections of either front end, drained on shutdown
+    private static ConnectionRegistry registry;
+
+    // Optional REST/JSON front end, see --httpPort
+    private static HttpGateway httpGateway;
+
+    private static ExecutorService httpPool;
+
+    // Writes --snapshot periodically, see Snapshot
+    private static ScheduledExecutorService snapshots;
 
     public static void main(String[] args)
     {
@@ -23,15 +55,139 @@ public class Server
             // Database.getDatabase(); // TODO : What is the purpose??
             // Server.getInstance().start(); // TODO : What is the purpose??
 
-            Database.populateSeedData();
+            config = ServerConfig.parse(args);
+
+            var port = config.getInt("port", DEFAULT_PORT);
+
+            var virtualThreads = ThreadPools.useVirtualThreads(config);
+
+            threadPool = ThreadPools.requestPool(config, virtualThreads);
+
+            Batch.usePool(ThreadPools.batchPool(config.getInt("batchThreads", Runtime.getRuntime().availableProcessors()),
+                    config.getInt("batchQueueCapacity", Batch.MAX_COMMANDS)));
+
+            // Virtual threads start at once, so their cap is enforced by AdmissionControl instead of a queue
+            admission = new AdmissionControl(threadPool, virtualThreads ? config.getInt("queueCapacity", 1024) : 0,
+                    config.getLong("queueTimeoutMs", 2_000));
+
+            var threadMode = virtualThreads ? "virtual threads" : config.getInt("workers", 8) + " worker threads";
+
+            registry = new ConnectionRegistry(config.getLong("idleTimeoutMs", 60_000), config.getLong("readTimeoutMs", 10_000),
+                    config.getInt("maxConnections", 10_000));
+
+            limiter = new RateLimiter(config);
+
+            Sessions.setTimeout(config.getLong("sessionTimeoutMs", 30 * 60_000));
+
+            UserHandler.configureCredentialCache(config.getLong("credentialCacheTtlMs", 5 * 60_000), config.getInt("credentialCacheSize", 10_000));
+
+            UserHandler.configureCredentialFailures(config.getLong("credentialFailureWindowMs", 60_000), config.getInt("credentialFailureLimit", 5));
+
+            // Ids continue where the last run left off, see IdAllocator
+            var idFile = config.getString("idFile", null);
+
+            if (idFile != null)
+            {
+                IdAllocator.configure(Path.of(idFile));
+            }
+
+            // Off the heap, bookings cost the collector next to nothing, see OffHeapBookingStore
+            Database.configureBookingStore(config.getString("bookingStore", "heap"),
+                    Path.of(config.getString("bookingStoreDir", System.getProperty("java.io.tmpdir"))));
+
+            var startup = System.nanoTime();
+
+            // With a snapshot and a write-ahead log the data outlives the process: load the snapshot, replay
+            // the log written after it, and seed only when there was neither
+            var snapshotFile = config.getString("snapshot", null);
+
+            var walFile = config.getString("wal", null);
+
+            var restored = false;
+
+            var logPosition = 0L;
+
+            if (snapshotFile != null && Files.exists(Path.of(snapshotFile)))
+            {
+                logPosition = Database.loadSnapshot(Path.of(snapshotFile));
+
+                restored = true;
+            }
+
+            if (walFile != null)
+            {
+                var replayStart = System.nanoTime();
+
+                var replayed = Database.replay(Path.of(walFile), logPosition);
+
+                Database.useLog(new WriteAheadLog(Path.of(walFile),
+                        WriteAheadLog.parseDurability(config.getString("durability", "sync")), config.getLong("walFlushMs", 5)));
+
+                System.out.println("Replayed " + replayed + " changes from " + walFile + " in "
+                        + (System.nanoTime() - replayStart) / 1_000_000 + " ms");
+
+                restored |= replayed > 0;
+            }
+
+            if (!restored)
+            {
+                Database.populateSeedData();
+            }
+
+            System.out.println("Data ready in " + (System.nanoTime() - startup) / 1_000_000 + " ms");
 
-            server = new ServerSocket(PORT);
+            // A fresh snapshot every --snapshotEverySeconds keeps the log tail to replay short
+            if (snapshotFile != null)
+            {
+                var every = config.getLong("snapshotEverySeconds", 300);
 
-            server.setReuseAddress(true);
+                snapshots = Executors.newSingleThreadScheduledExecutor(ThreadPools.daemon("snapshot-writer"));
 
-            System.out.println("Server started on port [" + PORT + "]");
+                snapshots.scheduleWithFixedDelay(Server::takeSnapshot, every, every, TimeUnit.SECONDS);
+            }
 
-            acceptConnections();
+            var httpPort = config.getInt("httpPort", 0);
+
+            if (httpPort > 0)
+            {
+                httpPool = ThreadPools.httpPool(config, virtualThreads);
+
+                // Same shedding as the request pool: past the queue, or the cap on virtual threads, 503
+                var httpAdmission = new AdmissionControl(httpPool, virtualThreads ? config.getInt("httpQueueCapacity", 1024) : 0,
+                        config.getLong("queueTimeoutMs", 2_000));
+
+                httpGateway = new HttpGateway(httpPort, httpAdmission, limiter);
+
+                httpGateway.start();
+
+                System.out.println("HTTP gateway started on port [" + httpPort + "]");
+            }
+
+            // Logging every connection serializes the acceptors on System.out, so it is off unless asked for
+            acceptor = new Acceptor(port, config.getInt("acceptors", 1), config.getBoolean("logConnections", false), registry);
+
+            var acceptMode = acceptor.getThreads() + " acceptors on " + acceptor.getListeners()
+                    + (acceptor.getListeners() == 1 ? " socket" : " SO_REUSEPORT sockets");
+
+            // "nio" keeps every connection on a few selector threads and only borrows a worker per request,
+            // "blocking" is the original thread-per-connection mode
+            if (config.getString("io", "nio").equals("blocking"))
+            {
+                connectionPool = ThreadPools.connectionPool(virtualThreads);
+
+                System.out.println("Server started on port [" + port + "] (blocking I/O, " + acceptMode + ", " + threadMode + ")");
+
+                acceptor.run(Server::serveConnection);
+            }
+            else
+            {
+                nioServer = new NioServer(acceptor, config.getInt("ioThreads", 2), admission, config.getInt("pipelineDepth", 32), registry, limiter);
+
+                System.out.println("Server started on port [" + port + "] (NIO, " + nioServer.getIoThreads() + " I/O threads, "
+                        + acceptMode + ", " + threadMode + ")");
+
+                nioServer.run();
+            }
 
         }
         catch (Exception e)
@@ -44,44 +200,78 @@ public class Server
     // TODO: Why static variable access in constructor?
     // private Server() throws IOException { }
 
-    private static void acceptConnections()
+    // Blocking mode: the connection keeps a thread of its own for as long as it is open
+    private static void serveConnection(SocketChannel client) throws Exception
+    {
+        connectionPool.execute(new Worker(client.socket(), config.getInt("idleTimeoutMs", 60_000), admission, config.getInt("pipelineDepth", 32), registry, limiter));
+    }
+
+    private static void takeSnapshot()
     {
         try
         {
-            while (running)
-            {
-                var client = server.accept();
-
-                System.out.println("Connected IP [" + client.getInetAddress().getHostAddress() + "] PORT [" + client.getPort() + "]");
-                
-                threadPool.execute(new Worker(client));
-            }
+            Database.saveSnapshot(Path.of(config.getString("snapshot", null)));
         }
         catch (Exception e)
         {
-            if (running)
-            {
-                System.out.println("Server error -> " + e.getMessage());
-            }
+            System.out.println("Snapshot failed -> " + e.getMessage());
         }
     }
 
+    // Stop accepting, give in-flight requests up to --drainTimeoutMs to finish, then close what is left
     private static void shutdown()
     {
-        running = false;
-
         try
         {
-            if (server != null && !server.isClosed())
+            if (acceptor != null)
+            {
+                acceptor.stop();
+            }
+
+            if (httpGateway != null)
+            {
+                // Waits for exchanges in progress, in whole seconds
+                httpGateway.stop((int) Math.max(1, config.getLong("drainTimeoutMs", 10_000) / 1000));
+            }
+
+            if (registry != null)
+            {
+                registry.drain(config.getLong("drainTimeoutMs", 10_000));
+            }
+
+            if (nioServer != null)
             {
-                server.close();
+                nioServer.shutdown();
             }
 
-            if (!threadPool.isShutdown())
+            if (httpPool != null && !httpPool.isShutdown())
+            {
+                httpPool.shutdown();
+            }
+
+            if (connectionPool != null && !connectionPool.isShutdown())
+            {
+                connectionPool.shutdown();
+            }
+
+            if (threadPool != null && !threadPool.isShutdown())
             {
                 threadPool.shutdown();
             }
 
+            Batch.shutdown();
+
+            // The last snapshot leaves nothing to replay at the next start
+            if (snapshots != null)
+            {
+                snapshots.shutdownNow();
+
+                takeSnapshot();
+            }
+
+            // Syncs whatever the durability mode had not yet
+            Database.closeLog();
+
             System.out.println("Server shutdown successfully");
         }
         catch (Exception e)
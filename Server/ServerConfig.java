@@ -0,0 +1,94 @@
+package src.Server;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Startup options, given as --key=value arguments or as -Dhotel.key=value system properties
+public class ServerConfig
+{
+    private static final String PROPERTY_PREFIX = "hotel.";
+
+    private final Map<String, String> options = new HashMap<>();
+
+    private ServerConfig() {}
+
+    public static ServerConfig parse(String[] args)
+    {
+        var config = new ServerConfig();
+
+        for (var arg : args)
+        {
+            if (!arg.startsWith("--"))
+            {
+                System.out.println("Ignoring unknown argument [" + arg + "]");
+
+                continue;
+            }
+
+            var separator = arg.indexOf('=');
+
+            if (separator == -1)
+            {
+                // Bare flags such as --nio are shorthand for --nio=true
+                config.options.put(arg.substring(2), "true");
+            }
+            else
+            {
+                config.options.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+        }
+
+        return config;
+    }
+
+    public String getString(String key, String defaultValue)
+    {
+        var value = options.get(key);
+
+        if (value == null)
+        {
+            value = System.getProperty(PROPERTY_PREFIX + key);
+        }
+
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    public int getInt(String key, int defaultValue)
+    {
+        var value = getString(key, null);
+
+        try
+        {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        }
+        catch (NumberFormatException e)
+        {
+            System.out.println("Invalid value for [" + key + "] -> " + value + ", using " + defaultValue);
+
+            return defaultValue;
+        }
+    }
+
+    public long getLong(String key, long defaultValue)
+    {
+        var value = getString(key, null);
+
+        try
+        {
+            return value == null ? defaultValue : Long.parseLong(value);
+        }
+        catch (NumberFormatException e)
+        {
+            System.out.println("Invalid value for [" + key + "] -> " + value + ", using " + defaultValue);
+
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue)
+    {
+        var value = getString(key, null);
+
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
@@ -0,0 +1,426 @@
+package src.Server;
+
+import src.Models.Hotel;
+import src.Models.Room;
+import src.Models.User;
+import src.Util.IdAllocator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// The whole Database in one memory-mapped file (--snapshot=<file>), so a start loads it and replays only the
+// log written after it instead of the whole log.
+//
+// A snapshot is taken while requests go on. It notes the log position first and then copies the maps as
+// they are, so it holds every change before that position and maybe some after it; replaying the log from
+// the position brings those in line, a change already in memory is skipped (see Database.apply). It is
+// complete once the log is on disk up to where it stood when the copy was done, as every change the copy
+// may hold is logged before that, and replaces the previous one in a single rename. The log before the
+// position is then cut off, the snapshot holds it all.
+//
+// Layout: a header, then users, bookings, rooms and hotels, copied in that order so a booking's room and a
+// room's hotel are taken after it. Bookings are fixed-size records, so loading splits them across threads.
+//   header    magic, version, log position, and offset, length and count of each section
+//   user      id, username, admin, salt, hash, iterations
+//   booking   id, room, user, transaction, check-in, check-out, booked, times as in the write-ahead log
+//   room      id, hotel, number, price, type
+//   hotel     id, name
+// Strings and byte arrays are an unsigned short length and the bytes, as in the write-ahead log.
+class Snapshot
+{
+    private static final int MAGIC = 0x484D5331;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER = 128;
+
+    private static final int BOOKING_RECORD = 4 * 4 + 3 * 8;
+
+    // Written a window at a time, so a snapshot may be larger than one mapping can be
+    private static final long WINDOW = 64L * 1024 * 1024;
+
+    // Loading threads split the bookings into this many ranges each, so an uneven range does not hold up the rest
+    private static final int RANGES_PER_THREAD = 4;
+
+    private static final int USERS = 0;
+
+    private static final int BOOKINGS = 1;
+
+    private static final int ROOMS = 2;
+
+    private static final int HOTELS = 3;
+
+    private static final String[] SECTION_NAMES = {"users", "bookings", "rooms", "hotels"};
+
+    private Snapshot() {}
+
+    // ==== Writing ====
+
+    // One at a time, a periodic snapshot and the one at shutdown may overlap
+    static synchronized void write(Path file) throws IOException
+    {
+        var start = System.nanoTime();
+
+        var position = Database.logPosition();
+
+        var temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+        var offsets = new long[SECTION_NAMES.length];
+
+        var lengths = new long[SECTION_NAMES.length];
+
+        var counts = new int[SECTION_NAMES.length];
+
+        try (var out = new MappedOutput(temporary))
+        {
+            offsets[USERS] = out.position();
+
+            for (var user : Database.usersById.values())
+            {
+                var salt = user.getSalt();
+
+                var hash = user.getPasswordHash();
+
+                var username = user.getUsername().getBytes(StandardCharsets.UTF_8);
+
+                var buffer = out.room(4 + 2 + username.length + 1 + 2 + salt.length + 2 + hash.length + 4);
+
+                buffer.putInt(user.getId());
+
+                putBytes(buffer, username);
+
+                buffer.put((byte) (user.isAdmin() ? 1 : 0));
+
+                putBytes(buffer, salt);
+
+                putBytes(buffer, hash);
+
+                buffer.putInt(user.getHashIterations());
+
+                counts[USERS]++;
+            }
+
+            lengths[USERS] = out.position() - offsets[USERS];
+
+            offsets[BOOKINGS] = out.position();
+
+            for (var booking : Database.allBookings())
+            {
+                out.room(BOOKING_RECORD)
+                        .putInt(booking.getId())
+                        .putInt(booking.getRoomId())
+                        .putInt(booking.getUserId())
+                        .putInt(booking.getTransactionId())
+                        .putLong(BinaryProtocol.toEpochSecond(booking.getCheckInTime()))
+                        .putLong(BinaryProtocol.toEpochSecond(booking.getCheckOutTime()))
+                        .putLong(BinaryProtocol.toEpochSecond(booking.getBookedTime()));
+
+                counts[BOOKINGS]++;
+            }
+
+            lengths[BOOKINGS] = out.position() - offsets[BOOKINGS];
+
+            offsets[ROOMS] = out.position();
+
+            for (var room : Database.rooms.values())
+            {
+                var number = room.getRoomNumber().getBytes(StandardCharsets.UTF_8);
+
+                var buffer = out.room(4 + 4 + 2 + number.length + 4 + 1);
+
+                buffer.putInt(room.getId()).putInt(room.getHotel());
+
+                putBytes(buffer, number);
+
+                buffer.putInt(room.getPrice()).put((byte) room.getType().ordinal());
+
+                counts[ROOMS]++;
+            }
+
+            lengths[ROOMS] = out.position() - offsets[ROOMS];
+
+            offsets[HOTELS] = out.position();
+
+            for (var hotel : Database.hotels.values())
+            {
+                var name = hotel.getName().getBytes(StandardCharsets.UTF_8);
+
+                putBytes(out.room(4 + 2 + name.length).putInt(hotel.getId()), name);
+
+                counts[HOTELS]++;
+            }
+
+            lengths[HOTELS] = out.position() - offsets[HOTELS];
+
+            // Every change the copy holds has to outlive a crash before the snapshot stands in for it
+            Database.syncLog(Database.logPosition());
+
+            out.finish(position, offsets, lengths, counts);
+        }
+
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        WriteAheadLog.forceDirectory(file);
+
+        System.out.println("Snapshot written to " + file + " " + describe(counts) + " in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+
+        Database.cutLog(position);
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] value)
+    {
+        // Refused rather than cut off by the unsigned short length
+        if (value.length > 0xFFFF)
+        {
+            throw new IllegalArgumentException("Value of " + value.length + " bytes, at most 65535 fit in a snapshot");
+        }
+
+        buffer.putShort((short) value.length).put(value);
+    }
+
+    // A file written through a moving window of WINDOW bytes, starting past the header
+    private static final class MappedOutput implements AutoCloseable
+    {
+        private final FileChannel channel;
+
+        private long windowStart = HEADER;
+
+        private MappedByteBuffer window;
+
+        private MappedOutput(Path file) throws IOException
+        {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+
+            window = channel.map(FileChannel.MapMode.READ_WRITE, windowStart, WINDOW);
+        }
+
+        long position()
+        {
+            return windowStart + window.position();
+        }
+
+        // The window, with at least needed bytes left in it
+        ByteBuffer room(int needed) throws IOException
+        {
+            if (window.remaining() < needed)
+            {
+                window.force();
+
+                windowStart += window.position();
+
+                window = channel.map(FileChannel.MapMode.READ_WRITE, windowStart, WINDOW);
+            }
+
+            return window;
+        }
+
+        // Cuts the unused end of the last window, then writes the header once everything else is on disk
+        void finish(long logPosition, long[] offsets, long[] lengths, int[] counts) throws IOException
+        {
+            window.force();
+
+            channel.truncate(position());
+
+            var header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+
+            header.putInt(MAGIC).putInt(VERSION).putLong(logPosition);
+
+            for (var i = 0; i < SECTION_NAMES.length; i++)
+            {
+                header.putLong(offsets[i]).putLong(lengths[i]).putInt(counts[i]);
+            }
+
+            header.force();
+
+            channel.force(true);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            channel.close();
+        }
+    }
+
+    // ==== Loading ====
+
+    // Fills the empty Database from file and returns the log position to replay from. The catalog is small
+    // and read in order; the bookings are decoded by one thread per core, each mapping its own ranges.
+    static long load(Path file) throws IOException
+    {
+        var start = System.nanoTime();
+
+        var threads = Runtime.getRuntime().availableProcessors();
+
+        var pool = Executors.newFixedThreadPool(threads, ThreadPools.daemon("snapshot-loader"));
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            var header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+
+            if (header.getInt() != MAGIC || header.getInt() != VERSION)
+            {
+                throw new IOException(file + " is not a snapshot of this version");
+            }
+
+            var logPosition = header.getLong();
+
+            var offsets = new long[SECTION_NAMES.length];
+
+            var lengths = new long[SECTION_NAMES.length];
+
+            var counts = new int[SECTION_NAMES.length];
+
+            for (var i = 0; i < SECTION_NAMES.length; i++)
+            {
+                offsets[i] = header.getLong();
+
+                lengths[i] = header.getLong();
+
+                counts[i] = header.getInt();
+            }
+
+            // Started first, the bookings do not need the catalog until they are entered
+            var store = Database.bookingStore();
+
+            store.beginLoad(counts[BOOKINGS]);
+
+            var decoded = decodeBookings(channel, offsets[BOOKINGS], counts[BOOKINGS], threads, store, pool);
+
+            var hotels = channel.map(FileChannel.MapMode.READ_ONLY, offsets[HOTELS], lengths[HOTELS]);
+
+            for (var i = 0; i < counts[HOTELS]; i++)
+            {
+                var hotel = new Hotel(hotels.getInt(), WriteAheadLog.getString(hotels));
+
+                IdAllocator.advance(IdAllocator.Sequence.HOTEL, hotel.getId());
+
+                Database.addHotel(hotel);
+            }
+
+            var rooms = channel.map(FileChannel.MapMode.READ_ONLY, offsets[ROOMS], lengths[ROOMS]);
+
+            for (var i = 0; i < counts[ROOMS]; i++)
+            {
+                var id = rooms.getInt();
+
+                var hotelId = rooms.getInt();
+
+                var room = new Room(id, WriteAheadLog.getString(rooms), rooms.getInt(), Room.RoomType.values()[rooms.get()], hotelId);
+
+                IdAllocator.advance(IdAllocator.Sequence.ROOM, id);
+
+                Database.addRoom(room);
+            }
+
+            var users = channel.map(FileChannel.MapMode.READ_ONLY, offsets[USERS], lengths[USERS]);
+
+            for (var i = 0; i < counts[USERS]; i++)
+            {
+                var user = new User(users.getInt(), WriteAheadLog.getString(users), WriteAheadLog.getBoolean(users),
+                        WriteAheadLog.getBytes(users), WriteAheadLog.getBytes(users), users.getInt());
+
+                IdAllocator.advance(IdAllocator.Sequence.USER, user.getId());
+
+                Database.addUser(user);
+            }
+
+            decoded.join();
+
+            store.finishLoad(pool);
+
+            System.out.println("Snapshot loaded from " + file + " " + describe(counts) + " on " + threads + " threads in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+
+            return logPosition;
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    private static CompletableFuture<Void> decodeBookings(FileChannel channel, long offset, int count, int threads,
+                                                         BookingStore store, ExecutorService pool)
+    {
+        var ranges = new ArrayList<CompletableFuture<Void>>();
+
+        var perRange = Math.max(1, (count + threads * RANGES_PER_THREAD - 1) / (threads * RANGES_PER_THREAD));
+
+        for (var first = 0; first < count; first += perRange)
+        {
+            var from = first;
+
+            var to = Math.min(count, first + perRange);
+
+            ranges.add(CompletableFuture.runAsync(() -> decodeRange(channel, offset, store, from, to), pool));
+        }
+
+        return CompletableFuture.allOf(ranges.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private static void decodeRange(FileChannel channel, long offset, BookingStore store, int from, int to)
+    {
+        MappedByteBuffer in;
+
+        try
+        {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, offset + (long) from * BOOKING_RECORD, (long) (to - from) * BOOKING_RECORD);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+
+        var lastBooking = 0;
+
+        var lastTransaction = 0;
+
+        for (var i = from; i < to; i++)
+        {
+            var id = in.getInt();
+
+            var roomId = in.getInt();
+
+            var userId = in.getInt();
+
+            var transactionId = in.getInt();
+
+            store.put(i, id, roomId, userId, transactionId, in.getLong(), in.getLong(), in.getLong());
+
+            lastBooking = Math.max(lastBooking, id);
+
+            lastTransaction = Math.max(lastTransaction, transactionId);
+        }
+
+        IdAllocator.advance(IdAllocator.Sequence.BOOKING, lastBooking);
+
+        IdAllocator.advance(IdAllocator.Sequence.TRANSACTION, lastTransaction);
+    }
+
+    private static String describe(int[] counts)
+    {
+        var text = new StringBuilder("[");
+
+        for (var i = 0; i < SECTION_NAMES.length; i++)
+        {
+            text.append(i == 0 ? "" : ", ").append(counts[i]).append(' ').append(SECTION_NAMES[i]);
+        }
+
+        return text.append("]").toString();
+    }
+}
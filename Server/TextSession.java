@@ -0,0 +1,117 @@
+package src.Server;
+
+import src.Util.Compression;
+
+// Per connection state of the text protocol: the compression the client asked for and the lines of a
+// batch still being collected. Turns lines into requests; one per connection, called by the thread reading it.
+class TextSession
+{
+    private final RateLimiter limiter;
+
+    // Client address, for the rate limiter
+    private final String address;
+
+    private Batch batch;
+
+    private Compression compression = Compression.NONE;
+
+    TextSession(RateLimiter limiter, String address)
+    {
+        this.limiter = limiter;
+
+        this.address = address;
+    }
+
+    // The request this line completes, or null while the lines of a batch are still coming
+    Request accept(String line)
+    {
+        if (batch != null)
+        {
+            if (!batch.add(line))
+            {
+                return null;
+            }
+
+            var complete = batch;
+
+            batch = null;
+
+            // Every command of the batch counts, so batching does not get around the limits
+            if (!limiter.tryAcquireBatch(address, complete.size()))
+            {
+                return Request.reply(RateLimiter.TOO_MANY_REQUESTS);
+            }
+
+            return complete.toRequest(compression, limiter);
+        }
+
+        if (isCompress(line))
+        {
+            return compress(line);
+        }
+
+        if (!Batch.isBatch(line))
+        {
+            if (Dispatcher.isQuit(line))
+            {
+                return Request.text(line, compression);
+            }
+
+            if (!limiter.tryAcquire(address, Dispatcher.isReadOnly(line), 1))
+            {
+                return Request.reply(RateLimiter.TOO_MANY_REQUESTS);
+            }
+
+            return Request.text(line, compression).limitedBy(limiter, 1, TextSession::tooMany);
+        }
+
+        batch = Batch.start(line);
+
+        if (batch == null)
+        {
+            // The client cannot know how many lines would be swallowed, so nothing is
+            return Request.reply("400 ❌ Syntax: BATCH <1.." + Batch.MAX_COMMANDS + "> <USERNAME> <USERPASS>");
+        }
+
+        return null;
+    }
+
+    boolean isCollecting()
+    {
+        return batch != null;
+    }
+
+    private static Response tooMany()
+    {
+        return Response.of(Dispatcher.encode(RateLimiter.TOO_MANY_REQUESTS));
+    }
+
+    private static boolean isCompress(String line)
+    {
+        var trimmed = line.trim();
+
+        return trimmed.equals("COMPRESS") || trimmed.startsWith("COMPRESS ");
+    }
+
+    // COMPRESS <GZIP|DEFLATE|NONE>, applies to every response after this one
+    private Request compress(String line)
+    {
+        var parts = line.trim().split(" ");
+
+        var requested = parts.length == 2 ? Compression.parse(parts[1]) : null;
+
+        if (requested == null)
+        {
+            return Request.reply("400 ❌ Syntax: COMPRESS <GZIP|DEFLATE|NONE>");
+        }
+
+        compression = requested;
+
+        if (requested == Compression.NONE)
+        {
+            return Request.reply("200 ✅ Compression: off");
+        }
+
+        return Request.reply("200 ✅ Compression: " + requested.token() + " for responses over " + Compression.THRESHOLD / 1024 + "KB");
+    }
+}
@@ -0,0 +1,132 @@
+package src.Server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Builds the server's executors. With --threads=virtual every connection and every request gets its own
+// virtual thread, so blocking socket reads and waits on room locks park cheaply instead of pinning one of
+// a handful of platform threads. Virtual threads need JDK 21; older runtimes fall back to platform threads.
+public class ThreadPools
+{
+    private ThreadPools() {}
+
+    // Background threads named name-1, name-2 and so on, that do not keep the JVM alive once the server stops
+    public static ThreadFactory daemon(String name)
+    {
+        var threadCount = new AtomicInteger();
+
+        return runnable ->
+        {
+            var thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+
+            thread.setDaemon(true);
+
+            return thread;
+        };
+    }
+
+    static boolean useVirtualThreads(ServerConfig config)
+    {
+        if (!config.getString("threads", "platform").equals("virtual"))
+        {
+            return false;
+        }
+
+        if (!virtualThreadsSupported())
+        {
+            System.out.println("Virtual threads need JDK 21 or newer, using platform threads");
+
+            return false;
+        }
+
+        return true;
+    }
+
+    // Platform workers take requests from a bounded queue; once it is full, submissions are rejected
+    static ExecutorService requestPool(ServerConfig config, boolean virtual)
+    {
+        if (virtual)
+        {
+            return newVirtualThreadPerTaskExecutor("request", () -> platformRequestPool(config));
+        }
+
+        return platformRequestPool(config);
+    }
+
+    private static ExecutorService platformRequestPool(ServerConfig config)
+    {
+        var workers = config.getInt("workers", 8);
+
+        return new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(config.getInt("queueCapacity", 1024)), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Runs the HTTP gateway's exchanges, --httpThreads of them unless every exchange gets a virtual thread.
+    // Like the request pool, platform workers take them from a bounded queue and reject the rest.
+    static ExecutorService httpPool(ServerConfig config, boolean virtual)
+    {
+        if (virtual)
+        {
+            return newVirtualThreadPerTaskExecutor("HTTP", () -> platformHttpPool(config));
+        }
+
+        return platformHttpPool(config);
+    }
+
+    private static ExecutorService platformHttpPool(ServerConfig config)
+    {
+        var threads = config.getInt("httpThreads", config.getInt("workers", 8));
+
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(config.getInt("httpQueueCapacity", 1024)), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Runs the commands of BATCH requests, taking them from a bounded queue; once it is full, submissions are rejected
+    static ThreadPoolExecutor batchPool(int threads, int queueCapacity)
+    {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity),
+                daemon("batch"), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    static ExecutorService connectionPool(boolean virtual)
+    {
+        return virtual ? newVirtualThreadPerTaskExecutor("connection", Executors::newCachedThreadPool) : Executors.newCachedThreadPool();
+    }
+
+    private static boolean virtualThreadsSupported()
+    {
+        try
+        {
+            Thread.class.getMethod("ofVirtual");
+
+            return true;
+        }
+        catch (NoSuchMethodException e)
+        {
+            return false;
+        }
+    }
+
+    // Looked up reflectively so the server still compiles and runs on JDK 17. Should the lookup fail although
+    // useVirtualThreads saw the method, the pool falls back to platform threads and says so, rather than
+    // handing back no executor at all.
+    private static ExecutorService newVirtualThreadPerTaskExecutor(String name, Supplier<ExecutorService> fallback)
+    {
+        try
+        {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            System.out.println("Could not create virtual threads for the " + name + " pool (" + e + "), using platform threads");
+
+            return fallback.get();
+        }
+    }
+}
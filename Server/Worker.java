@@ -1,177 +1,282 @@
 package src.Server;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.Socket;
-import src.Controllers.*;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Semaphore;
 
 
-public class Worker implements Runnable
+public class Worker implements Runnable, ConnectionRegistry.Connection
 {
     private final Socket client;
 
-    private final BufferedReader clientReader;
+    private final BufferedInputStream clientInput;
 
-    private final PrintWriter clientWriter;
+    private final OutputStream clientOutput;
+
+    // A plain Socket has no channel of its own; this one copies buffers out in chunks
+    private final WritableByteChannel clientChannel;
+
+    private final AdmissionControl requestPool;
+
+    private Pipeline pipeline;
+
+    // Bounds how many requests of this connection may be in flight before we stop reading
+    private final Semaphore window;
+
+    private final int pipelineDepth;
+
+    private final ConnectionRegistry registry;
+
+    private final RateLimiter limiter;
+
+    // Client address, for the rate limiter
+    private final String address;
+
+    private volatile long lastActivity = System.nanoTime();
 
     // Constructor
-    Worker(Socket client) throws Exception
+    Worker(Socket client, int idleTimeoutMs, AdmissionControl requestPool, int pipelineDepth, ConnectionRegistry registry,
+           RateLimiter limiter) throws Exception
     {
-        Runtime.getRuntime().addShutdownHook(new Thread(this::cleanupWorkerResources));
-
         this.client = client;
 
-        this.clientReader = new BufferedReader(new InputStreamReader(client.getInputStream()));
+        this.limiter = limiter;
+
+        this.address = client.getInetAddress().getHostAddress();
+
+        this.registry = registry;
+
+        this.pipelineDepth = pipelineDepth;
+
+        // A read that waits longer than this ends the session
+        this.client.setSoTimeout(idleTimeoutMs);
 
-        this.clientWriter = new PrintWriter(client.getOutputStream(), true);
+        this.clientInput = new BufferedInputStream(client.getInputStream());
+
+        this.clientOutput = client.getOutputStream();
+
+        this.clientChannel = Channels.newChannel(clientOutput);
+
+        this.requestPool = requestPool;
+
+        this.window = new Semaphore(pipelineDepth);
 
     }
 
+    // Serves requests on the same socket until QUIT, end of stream or the idle timeout.
+    // Requests are read ahead without waiting for earlier responses, which go out in request order.
     @Override
     public void run()
     {
+        registry.register(this);
+
         try
         {
-            var request = clientReader.readLine();
+            // The first byte picks the protocol for the whole connection
+            clientInput.mark(1);
+
+            var first = clientInput.read();
+
+            if (first == -1)
+            {
+                return;
+            }
 
-            var response = processRequest(request);
+            if ((byte) first == BinaryProtocol.MAGIC)
+            {
+                pipeline = new Pipeline(requestPool, this::write, BinaryProtocol::encodeMessage);
 
-            clientWriter.println(response);
+                serveBinary();
+            }
+            else
+            {
+                clientInput.reset();
+
+                pipeline = new Pipeline(requestPool, this::write, Dispatcher::encode);
 
+                serveText();
+            }
+        }
+        catch (SocketTimeoutException e)
+        {
+            System.out.println("Closing idle connection PORT [" + client.getPort() + "]");
         }
         catch (Exception e)
         {
             System.out.println(e.getMessage());
         }
+        finally
+        {
+            // Let responses that are still being computed reach the client before closing
+            if (pipeline != null)
+            {
+                pipeline.drain().join();
+            }
+
+            cleanupWorkerResources();
+
+            registry.unregister(this);
+        }
     }
 
-    private String processRequest(String request)
+    private void serveText() throws IOException, InterruptedException
     {
-        try
-        {
-            var parts = request.split(" ");
+        var clientReader = new BufferedReader(new InputStreamReader(clientInput, StandardCharsets.UTF_8));
 
-            var command = parts[0];
+        var session = new TextSession(limiter, address);
 
-            return switch (command)
-            {
-                case "LOGIN" -> UserHandler.handleLogin(parts[1], parts[2]);
-                case "CREATE" ->
-                {
-                    switch (parts[1])
-                    {
-                        case "USER" ->
-                        {
-                            yield UserHandler.handleCreateUser(parts[2], parts[3]);
-                        }
-
-                        case "ROOM" ->
-                        {
-                            yield RoomHandler.handleCreateRoom(parts);
-                        }
-
-                        case "HOTEL" -> {
-                            yield HotelHandler.handleCreateHotel(parts);
-                        }
-                    }
-
-                    yield "500 ❌ Unknown CREATE command";
-                }
+        String line;
 
-                case "CHECK" -> BookingHandler.handleCheck(parts);
+        while ((line = clientReader.readLine()) != null)
+        {
+            lastActivity = System.nanoTime();
 
-                case "BOOK" -> BookingHandler.handleBooking(parts);
+            var request = session.accept(line);
 
-                case "REMOVE" -> handleRemove(parts);
+            if (request == null)
+            {
+                continue;
+            }
 
-                case "LIST" -> handleList(parts);
+            window.acquire();
 
-                case "UPDATE" ->
-                {
-                    if (parts[1].equals("ROOM"))
-                    {
-                        yield RoomHandler.handleUpdateRoom(parts);
-                    }
-                    else if (parts[1].equals("HOTEL"))
-                    {
-                        yield HotelHandler.handleUpdateHotel(parts);
-                    }
-
-                    yield "500 ❌ Unknown UPDATE command";
-                }
-                default -> "500 ❌ Unknown command";
-            };
-        }
-        catch (Exception e)
-        {
-            System.out.println("Worker error = " + e.getMessage());
+            pipeline.submit(request);
 
-            return "500 ❌ Internal Server error";
+            if (request.isQuit())
+            {
+                break;
+            }
         }
     }
 
-    private String handleList(String[] parts)
+    private void serveBinary() throws IOException, InterruptedException
     {
-        try
+        var data = new DataInputStream(clientInput);
+
+        while (true)
         {
-            var type = parts[1];
+            int length;
 
-            var username = parts[2];
+            try
+            {
+                length = data.readInt();
+            }
+            catch (EOFException e)
+            {
+                break;
+            }
 
-            var password = parts[3];
+            window.acquire();
 
-            // Validate admin
-            var user = UserHandler.findUser(username);
+            lastActivity = System.nanoTime();
 
-            if (user == null || user.validatePassword(password))
+            if (length <= 0 || length > BinaryProtocol.MAX_REQUEST_FRAME)
             {
-                return "403 ❌ Unauthorized access";
+                pipeline.reply("413 ❌ Invalid frame length " + length);
+
+                break;
             }
 
-            return switch (type) {
-                case "ROOMS" -> RoomHandler.listRooms();
-                case "HOTELS" -> HotelHandler.listHotels();
-                case "USERS" -> UserHandler.listUsers();
-                case "BOOKINGS" -> BookingHandler.listBookings(user);
-                default -> "500 ❌ Unknown list type";
-            };
-        }
-        catch (Exception e)
-        {
-            return "500 ❌ Error listing resources: " + e.getMessage();
+            var frame = new byte[length];
+
+            data.readFully(frame);
+
+            var request = BinaryProtocol.decode(ByteBuffer.wrap(frame), limiter, address);
+
+            pipeline.submit(request);
+
+            if (request.isQuit())
+            {
+                break;
+            }
         }
     }
 
-    private String handleRemove(String[] parts)
+    // Called by the pipeline, one response at a time and in request order
+    private void write(Response response)
     {
         try
         {
-            var type = parts[1];
+            for (var buffer : response.buffers())
+            {
+                while (buffer.hasRemaining())
+                {
+                    clientChannel.write(buffer);
+                }
+            }
 
-            var adminUsername = parts[parts.length - 2];
+            clientOutput.flush();
+
+            lastActivity = System.nanoTime();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Write failed PORT [" + client.getPort() + "] -> " + e.getMessage());
+        }
+        finally
+        {
+            response.release();
 
-            var adminPassword = parts[parts.length - 1];
+            window.release();
+        }
+    }
 
-            // Validate admin
-            var admin = UserHandler.findUser(adminUsername);
+    // ==== ConnectionRegistry.Connection ====
 
-            if (admin == null || !admin.isAdmin() || admin.validatePassword(adminPassword))
-            {
-                return "403 ❌ Unauthorized access";
-            }
+    @Override
+    public long lastActivity()
+    {
+        return lastActivity;
+    }
 
-            return switch (type) {
-                case "USER" -> UserHandler.removeUser(parts[2]);
-                case "BOOKING" -> BookingHandler.removeBooking(parts[2]);
-                case "ROOM" -> RoomHandler.removeRoom(parts[2]);
-                case "HOTEL" -> HotelHandler.removeHotel(parts[2]);
-                default -> "500 ❌ Unknown remove type";
-            };
+    @Override
+    public int inFlight()
+    {
+        return pipelineDepth - window.availablePermits();
+    }
+
+    @Override
+    public long partialRequestSince()
+    {
+        // A blocking read is bounded by the socket timeout instead
+        return 0;
+    }
+
+    @Override
+    public void drain()
+    {
+        try
+        {
+            // The read loop sees end of stream, then run() flushes the pending responses and closes
+            client.shutdownInput();
         }
-        catch (Exception e)
+        catch (IOException e)
         {
-            return "500 ❌ Error removing resource: " + e.getMessage();
+            close();
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        try
+        {
+            client.close();
+        }
+        catch (IOException e)
+        {
+            System.out.println(e.getMessage());
         }
     }
 
@@ -180,21 +285,14 @@ public class Worker implements Runnable
         // Cleanup specific to this Worker instance
         try
         {
-            System.out.println("Worker shutdown hook triggered...");
-
             if (client != null && !client.isClosed())
             {
                 client.close();
-
-                System.out.println("Client socket closed in shutdown hook.");
             }
 
-            clientReader.close();
-
-            clientWriter.close();
-
-            System.out.println("Worker shutdown complete.");
+            clientInput.close();
 
+            clientOutput.close();
         }
         catch (Exception e)
         {
@@ -202,4 +300,4 @@ public class Worker implements Runnable
         }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,710 @@
+package src.Server;
+
+import src.Util.Metrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+// Append-only log of every change to Database, replayed on startup (--wal=<file>). The file starts with
+// magic(int) base(long) and then holds records of length(int) crc32(int) body, so a write torn by a crash
+// is recognised and cut off at the next start. Positions count from the first record ever written: base is
+// the position of the file's first record, past the ones a snapshot made redundant and cutBefore dropped.
+//
+// A record is appended to an in-memory buffer before its change is made, and a request waits for it to
+// reach the disk only once it is done, outside every Database lock. Whoever syncs writes out everything
+// appended so far, so concurrent BOOKs share one fsync (group commit). --durability picks when it happens:
+//   sync   the request syncs itself, or finds its records synced by the one before it
+//   batch  a flusher syncs every --walFlushMs and the request waits for that
+//   async  the flusher syncs every --walFlushMs and nobody waits; a crash loses up to that much
+// Times are whole epoch seconds (UTC), the resolution bookings are kept to, here and in snapshots alike.
+//
+// Every record comes with how to take its change back. Should a sync fail, the changes that did not reach
+// the disk are taken back newest first, the requests waiting for them fail, and every later change is
+// refused before it is made; memory never holds a change the log has lost.
+class WriteAheadLog
+{
+    enum Durability
+    {
+        SYNC,
+
+        BATCH,
+
+        ASYNC
+    }
+
+    // "WAL1", larger than any record length, so a file of records without a header is not taken for a log
+    private static final int MAGIC = 0x57414C31;
+
+    private static final int HEADER = 4 + 8;
+
+    private static final int INITIAL_BUFFER = 64 * 1024;
+
+    // Larger than any record the server writes, so a bad length is not taken for a huge record
+    private static final int MAX_RECORD = 1024 * 1024;
+
+    private static final LongAdder records = Metrics.counter("wal.records");
+
+    private static final LongAdder syncs = Metrics.counter("wal.syncs");
+
+    // Offset up to which the calling thread has appended, 0 if it has nothing to wait for
+    private static final ThreadLocal<long[]> appendedByThread = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final Path file;
+
+    // Replaced, under syncLock, when cutBefore swaps in a shorter file
+    private FileChannel channel;
+
+    private long base;
+
+    private final Durability durability;
+
+    // Guards pending, its undos and appended; held only to copy a record in
+    private final Object appendLock = new Object();
+
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER);
+
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER);
+
+    // How to take back the changes in pending and spare, oldest first
+    private List<Runnable> pendingUndos = new ArrayList<>();
+
+    private List<Runnable> spareUndos = new ArrayList<>();
+
+    private long appended;
+
+    // One sync at a time; the threads queued here are served by the next one together
+    private final Object syncLock = new Object();
+
+    private volatile long durable;
+
+    private volatile IOException failure;
+
+    private ScheduledExecutorService flusher;
+
+    WriteAheadLog(Path file, Durability durability, long flushIntervalMs) throws IOException
+    {
+        this.file = file;
+
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        this.durability = durability;
+
+        this.base = readBase(channel, file);
+
+        this.appended = base + channel.size() - HEADER;
+
+        this.durable = appended;
+
+        channel.position(channel.size());
+
+        if (durability != Durability.SYNC)
+        {
+            flusher = Executors.newSingleThreadScheduledExecutor(ThreadPools.daemon("wal-flusher"));
+
+            flusher.scheduleWithFixedDelay(this::flush, flushIntervalMs, Math.max(1, flushIntervalMs), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    static Durability parseDurability(String value)
+    {
+        try
+        {
+            return Durability.valueOf(value.toUpperCase());
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.out.println("Invalid durability [" + value + "], using sync");
+
+            return Durability.SYNC;
+        }
+    }
+
+    // ==== Writing ====
+
+    // Starts a record of the given type; fill it in and pass it to append
+    static Record record(byte type)
+    {
+        return new Record(type);
+    }
+
+    // Called just before the change is made, under the lock that orders it against other changes; undo takes
+    // the change back, taking that lock itself. Throws, so the change is not made, once the log has failed.
+    void append(Record record, Runnable undo)
+    {
+        var body = record.toBytes();
+
+        var crc = new CRC32();
+
+        crc.update(body);
+
+        synchronized (appendLock)
+        {
+            if (failure != null)
+            {
+                throw new UncheckedIOException("Write-ahead log failed", failure);
+            }
+
+            if (pending.remaining() < body.length + 8)
+            {
+                pending = grow(pending, body.length + 8);
+            }
+
+            pending.putInt(body.length).putInt((int) crc.getValue()).put(body);
+
+            pendingUndos.add(undo);
+
+            appended += body.length + 8;
+
+            appendedByThread.get()[0] = appended;
+        }
+
+        records.increment();
+    }
+
+    // Returns once everything this thread appended is on disk, as far as the durability mode promises
+    void awaitDurable()
+    {
+        var mine = appendedByThread.get();
+
+        var target = mine[0];
+
+        mine[0] = 0;
+
+        if (target == 0 || durability == Durability.ASYNC)
+        {
+            return;
+        }
+
+        if (durability == Durability.SYNC)
+        {
+            sync(target);
+
+            return;
+        }
+
+        synchronized (syncLock)
+        {
+            while (durable < target && failure == null)
+            {
+                try
+                {
+                    syncLock.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+
+                    throw new IllegalStateException("Interrupted waiting for the log");
+                }
+            }
+        }
+
+        if (durable < target)
+        {
+            throw new UncheckedIOException("Write-ahead log failed", failure);
+        }
+    }
+
+    // Writes and forces everything appended so far, unless a sync since then already covered target
+    private void sync(long target)
+    {
+        synchronized (syncLock)
+        {
+            if (durable >= target)
+            {
+                return;
+            }
+
+            if (failure != null)
+            {
+                throw new UncheckedIOException("Write-ahead log failed", failure);
+            }
+
+            ByteBuffer batch;
+
+            List<Runnable> batchUndos;
+
+            long upTo;
+
+            synchronized (appendLock)
+            {
+                batch = pending;
+
+                pending = spare;
+
+                spare = batch;
+
+                batchUndos = pendingUndos;
+
+                pendingUndos = spareUndos;
+
+                spareUndos = batchUndos;
+
+                upTo = appended;
+            }
+
+            try
+            {
+                batch.flip();
+
+                while (batch.hasRemaining())
+                {
+                    channel.write(batch);
+                }
+
+                channel.force(false);
+            }
+            catch (Throwable e)
+            {
+                // Whatever went wrong, the batch may be on disk in part or not at all
+                fail(e instanceof IOException io ? io : new IOException(e), batchUndos);
+
+                throw new UncheckedIOException("Write-ahead log failed", failure);
+            }
+            finally
+            {
+                batch.clear();
+            }
+
+            batchUndos.clear();
+
+            durable = upTo;
+
+            syncs.increment();
+
+            syncLock.notifyAll();
+        }
+    }
+
+    // Under syncLock: refuses every later append and takes back the changes that never reached the disk, the
+    // ones appended since the batch first, newest first, so each is taken back from the state it was made in
+    private void fail(IOException e, List<Runnable> batchUndos)
+    {
+        List<Runnable> later;
+
+        synchronized (appendLock)
+        {
+            failure = e;
+
+            later = pendingUndos;
+
+            pendingUndos = new ArrayList<>();
+        }
+
+        System.out.println("Write-ahead log failed, taking back " + (later.size() + batchUndos.size())
+                + " changes that are not on disk -> " + e.getMessage());
+
+        undo(later);
+
+        undo(batchUndos);
+
+        batchUndos.clear();
+
+        syncLock.notifyAll();
+    }
+
+    private static void undo(List<Runnable> undos)
+    {
+        for (var i = undos.size() - 1; i >= 0; i--)
+        {
+            try
+            {
+                undos.get(i).run();
+            }
+            catch (RuntimeException e)
+            {
+                System.out.println("Could not take back a change -> " + e.getMessage());
+            }
+        }
+    }
+
+    // Position just past the last record appended; every change made so far is recorded below it
+    long position()
+    {
+        synchronized (appendLock)
+        {
+            return appended;
+        }
+    }
+
+    // Returns once everything up to target is on disk, whatever the durability mode
+    void syncTo(long target)
+    {
+        sync(target);
+    }
+
+    // Drops the records before position, once a snapshot on disk holds their changes: the ones from position
+    // on are copied to a new file, which replaces this one in a single rename. A crash on the way leaves the
+    // old file, which still replays from the snapshot's position.
+    void cutBefore(long position) throws IOException
+    {
+        synchronized (syncLock)
+        {
+            if (failure != null || position <= base || position > durable)
+            {
+                return;
+            }
+
+            var temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+            var out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+
+            try
+            {
+                writeHeader(out, position);
+
+                out.position(HEADER);
+
+                var from = position - base + HEADER;
+
+                var end = channel.size();
+
+                while (from < end)
+                {
+                    from += channel.transferTo(from, end - from, out);
+                }
+
+                out.force(true);
+
+                // The open channel follows the file through the rename
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                out.close();
+
+                Files.deleteIfExists(temporary);
+
+                throw e;
+            }
+
+            forceDirectory(file);
+
+            var old = channel;
+
+            channel = out;
+
+            base = position;
+
+            old.close();
+        }
+    }
+
+    // Makes a rename in file's directory outlive a crash; not every platform can open a directory, and where
+    // it cannot the rename is as durable as that platform makes it
+    static void forceDirectory(Path file)
+    {
+        var directory = file.toAbsolutePath().getParent();
+
+        try (var channel = FileChannel.open(directory, StandardOpenOption.READ))
+        {
+            channel.force(true);
+        }
+        catch (IOException e)
+        {
+            // Nothing more to be done here
+        }
+    }
+
+    private void flush()
+    {
+        try
+        {
+            long target;
+
+            synchronized (appendLock)
+            {
+                target = appended;
+            }
+
+            sync(target);
+        }
+        catch (RuntimeException e)
+        {
+            // Already reported by sync; the flusher has to keep running for the next attempt to be seen
+        }
+    }
+
+    // Syncs what is left and closes the file
+    void close()
+    {
+        if (flusher != null)
+        {
+            flusher.shutdown();
+        }
+
+        try
+        {
+            flush();
+
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Write-ahead log close failed -> " + e.getMessage());
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int needed)
+    {
+        var capacity = buffer.capacity();
+
+        while (capacity - buffer.position() < needed)
+        {
+            capacity <<= 1;
+        }
+
+        var larger = ByteBuffer.allocate(capacity);
+
+        buffer.flip();
+
+        return larger.put(buffer);
+    }
+
+    // Position of the file's first record; a new file, or one cut short before its header was complete, is
+    // given a header first
+    private static long readBase(FileChannel channel, Path file) throws IOException
+    {
+        if (channel.size() < HEADER)
+        {
+            channel.truncate(0);
+
+            writeHeader(channel, 0);
+
+            channel.force(true);
+
+            return 0;
+        }
+
+        var header = ByteBuffer.allocate(HEADER);
+
+        channel.read(header, 0);
+
+        header.flip();
+
+        if (header.getInt() != MAGIC)
+        {
+            throw new IOException(file + " is not a write-ahead log");
+        }
+
+        return header.getLong();
+    }
+
+    private static void writeHeader(FileChannel channel, long base) throws IOException
+    {
+        var header = ByteBuffer.allocate(HEADER).putInt(MAGIC).putLong(base).flip();
+
+        while (header.hasRemaining())
+        {
+            channel.write(header, header.position());
+        }
+    }
+
+    // ==== Reading ====
+
+    interface Replayer
+    {
+        void apply(byte type, ByteBuffer in);
+    }
+
+    // Hands every intact record from position from on to replayer in order and cuts off a torn tail; returns
+    // the number of records. from is 0 for the whole log, or the position a snapshot was taken at.
+    static int replay(Path file, long from, Replayer replayer) throws IOException
+    {
+        try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            var base = readBase(channel, file);
+
+            // The records before base were dropped for a snapshot; without it they are lost
+            if (from < base)
+            {
+                throw new IOException("Write-ahead log " + file + " starts at position " + base
+                        + ", after the snapshot's position " + from + "; is the snapshot missing or older?");
+            }
+
+            var size = channel.size();
+
+            if (from - base + HEADER > size)
+            {
+                System.out.println("Write-ahead log " + file + " ends before the snapshot's position " + from + ", replaying nothing");
+
+                return 0;
+            }
+
+            var header = ByteBuffer.allocate(8);
+
+            var position = from - base + HEADER;
+
+            var count = 0;
+
+            while (position + 8 <= size)
+            {
+                header.clear();
+
+                channel.read(header, position);
+
+                header.flip();
+
+                var length = header.getInt();
+
+                var crc = header.getInt();
+
+                if (length < 1 || length > MAX_RECORD || position + 8 + length > size)
+                {
+                    break;
+                }
+
+                var body = ByteBuffer.allocate(length);
+
+                channel.read(body, position + 8);
+
+                var check = new CRC32();
+
+                check.update(body.array());
+
+                if ((int) check.getValue() != crc)
+                {
+                    break;
+                }
+
+                body.flip();
+
+                replayer.apply(body.get(), body);
+
+                position += 8 + length;
+
+                count++;
+            }
+
+            if (position < size)
+            {
+                System.out.println("Write-ahead log has a torn record at byte " + position + ", dropping " + (size - position) + " bytes");
+
+                channel.truncate(position);
+
+                channel.force(true);
+            }
+
+            return count;
+        }
+    }
+
+    // Body of one record: its type and then its fields, in the order Database writes and reads them.
+    // Strings and byte arrays are an unsigned short length and the bytes, as in BinaryProtocol.
+    static final class Record
+    {
+        private ByteBuffer body = ByteBuffer.allocate(64);
+
+        private Record(byte type)
+        {
+            room(1).put(type);
+        }
+
+        Record putByte(int value)
+        {
+            room(1).put((byte) value);
+
+            return this;
+        }
+
+        Record putInt(int value)
+        {
+            room(4).putInt(value);
+
+            return this;
+        }
+
+        Record putLong(long value)
+        {
+            room(8).putLong(value);
+
+            return this;
+        }
+
+        Record putBoolean(boolean value)
+        {
+            room(1).put((byte) (value ? 1 : 0));
+
+            return this;
+        }
+
+        Record putTime(LocalDateTime value)
+        {
+            return putLong(BinaryProtocol.toEpochSecond(value));
+        }
+
+        Record putString(String value)
+        {
+            return putBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // Refuses what its unsigned short length cannot hold rather than cutting it off
+        Record putBytes(byte[] value)
+        {
+            if (value.length > 0xFFFF)
+            {
+                throw new IllegalArgumentException("Value of " + value.length + " bytes, at most 65535 fit in a record");
+            }
+
+            room(2 + value.length).putShort((short) value.length).put(value);
+
+            return this;
+        }
+
+        private ByteBuffer room(int needed)
+        {
+            if (body.remaining() < needed)
+            {
+                body = grow(body, needed);
+            }
+
+            return body;
+        }
+
+        private byte[] toBytes()
+        {
+            return Arrays.copyOf(body.array(), body.position());
+        }
+    }
+
+    static String getString(ByteBuffer in)
+    {
+        return new String(getBytes(in), StandardCharsets.UTF_8);
+    }
+
+    static byte[] getBytes(ByteBuffer in)
+    {
+        var bytes = new byte[in.getShort() & 0xFFFF];
+
+        in.get(bytes);
+
+        return bytes;
+    }
+
+    static LocalDateTime getTime(ByteBuffer in)
+    {
+        return BinaryProtocol.fromEpochSecond(in.getLong());
+    }
+
+    static boolean getBoolean(ByteBuffer in)
+    {
+        return in.get() != 0;
+    }
+}
@@ -0,0 +1,171 @@
+package src.Testing;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import src.Models.Booking;
+import src.Models.Room;
+
+// CHECK over the whole catalog: the old scan of every booking for every room against one binary search in
+// each room's calendar. Every room gets the same number of back-to-back one-night stays and the CHECK asks
+// for a night in the middle of them, so the answer is "booked" for every room either way.
+// The scan grows with rooms x bookings and is skipped past --scanLimit comparisons.
+// Usage: AvailabilityBenchmark [--rooms=1000] [--perRoom=10,100,1000] [--scanLimit=200000000]
+public class AvailabilityBenchmark
+{
+    private static final int WARMUP_ROUNDS = 3;
+
+    private static final int MEASURED_ROUNDS = 5;
+
+    private static final LocalDateTime START = LocalDateTime.of(2030, 1, 1, 14, 0);
+
+    // Written so the JIT cannot drop the checks as dead code
+    private static volatile long sink;
+
+    public static void main(String[] args)
+    {
+        var rooms = 1000;
+
+        var perRoom = new int[] {10, 100, 1000};
+
+        var scanLimit = 200_000_000L;
+
+        for (var arg : args)
+        {
+            if (arg.startsWith("--rooms="))
+            {
+                rooms = Integer.parseInt(arg.substring("--rooms=".length()));
+            }
+            else if (arg.startsWith("--perRoom="))
+            {
+                var parts = arg.substring("--perRoom=".length()).split(",");
+
+                perRoom = new int[parts.length];
+
+                for (var i = 0; i < parts.length; i++)
+                {
+                    perRoom[i] = Integer.parseInt(parts[i]);
+                }
+            }
+            else if (arg.startsWith("--scanLimit="))
+            {
+                scanLimit = Long.parseLong(arg.substring("--scanLimit=".length()));
+            }
+        }
+
+        System.out.printf("%d rooms, CHECK over all of them%n", rooms);
+
+        System.out.printf("%-12s %12s %16s %16s%n", "per room", "bookings", "scan ms/CHECK", "calendar ms/CHECK");
+
+        for (var count : perRoom)
+        {
+            run(rooms, count, scanLimit);
+        }
+    }
+
+    private static void run(int roomCount, int perRoom, long scanLimit)
+    {
+        var rooms = new ArrayList<Room>(roomCount);
+
+        var bookings = new ArrayList<Booking>(roomCount * perRoom);
+
+        for (var i = 0; i < roomCount; i++)
+        {
+            var room = new Room(String.valueOf(i + 1), 100, Room.RoomType.SINGLE_ROOM, 1);
+
+            rooms.add(room);
+
+            for (var night = 0; night < perRoom; night++)
+            {
+                var checkIn = START.plusDays(night);
+
+                var booking = new Booking(room.getId(), 1, checkIn, checkIn.plusHours(20), 1);
+
+                bookings.add(booking);
+
+                room.getCalendar().add(booking);
+            }
+        }
+
+        var checkIn = START.plusDays(perRoom / 2).plusHours(2);
+
+        var checkOut = checkIn.plusHours(12);
+
+        var scan = (long) roomCount * bookings.size() <= scanLimit
+                ? measure(() -> scan(rooms, bookings, checkIn, checkOut))
+                : Double.NaN;
+
+        var calendar = measure(() -> calendar(rooms, checkIn, checkOut));
+
+        System.out.printf("%-12d %12d %16s %16.4f%n", perRoom, bookings.size(),
+                Double.isNaN(scan) ? "skipped" : String.format("%.3f", scan), calendar);
+    }
+
+    // Milliseconds per run, the best of the measured rounds
+    private static double measure(Runnable check)
+    {
+        var best = Long.MAX_VALUE;
+
+        for (var round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++)
+        {
+            var start = System.nanoTime();
+
+            check.run();
+
+            var elapsed = System.nanoTime() - start;
+
+            if (round >= WARMUP_ROUNDS)
+            {
+                best = Math.min(best, elapsed);
+            }
+        }
+
+        return best / 1e6;
+    }
+
+    // What findAvailableRooms did before the calendars: every booking for every room
+    private static void scan(List<Room> rooms, List<Booking> bookings, LocalDateTime checkInTime, LocalDateTime checkOutTime)
+    {
+        var available = 0;
+
+        for (var room : rooms)
+        {
+            var free = true;
+
+            for (var booking : bookings)
+            {
+                if (booking.getRoomId() == room.getId()
+                        && !checkInTime.isAfter(booking.getCheckOutTime())
+                        && !checkOutTime.isBefore(booking.getCheckInTime()))
+                {
+                    free = false;
+
+                    break;
+                }
+            }
+
+            if (free)
+            {
+                available++;
+            }
+        }
+
+        sink += available;
+    }
+
+    private static void calendar(List<Room> rooms, LocalDateTime checkInTime, LocalDateTime checkOutTime)
+    {
+        var available = 0;
+
+        for (var room : rooms)
+        {
+            if (room.getCalendar().isFree(checkInTime, checkOutTime))
+            {
+                available++;
+            }
+        }
+
+        sink += available;
+    }
+}
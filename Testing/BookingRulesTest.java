@@ -0,0 +1,257 @@
+package src.Testing;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import src.Controllers.BookingHandler;
+import src.Controllers.Outcome;
+import src.Controllers.UserHandler;
+import src.Models.Booking;
+import src.Models.User;
+import src.Server.Database;
+
+// The booking rules the server enforces itself, whatever the client checked: a stay must end after it
+// starts, and no two stays of a room may overlap (touching counts), to the second. The same cases run
+// against each booking store, each in a JVM of its own against the seed data; prints one line per case
+// and exits with 1 if any failed.
+// Usage: BookingRulesTest [--stores=heap,offheap] [--trials=2000] [--seed=1]
+//        BookingRulesTest --store=<heap|offheap> [--trials=2000] [--seed=1]   (one store)
+public class BookingRulesTest
+{
+    private static final LocalDateTime START = LocalDateTime.of(2031, 1, 1, 0, 0);
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception
+    {
+        var stores = "heap,offheap";
+
+        String store = null;
+
+        var trials = 2000;
+
+        var seed = 1L;
+
+        for (var arg : args)
+        {
+            if (arg.startsWith("--stores="))
+            {
+                stores = arg.substring("--stores=".length());
+            }
+            else if (arg.startsWith("--store="))
+            {
+                store = arg.substring("--store=".length());
+            }
+            else if (arg.startsWith("--trials="))
+            {
+                trials = Integer.parseInt(arg.substring("--trials=".length()));
+            }
+            else if (arg.startsWith("--seed="))
+            {
+                seed = Long.parseLong(arg.substring("--seed=".length()));
+            }
+        }
+
+        if (store == null)
+        {
+            var failed = 0;
+
+            for (var each : stores.split(","))
+            {
+                System.out.println("=== " + each + " ===");
+
+                var process = new ProcessBuilder(java("--store=" + each, "--trials=" + trials, "--seed=" + seed))
+                        .inheritIO()
+                        .start();
+
+                if (process.waitFor() != 0)
+                {
+                    failed++;
+                }
+            }
+
+            System.out.println(failed == 0 ? "All stores passed" : failed + " stores failed");
+
+            System.exit(failed == 0 ? 0 : 1);
+        }
+
+        var directory = Files.createTempDirectory("booking-rules-test");
+
+        // Empty by then, the column files go when the process ends
+        directory.toFile().deleteOnExit();
+
+        Database.configureBookingStore(store, directory);
+
+        Database.populateSeedData();
+
+        invertedStays();
+
+        secondsCount();
+
+        randomStays(trials, seed);
+
+        System.out.println(failures == 0 ? "All passed" : failures + " failed");
+
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // ==== Cases ====
+
+    private static void invertedStays() throws InterruptedException
+    {
+        var checkIn = START.plusDays(10);
+
+        var checkOut = START.plusDays(12);
+
+        var inverted = book(1, checkOut, checkIn);
+
+        check("inverted BOOK is refused with 400", !inverted.isSuccess() && inverted.getMessage().startsWith("400"));
+
+        var empty = book(1, checkIn, checkIn);
+
+        check("BOOK ending when it starts is refused with 400", !empty.isSuccess() && empty.getMessage().startsWith("400"));
+
+        var search = BookingHandler.findAvailableRooms(user(), checkOut, checkIn);
+
+        check("inverted CHECK is refused with 400", !search.isSuccess() && search.getMessage().startsWith("400"));
+
+        check("no booking was made", Database.allBookings().isEmpty());
+
+        // A stay around the inverted one, then one overlapping it: the calendar must still see the first
+        check("valid BOOK after the inverted one succeeds", book(1, checkIn, checkOut).isSuccess());
+
+        check("inverted BOOK on a booked room is refused", !book(1, checkOut.plusDays(5), checkIn.minusDays(5)).isSuccess());
+
+        check("overlapping valid BOOK is refused", !book(1, checkIn.plusDays(1), checkOut.plusDays(1)).isSuccess());
+
+        check("touching valid BOOK is refused", !book(1, checkOut, checkOut.plusDays(1)).isSuccess());
+
+        check("later valid BOOK succeeds", book(1, checkOut.plusDays(1), checkOut.plusDays(2)).isSuccess());
+
+        for (var booking : new ArrayList<>(Database.allBookings()))
+        {
+            Database.removeBooking(booking);
+        }
+    }
+
+    // Stays that start or end within the same minute as another; they are told apart by their seconds
+    private static void secondsCount() throws InterruptedException
+    {
+        var checkIn = START.plusDays(20).withSecond(10);
+
+        var checkOut = START.plusDays(21).withSecond(30);
+
+        var booked = book(2, checkIn, checkOut);
+
+        check("BOOK with seconds succeeds", booked.isSuccess());
+
+        var found = Database.findBooking(booked.getValue().get(0).getId());
+
+        check("the booking keeps its seconds", found.getCheckInTime().equals(checkIn) && found.getCheckOutTime().equals(checkOut));
+
+        var room = Database.rooms.get(2);
+
+        check("a stay from 20 seconds after check-out is free", Database.isFree(room, checkOut.plusSeconds(20), checkOut.plusDays(1)));
+
+        check("a stay from the second of check-out is not free", !Database.isFree(room, checkOut, checkOut.plusDays(1)));
+
+        check("a stay until 5 seconds before check-in is free", Database.isFree(room, checkIn.minusDays(1), checkIn.minusSeconds(5)));
+
+        check("a stay until the second of check-in is not free", !Database.isFree(room, checkIn.minusDays(1), checkIn));
+
+        check("BOOK 20 seconds after check-out succeeds", book(2, checkOut.plusSeconds(20), checkOut.plusDays(1)).isSuccess());
+
+        for (var booking : new ArrayList<>(Database.allBookings()))
+        {
+            Database.removeBooking(booking);
+        }
+    }
+
+    // Random stays to the second, some inverted, on a few rooms over a short period so they collide often;
+    // every answer is compared with a scan of the stays accepted so far
+    private static void randomStays(int trials, long seed) throws InterruptedException
+    {
+        var random = new Random(seed);
+
+        var accepted = new ArrayList<List<Booking>>();
+
+        for (var roomId = 0; roomId <= 3; roomId++)
+        {
+            accepted.add(new ArrayList<>());
+        }
+
+        var wrong = 0;
+
+        for (var trial = 0; trial < trials; trial++)
+        {
+            var roomId = random.nextInt(1, 4);
+
+            var checkIn = START.plusSeconds(random.nextInt(60 * 24 * 3600));
+
+            var checkOut = checkIn.plusSeconds(random.nextInt(-48 * 3600, 72 * 3600));
+
+            var expected = checkIn.isBefore(checkOut) && accepted.get(roomId).stream().noneMatch(booking ->
+                    !checkIn.isAfter(booking.getCheckOutTime()) && !checkOut.isBefore(booking.getCheckInTime()));
+
+            var outcome = book(roomId, checkIn, checkOut);
+
+            if (outcome.isSuccess())
+            {
+                accepted.get(roomId).addAll(outcome.getValue());
+            }
+
+            if (outcome.isSuccess() != expected)
+            {
+                wrong++;
+            }
+        }
+
+        check(trials + " random stays are accepted exactly when free", wrong == 0);
+    }
+
+    // ==== Helpers ====
+
+    private static Outcome<List<Booking>> book(int roomId, LocalDateTime checkIn, LocalDateTime checkOut)
+            throws InterruptedException
+    {
+        return BookingHandler.bookRooms(user(), new int[] {roomId}, checkIn, checkOut);
+    }
+
+    // The seed data's plain user, as the server would find them behind their credentials
+    private static User user()
+    {
+        return UserHandler.findUser("user");
+    }
+
+    // A java command line for one store with this JVM's classpath
+    private static String[] java(String... args)
+    {
+        var command = new ArrayList<String>();
+
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+
+        command.add("-cp");
+
+        command.add(System.getProperty("java.class.path"));
+
+        command.add(BookingRulesTest.class.getName());
+
+        command.addAll(List.of(args));
+
+        return command.toArray(new String[0]);
+    }
+
+    private static void check(String name, boolean passed)
+    {
+        System.out.println((passed ? "PASS " : "FAIL ") + name);
+
+        if (!passed)
+        {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package src.Testing;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import src.Models.Booking;
+import src.Models.Hotel;
+import src.Models.Room;
+import src.Models.User;
+import src.Server.Database;
+
+// Heap and collector cost of holding many bookings, heap store against off-heap store. Each run is a JVM of
+// its own with this one's -Xms/-Xmx: it fills the Database through addBooking, answers CHECK-style
+// availability queries for a few seconds, then user listings and lookups by id for as long. Reported are
+// the heap in use after a full collection, the mapped bytes are not part of it, and the time spent collecting.
+// Usage: BookingStoreBenchmark [--runs=heap:5000000,offheap:5000000,offheap:50000000] [--seconds=5]
+//        BookingStoreBenchmark --store=<heap|offheap> --bookings=<n> --seconds=<s>   (one run)
+public class BookingStoreBenchmark
+{
+    private static final LocalDateTime FIRST_NIGHT = LocalDateTime.parse("2030-01-01T14:00");
+
+    private static final int BOOKINGS_PER_ROOM = 200;
+
+    private static final int BOOKINGS_PER_USER = 100;
+
+    private static final int ROOMS_PER_HOTEL = 50;
+
+    // Written so the JIT cannot drop the queries as dead code
+    private static volatile long sink;
+
+    public static void main(String[] args) throws Exception
+    {
+        var runs = "heap:5000000,offheap:5000000,offheap:50000000";
+
+        var seconds = 5;
+
+        String store = null;
+
+        var bookings = 0;
+
+        for (var arg : args)
+        {
+            if (arg.startsWith("--runs="))
+            {
+                runs = arg.substring("--runs=".length());
+            }
+            else if (arg.startsWith("--seconds="))
+            {
+                seconds = Integer.parseInt(arg.substring("--seconds=".length()));
+            }
+            else if (arg.startsWith("--store="))
+            {
+                store = arg.substring("--store=".length());
+            }
+            else if (arg.startsWith("--bookings="))
+            {
+                bookings = Integer.parseInt(arg.substring("--bookings=".length()));
+            }
+        }
+
+        if (store != null)
+        {
+            run(store, bookings, seconds);
+
+            return;
+        }
+
+        var results = new ArrayList<String>();
+
+        for (var spec : runs.split(","))
+        {
+            var parts = spec.split(":");
+
+            System.out.println("=== " + parts[0] + ", " + parts[1] + " bookings ===");
+
+            var process = new ProcessBuilder(java("--store=" + parts[0], "--bookings=" + parts[1], "--seconds=" + seconds))
+                    .redirectErrorStream(true)
+                    .start();
+
+            var in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+
+            var line = "";
+
+            while ((line = in.readLine()) != null)
+            {
+                System.out.println(line);
+
+                if (line.startsWith("***"))
+                {
+                    results.add(line.substring(3));
+                }
+            }
+
+            process.waitFor();
+        }
+
+        System.out.println("=== Booking stores ===");
+
+        System.out.printf("%-8s %10s %8s %10s %10s %10s %12s %12s %12s%n", "store", "bookings", "fill s", "heap MB",
+                "fill GCs", "fill GC ms", "checks/s", "lists/s", "query GC ms");
+
+        results.forEach(System.out::println);
+    }
+
+    private static void run(String store, int bookings, int seconds) throws Exception
+    {
+        var directory = Files.createTempDirectory("booking-store-benchmark");
+
+        // Empty by then, the column files go when the process ends
+        directory.toFile().deleteOnExit();
+
+        Database.configureBookingStore(store, directory);
+
+        var rooms = Math.max(20, bookings / BOOKINGS_PER_ROOM);
+
+        var users = Math.max(2, bookings / BOOKINGS_PER_USER);
+
+        var gcBefore = gcCounts();
+
+        var start = System.nanoTime();
+
+        var roomList = fill(bookings, rooms, users);
+
+        var fillSeconds = (System.nanoTime() - start) / 1e9;
+
+        var gcAfterFill = gcCounts();
+
+        System.gc();
+
+        var heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+        // Is a random room free on a random night, as CHECK and BOOK ask
+        var gcBeforeQueries = gcCounts();
+
+        var random = ThreadLocalRandom.current();
+
+        var nights = Math.max(1, bookings / rooms);
+
+        var checks = 0L;
+
+        var lists = 0L;
+
+        var found = 0L;
+
+        var deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+        while (System.nanoTime() < deadline)
+        {
+            for (var i = 0; i < 1000; i++, checks++)
+            {
+                var checkIn = FIRST_NIGHT.plusDays(2L * random.nextInt(nights + 10)).plusHours(21);
+
+                if (Database.isFree(roomList.get(random.nextInt(rooms)), checkIn, checkIn.plusHours(12)))
+                {
+                    found++;
+                }
+            }
+        }
+
+        // A user's bookings and one booking by id, as LIST BOOKINGS and CANCEL look them up
+        deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+        while (System.nanoTime() < deadline)
+        {
+            for (var i = 0; i < 100; i++, lists++)
+            {
+                for (var booking : Database.bookingsOf(random.nextInt(1, users + 1)))
+                {
+                    found += booking.getCheckInTime().getDayOfMonth();
+                }
+
+                found += Database.findBooking(random.nextInt(1, bookings + 1)).getRoomId();
+            }
+        }
+
+        sink += found;
+
+        var gcAfterQueries = gcCounts();
+
+        System.out.printf("***%-8s %10d %8.1f %10.1f %10d %10d %12.0f %12.0f %12d%n", store, bookings, fillSeconds,
+                heap / 1e6, gcAfterFill[0] - gcBefore[0], gcAfterFill[1] - gcBefore[1], checks / (double) seconds,
+                lists / (double) seconds, gcAfterQueries[1] - gcBeforeQueries[1]);
+    }
+
+    // The same catalog and bookings as SnapshotBenchmark: each room booked night after night
+    private static List<Room> fill(int bookings, int rooms, int users)
+    {
+        var salt = new byte[16];
+
+        var hash = new byte[32];
+
+        for (var id = 1; id <= users; id++)
+        {
+            Database.addUser(new User(id, "user" + id, id == 1, salt, hash, 1));
+        }
+
+        for (var id = 1; id <= (rooms + ROOMS_PER_HOTEL - 1) / ROOMS_PER_HOTEL; id++)
+        {
+            Database.addHotel(new Hotel(id, "Hotel " + id));
+        }
+
+        var roomList = new ArrayList<Room>();
+
+        for (var id = 1; id <= rooms; id++)
+        {
+            var room = new Room(id, "R" + id, 100, Room.RoomType.SINGLE_ROOM, (id - 1) / ROOMS_PER_HOTEL + 1);
+
+            Database.addRoom(room);
+
+            roomList.add(room);
+        }
+
+        for (var id = 1; id <= bookings; id++)
+        {
+            var checkIn = FIRST_NIGHT.plusDays(2L * ((id - 1) / rooms));
+
+            Database.addBooking(new Booking(id, (id - 1) % rooms + 1, (id - 1) % users + 1, checkIn, checkIn.plusHours(20), id));
+        }
+
+        return roomList;
+    }
+
+    // Collections and milliseconds spent in them so far, over all collectors
+    private static long[] gcCounts()
+    {
+        var totals = new long[2];
+
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            totals[0] += collector.getCollectionCount();
+
+            totals[1] += collector.getCollectionTime();
+        }
+
+        return totals;
+    }
+
+    // A java command line for one run with this JVM's classpath and heap size
+    private static String[] java(String... args)
+    {
+        var command = new ArrayList<String>();
+
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+
+        for (var option : ManagementFactory.getRuntimeMXBean().getInputArguments())
+        {
+            if (option.startsWith("-Xmx") || option.startsWith("-Xms"))
+            {
+                command.add(option);
+            }
+        }
+
+        command.add("-cp");
+
+        command.add(System.getProperty("java.class.path"));
+
+        command.add(BookingStoreBenchmark.class.getName());
+
+        command.addAll(List.of(args));
+
+        return command.toArray(new String[0]);
+    }
+}
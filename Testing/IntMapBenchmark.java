@@ -0,0 +1,213 @@
+package src.Testing;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import src.Util.ConcurrentIntMap;
+
+// Catalog lookups by room id: ConcurrentHashMap<Integer, ...> against ConcurrentIntMap, once with readers
+// only and once with one thread adding and removing rooms the whole time, the way CREATE/REMOVE do.
+// Keys are random ids over the whole catalog, so most Integer lookups box (the Integer cache stops at 127).
+// Usage: IntMapBenchmark [--entries=1000000] [--threads=8] [--seconds=3]
+public class IntMapBenchmark
+{
+    private static final int WARMUP_ROUNDS = 2;
+
+    // Written so the JIT cannot drop the lookups as dead code
+    private static volatile long sink;
+
+    // The operations both maps have to offer here
+    private interface Store
+    {
+        Object get(int key);
+
+        void put(int key, Object value);
+
+        void remove(int key);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        var entries = 1_000_000;
+
+        var threads = 8;
+
+        var seconds = 3;
+
+        for (var arg : args)
+        {
+            if (arg.startsWith("--entries="))
+            {
+                entries = Integer.parseInt(arg.substring("--entries=".length()));
+            }
+            else if (arg.startsWith("--threads="))
+            {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            }
+            else if (arg.startsWith("--seconds="))
+            {
+                seconds = Integer.parseInt(arg.substring("--seconds=".length()));
+            }
+        }
+
+        System.out.printf("%d entries, %d reader threads, %d s per run%n", entries, threads, seconds);
+
+        System.out.printf("%-18s %-8s %14s %16s%n", "map", "writer", "Mgets/s", "bytes/get");
+
+        for (var round = 0; round <= WARMUP_ROUNDS; round++)
+        {
+            var report = round == WARMUP_ROUNDS;
+
+            for (var writer : new boolean[] {false, true})
+            {
+                run(report, "ConcurrentHashMap", boxed(entries), entries, threads, seconds, writer);
+
+                run(report, "ConcurrentIntMap", primitive(entries), entries, threads, seconds, writer);
+            }
+        }
+    }
+
+    private static Store boxed(int entries)
+    {
+        var map = new ConcurrentHashMap<Integer, Object>();
+
+        for (var i = 1; i <= entries; i++)
+        {
+            map.put(i, "room " + i);
+        }
+
+        return new Store()
+        {
+            public Object get(int key)
+            {
+                return map.get(key);
+            }
+
+            public void put(int key, Object value)
+            {
+                map.put(key, value);
+            }
+
+            public void remove(int key)
+            {
+                map.remove(key);
+            }
+        };
+    }
+
+    private static Store primitive(int entries)
+    {
+        var map = new ConcurrentIntMap<Object>();
+
+        for (var i = 1; i <= entries; i++)
+        {
+            map.put(i, "room " + i);
+        }
+
+        return new Store()
+        {
+            public Object get(int key)
+            {
+                return map.get(key);
+            }
+
+            public void put(int key, Object value)
+            {
+                map.put(key, value);
+            }
+
+            public void remove(int key)
+            {
+                map.remove(key);
+            }
+        };
+    }
+
+    private static void run(boolean report, String name, Store store, int entries, int threads, int seconds,
+                            boolean withWriter) throws InterruptedException
+    {
+        var mxBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        var deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+        var gets = new LongAdder();
+
+        var allocated = new LongAdder();
+
+        var done = new CountDownLatch(threads);
+
+        for (var t = 0; t < threads; t++)
+        {
+            new Thread(() ->
+            {
+                var random = ThreadLocalRandom.current();
+
+                var bytesBefore = mxBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+
+                var count = 0L;
+
+                var found = 0L;
+
+                while (System.nanoTime() < deadline)
+                {
+                    // Checking the clock every 1024 lookups keeps it out of the measurement
+                    for (var i = 0; i < 1024; i++)
+                    {
+                        if (store.get(random.nextInt(1, entries + 1)) != null)
+                        {
+                            found++;
+                        }
+                    }
+
+                    count += 1024;
+                }
+
+                allocated.add(mxBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytesBefore);
+
+                gets.add(count);
+
+                sink += found;
+
+                done.countDown();
+            }).start();
+        }
+
+        Thread writer = null;
+
+        if (withWriter)
+        {
+            // Takes rooms out and puts them back, so readers race with structural changes
+            writer = new Thread(() ->
+            {
+                var random = ThreadLocalRandom.current();
+
+                while (System.nanoTime() < deadline)
+                {
+                    var key = random.nextInt(1, entries + 1);
+
+                    store.remove(key);
+
+                    store.put(key, "room " + key);
+                }
+            });
+
+            writer.start();
+        }
+
+        done.await();
+
+        if (writer != null)
+        {
+            writer.join();
+        }
+
+        if (report)
+        {
+            System.out.printf("%-18s %-8s %14.1f %16.2f%n", name, withWriter ? "yes" : "no",
+                    gets.sum() / (seconds * 1e6), (double) allocated.sum() / gets.sum());
+        }
+    }
+}
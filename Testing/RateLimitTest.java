@@ -0,0 +1,307 @@
+package src.Testing;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.time.LocalDateTime;
+
+// The rate limits as a client sees them, against a server started with the default limits: a user's budget
+// is spent only by commands that authenticate as that user, a large BATCH runs without locking its user
+// out, a user over their own rate gets 429, and wrong passwords stop costing a slow hash. All clients connect
+// from the same address, so the cases stay under the per-address rate. Prints one line per case and exits
+// with 1 if any failed.
+// Usage: RateLimitTest [--port=9292]
+public class RateLimitTest
+{
+    private static final String SERVER_ADDRESS = "localhost";
+
+    private static final int SYNC_BOOKINGS = 2000;
+
+    private static final LocalDateTime FIRST_NIGHT = LocalDateTime.parse("2031-01-01T14:00");
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception
+    {
+        var port = 9292;
+
+        for (var arg : args)
+        {
+            if (arg.startsWith("--port="))
+            {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            }
+        }
+
+        var server = startServer(port);
+
+        try (var socket = new Socket(SERVER_ADDRESS, port))
+        {
+            var out = new PrintWriter(socket.getOutputStream(), true);
+
+            var in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+            claimedNames(out, in);
+
+            nightlySync(out, in);
+
+            batchWithWrongPassword(out, in);
+
+            ownRate(out, in);
+
+            notCredentials(out, in);
+
+            guessedPasswords(out, in);
+
+            out.println("QUIT");
+        }
+        finally
+        {
+            server.destroy();
+
+            server.waitFor();
+        }
+
+        System.out.println(failures == 0 ? "All passed" : failures + " failed");
+
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // ==== Cases ====
+
+    // Writes sent under user's name with a wrong password, more than user's burst of 20, all at once so the
+    // slow password checks do not give the bucket time to refill
+    private static void claimedNames(PrintWriter out, BufferedReader in) throws IOException
+    {
+        var limited = pipeline(out, in, "CANCEL 999 user wrong", 40);
+
+        check("writes with a wrong password are not rate limited as the user", limited == 0);
+
+        check("the user can still write", !send(out, in, "CANCEL 999 user user").startsWith("429"));
+    }
+
+    // A sync of SYNC_BOOKINGS bookings in one BATCH with the default limits: it runs whole, checks the
+    // password once, and the user can go on working right after it
+    private static void nightlySync(PrintWriter out, BufferedReader in) throws IOException
+    {
+        var checksBefore = passwordChecks(out, in);
+
+        out.println("BATCH " + SYNC_BOOKINGS + " user user");
+
+        for (var night = 0; night < SYNC_BOOKINGS; night++)
+        {
+            var checkIn = FIRST_NIGHT.plusDays(2L * night);
+
+            out.println("BOOK 5 " + checkIn + " " + checkIn.plusHours(20));
+        }
+
+        var result = readResponse(in);
+
+        check("a " + SYNC_BOOKINGS + " command BATCH is not rate limited",
+                result.startsWith("200") && result.contains(SYNC_BOOKINGS + " succeeded"));
+
+        // One for the batch, one for each STATS
+        check("the batch checked the password once", passwordChecks(out, in) - checksBefore <= 3);
+
+        check("the user can still write after it", !send(out, in, "CANCEL 999 user user").startsWith("429"));
+
+        check("the user can still read after it", !send(out, in, "LIST BOOKINGS user user").startsWith("429"));
+    }
+
+    // A large batch under user's name with a wrong password; before, it was charged to user up front and
+    // left their writes blocked for minutes. Small enough to fit in what the sync left of the address's bucket.
+    private static void batchWithWrongPassword(PrintWriter out, BufferedReader in) throws IOException
+    {
+        out.println("BATCH 5000 user wrong");
+
+        for (var i = 0; i < 5000; i++)
+        {
+            out.println("CANCEL 999");
+        }
+
+        check("a batch with a wrong password is refused", readResponse(in).startsWith("403"));
+
+        check("the user can still write after it", !send(out, in, "CANCEL 999 user user").startsWith("429"));
+    }
+
+    // admin's own writes, faster than admin's 20 a second
+    private static void ownRate(PrintWriter out, BufferedReader in) throws IOException
+    {
+        var limited = pipeline(out, in, "CANCEL 999 admin admin", 40);
+
+        check("a user over their own write rate gets 429", limited > 0);
+
+        check("other users are not limited by it", !send(out, in, "CANCEL 999 user user").startsWith("429"));
+    }
+
+    // Lines that are no command, or a command without credentials, check no password
+    private static void notCredentials(PrintWriter out, BufferedReader in) throws IOException
+    {
+        var checksBefore = passwordChecks(out, in);
+
+        for (var line : new String[] {"HELLO user user", "user user", "CREATE USER newcomer secret"})
+        {
+            send(out, in, line);
+        }
+
+        // One for the second STATS
+        check("lines without credentials check no password", passwordChecks(out, in) - checksBefore <= 1);
+    }
+
+    // Someone guessing a password: a wrong one sent again is not hashed again, and once a few were wrong the
+    // rest are refused without hashing
+    private static void guessedPasswords(PrintWriter out, BufferedReader in) throws IOException
+    {
+        send(out, in, "CREATE USER guessed right");
+
+        var before = slowChecks(out, in);
+
+        var refused = 0;
+
+        for (var i = 0; i < 10; i++)
+        {
+            if (send(out, in, "LOGIN guessed wrong").startsWith("403"))
+            {
+                refused++;
+            }
+        }
+
+        check("a repeated wrong password is refused", refused == 10);
+
+        check("a repeated wrong password is hashed once", slowChecks(out, in) - before == 1);
+
+        before = slowChecks(out, in);
+
+        refused = 0;
+
+        for (var i = 0; i < 20; i++)
+        {
+            if (send(out, in, "LOGIN guessed wrong" + i).startsWith("403"))
+            {
+                refused++;
+            }
+        }
+
+        check("different wrong passwords are refused", refused == 20);
+
+        // The server's default --credentialFailureLimit, one of which the repeated password used up
+        check("only the first few different wrong passwords are hashed", slowChecks(out, in) - before <= 4);
+    }
+
+    // ==== Helpers ====
+
+    private static void check(String name, boolean passed)
+    {
+        System.out.println((passed ? "PASS " : "FAIL ") + name);
+
+        if (!passed)
+        {
+            failures++;
+        }
+    }
+
+    // Launches the server from this JVM's classpath with the default limits and waits until it accepts connections
+    private static Process startServer(int port) throws Exception
+    {
+        var java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+        var server = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "src.Server.Server",
+                "--port=" + port)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+
+        for (var attempt = 0; attempt < 100; attempt++)
+        {
+            try
+            {
+                new Socket(SERVER_ADDRESS, port).close();
+
+                return server;
+            }
+            catch (IOException e)
+            {
+                Thread.sleep(100);
+            }
+        }
+
+        server.destroy();
+
+        throw new IOException("Server did not start on port " + port);
+    }
+
+    private static String send(PrintWriter out, BufferedReader in, String command) throws IOException
+    {
+        out.println(command);
+
+        return readResponse(in);
+    }
+
+    // Credentials looked up so far, in the cache or not
+    private static long passwordChecks(PrintWriter out, BufferedReader in) throws IOException
+    {
+        var stats = send(out, in, "STATS admin admin");
+
+        return counter(stats, "credentials.cacheHits") + counter(stats, "credentials.cacheMisses");
+    }
+
+    // Passwords hashed so far, the checks the cache could not answer
+    private static long slowChecks(PrintWriter out, BufferedReader in) throws IOException
+    {
+        return counter(send(out, in, "STATS admin admin"), "credentials.slowChecks");
+    }
+
+    private static long counter(String stats, String name)
+    {
+        for (var line : stats.split("\n"))
+        {
+            var trimmed = line.trim();
+
+            if (trimmed.startsWith(name + ": "))
+            {
+                return Long.parseLong(trimmed.substring(name.length() + 2));
+            }
+        }
+
+        return 0;
+    }
+
+    // Sends command count times without waiting, then reads the answers; returns how many were 429
+    private static int pipeline(PrintWriter out, BufferedReader in, String command, int count) throws IOException
+    {
+        for (var i = 0; i < count; i++)
+        {
+            out.println(command);
+        }
+
+        var limited = 0;
+
+        for (var i = 0; i < count; i++)
+        {
+            if (readResponse(in).startsWith("429"))
+            {
+                limited++;
+            }
+        }
+
+        return limited;
+    }
+
+    // The server keeps the connection open, a response ends with an empty line
+    private static String readResponse(BufferedReader in) throws IOException
+    {
+        var response = new StringBuilder();
+
+        var line = "";
+
+        while ((line = in.readLine()) != null && !line.isEmpty())
+        {
+            response.append(line).append("\n");
+        }
+
+        return response.toString().trim();
+    }
+}
@@ -0,0 +1,262 @@
+package src.Testing;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import src.Models.Booking;
+import src.Models.Hotel;
+import src.Models.Room;
+import src.Models.User;
+import src.Server.Database;
+
+// Server startup from a --snapshot holding 1M and 10M bookings. For every size a separate JVM fills the
+// Database and writes the snapshot, then the server is started on it and timed until it accepts connections.
+// Each JVM gets this one's -Xms and -Xmx; 10M bookings need about 4g, and a heap that does not have to
+// grow on the way keeps the collector from copying the bookings loaded so far again and again.
+// Usage: SnapshotBenchmark [--bookings=1000000,10000000] [--port=9292]
+//        SnapshotBenchmark --generate=<bookings> --file=<snapshot>   (the filling JVM)
+public class SnapshotBenchmark
+{
+    private static final String SERVER_ADDRESS = "localhost";
+
+    private static final LocalDateTime FIRST_NIGHT = LocalDateTime.parse("2030-01-01T14:00");
+
+    // Bookings per room and per user, about what a busy hotel collects over a few years
+    private static final int BOOKINGS_PER_ROOM = 200;
+
+    private static final int BOOKINGS_PER_USER = 100;
+
+    private static final int ROOMS_PER_HOTEL = 50;
+
+    public static void main(String[] args) throws Exception
+    {
+        var sizes = "1000000,10000000";
+
+        var port = 9292;
+
+        var generate = 0;
+
+        String file = null;
+
+        for (var arg : args)
+        {
+            if (arg.startsWith("--bookings="))
+            {
+                sizes = arg.substring("--bookings=".length());
+            }
+            else if (arg.startsWith("--port="))
+            {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            }
+            else if (arg.startsWith("--generate="))
+            {
+                generate = Integer.parseInt(arg.substring("--generate=".length()));
+            }
+            else if (arg.startsWith("--file="))
+            {
+                file = arg.substring("--file=".length());
+            }
+        }
+
+        if (generate > 0)
+        {
+            generate(generate, Path.of(file));
+
+            return;
+        }
+
+        var results = new ArrayList<String>();
+
+        for (var size : sizes.split(","))
+        {
+            var bookings = Integer.parseInt(size.trim());
+
+            var snapshot = Files.createTempFile("snapshot-benchmark-", ".snap");
+
+            try
+            {
+                System.out.println("=== " + bookings + " bookings ===");
+
+                var writeLine = run(java("src.Testing.SnapshotBenchmark", "--generate=" + bookings, "--file=" + snapshot), "Snapshot written");
+
+                var startupStart = System.nanoTime();
+
+                var server = new ProcessBuilder(java("src.Server.Server", "--port=" + port, "--rateLimit=false", "--snapshot=" + snapshot))
+                        .redirectErrorStream(true)
+                        .start();
+
+                try
+                {
+                    var loadLine = waitForLine(server, "Snapshot loaded");
+
+                    waitUntilAccepting(port);
+
+                    var startupMillis = (System.nanoTime() - startupStart) / 1_000_000;
+
+                    results.add(String.format("%-12d %10.1f %12s %12s %12d", bookings, Files.size(snapshot) / 1e6,
+                            millisOf(writeLine), millisOf(loadLine), startupMillis));
+                }
+                finally
+                {
+                    // Not destroy(): the shutdown hook would write the snapshot again first
+                    server.destroyForcibly();
+
+                    server.waitFor(30, TimeUnit.SECONDS);
+                }
+            }
+            finally
+            {
+                Files.deleteIfExists(snapshot);
+            }
+        }
+
+        System.out.println("=== Startup from a snapshot ===");
+
+        System.out.printf("%-12s %10s %12s %12s %12s%n", "bookings", "MB", "write ms", "load ms", "startup ms");
+
+        results.forEach(System.out::println);
+    }
+
+    // Fills the Database the way requests would over time and writes one snapshot of it
+    private static void generate(int bookings, Path file) throws IOException
+    {
+        var rooms = Math.max(20, bookings / BOOKINGS_PER_ROOM);
+
+        var users = Math.max(2, bookings / BOOKINGS_PER_USER);
+
+        var hotels = (rooms + ROOMS_PER_HOTEL - 1) / ROOMS_PER_HOTEL;
+
+        // Stored as they are, hashing a password per user would take longer than the rest together
+        var salt = new byte[16];
+
+        var hash = new byte[32];
+
+        for (var id = 1; id <= users; id++)
+        {
+            Database.addUser(new User(id, "user" + id, id == 1, salt, hash, 1));
+        }
+
+        for (var id = 1; id <= hotels; id++)
+        {
+            Database.addHotel(new Hotel(id, "Hotel " + id));
+        }
+
+        for (var id = 1; id <= rooms; id++)
+        {
+            Database.addRoom(new Room(id, "R" + id, 100, Room.RoomType.SINGLE_ROOM, (id - 1) / ROOMS_PER_HOTEL + 1));
+        }
+
+        // Each room gets one night after another, so no two of its bookings overlap
+        for (var id = 1; id <= bookings; id++)
+        {
+            var room = (id - 1) % rooms + 1;
+
+            var checkIn = FIRST_NIGHT.plusDays(2L * ((id - 1) / rooms));
+
+            Database.addBooking(new Booking(id, room, (id - 1) % users + 1, checkIn, checkIn.plusHours(20), id));
+        }
+
+        Database.saveSnapshot(file);
+    }
+
+    // A java command line for main with this JVM's classpath and heap size
+    private static String[] java(String main, String... args)
+    {
+        var command = new ArrayList<String>();
+
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+
+        for (var option : ManagementFactory.getRuntimeMXBean().getInputArguments())
+        {
+            if (option.startsWith("-Xmx") || option.startsWith("-Xms"))
+            {
+                command.add(option);
+            }
+        }
+
+        command.add("-cp");
+
+        command.add(System.getProperty("java.class.path"));
+
+        command.add(main);
+
+        command.addAll(List.of(args));
+
+        return command.toArray(new String[0]);
+    }
+
+    // Runs the command to the end and returns its first output line starting with prefix
+    private static String run(String[] command, String prefix) throws Exception
+    {
+        var process = new ProcessBuilder(command).redirectErrorStream(true).start();
+
+        var line = waitForLine(process, prefix);
+
+        process.waitFor();
+
+        return line;
+    }
+
+    private static String waitForLine(Process process, String prefix) throws IOException
+    {
+        var in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+
+        var line = "";
+
+        while ((line = in.readLine()) != null)
+        {
+            if (line.startsWith(prefix))
+            {
+                System.out.println(line);
+
+                // Keep reading in the background, a full pipe would stall the process
+                var drain = new Thread(() -> in.lines().forEach(rest -> {}));
+
+                drain.setDaemon(true);
+
+                drain.start();
+
+                return line;
+            }
+        }
+
+        throw new IOException("Process ended without printing " + prefix);
+    }
+
+    private static void waitUntilAccepting(int port) throws Exception
+    {
+        for (var attempt = 0; attempt < 6000; attempt++)
+        {
+            try
+            {
+                new Socket(SERVER_ADDRESS, port).close();
+
+                return;
+            }
+            catch (IOException e)
+            {
+                Thread.sleep(10);
+            }
+        }
+
+        throw new IOException("Server did not start on port " + port);
+    }
+
+    // The "in N ms" at the end of a log line
+    private static String millisOf(String line)
+    {
+        var parts = line.split(" ");
+
+        return parts[parts.length - 2];
+    }
+}
@@ -2,10 +2,23 @@ package src.Testing;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import src.Server.BinaryProtocol;
+
+// Hot-room booking load test.
+// Usage: Tester [--port=8081]                 runs the workload against a server that is already running
+//        Tester --compare [--port=9090]       starts the server twice, on platform and on virtual threads,
+//                                             and prints throughput and latency for both runs
+//                                             (rate limiting off, the point is to saturate the server)
+//        add --binary to either form          sends BOOK over the binary protocol instead of text lines
 public class Tester
 {
     private static final String SERVER_ADDRESS = "localhost";
@@ -18,23 +31,95 @@ public class Tester
 
     private static final int TOTAL_THREADS = ROOMS * REQUESTS_PER_ROOM; // 1000 total threads
 
-    private static final AtomicInteger successfulBookings = new AtomicInteger(0);
+    private static final String[] COMPARED_THREAD_MODES = {"platform", "virtual"};
+
+    private static final LocalDateTime CHECK_IN = LocalDateTime.parse("2025-05-12T10:10");
+
+    private static final LocalDateTime CHECK_OUT = LocalDateTime.parse("2025-05-21T10:10");
+
+    private static boolean binary = false;
+
+    public static void main(String[] args) throws Exception
+    {
+        var port = SERVER_PORT;
+
+        var compare = false;
+
+        for (var arg : args)
+        {
+            if (arg.startsWith("--port="))
+            {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            }
+            else if (arg.equals("--compare"))
+            {
+                compare = true;
+            }
+            else if (arg.equals("--binary"))
+            {
+                binary = true;
+            }
+        }
+
+        if (!compare)
+        {
+            runWorkload(port, true).print();
+
+            return;
+        }
+
+        var results = new ArrayList<Result>();
+
+        for (var mode : COMPARED_THREAD_MODES)
+        {
+            System.out.println("***\n=== Starting server with --threads=" + mode + " ===");
+
+            var server = startServer(port, mode);
 
-    private static final AtomicInteger failedBookings = new AtomicInteger(0);
+            try
+            {
+                var result = runWorkload(port, false);
+
+                result.label = mode;
+
+                result.print();
 
-    private static final AtomicInteger[] roomSuccessCount = new AtomicInteger[ROOMS + 1];
+                results.add(result);
+            }
+            finally
+            {
+                server.destroy();
+
+                server.waitFor(10, TimeUnit.SECONDS);
+            }
+        }
+
+        System.out.println("***\n=== Comparison ===");
+
+        System.out.printf("***%-10s %12s %10s %10s %10s %8s%n", "threads", "req/s", "p50 ms", "p99 ms", "max ms", "booked");
+
+        for (var result : results)
+        {
+            System.out.printf("***%-10s %12.1f %10.1f %10.1f %10.1f %8d%n", result.label, result.throughput(),
+                    result.percentile(50), result.percentile(99), result.percentile(100), result.successful);
+        }
+    }
 
-    static
+    private static Result runWorkload(int port, boolean verbose)
     {
+        var result = new Result();
+
+        var roomSuccessCount = new AtomicInteger[ROOMS + 1];
+
         // Initialize counters for each room
         for (int i = 1; i <= ROOMS; i++)
         {
             roomSuccessCount[i] = new AtomicInteger(0);
         }
-    }
 
-    public static void main(String[] args)
-    {
+        var successfulBookings = new AtomicInteger(0);
+
+        var failedBookings = new AtomicInteger(0);
 
         var executor = Executors.newFixedThreadPool(TOTAL_THREADS);
 
@@ -52,23 +137,30 @@ public class Tester
             {
                 final var requestNum = i;
 
+                final var slot = (room - 1) * REQUESTS_PER_ROOM + i;
+
                 executor.submit(() ->
                 {
+                    var requestStart = System.nanoTime();
+
                     try
                     {
                         var bookingCommand = "BOOK " + room + " 2025-05-12T10:10 2025-05-21T10:10 user user";
 
-                        var bookingResponse = sendCommand(bookingCommand);
+                        var bookingResponse = binary ? sendBinaryBooking(port, room) : sendCommand(port, bookingCommand);
 
-                        System.out.println("***Room " + room + ", Request " + requestNum +
-                                " response: " + bookingResponse);
+                        if (verbose)
+                        {
+                            System.out.println("***Room " + room + ", Request " + requestNum +
+                                    " response: " + bookingResponse);
+                        }
 
                         if (bookingResponse.startsWith("200"))
                         {
                             successfulBookings.incrementAndGet();
 
                             roomSuccessCount[room].incrementAndGet();
-                        } 
+                        }
                         else
                         {
                             failedBookings.incrementAndGet();
@@ -83,6 +175,8 @@ public class Tester
                     }
                     finally
                     {
+                        result.latenciesNanos[slot] = System.nanoTime() - requestStart;
+
                         latch.countDown();
                     }
                 });
@@ -92,49 +186,60 @@ public class Tester
         try
         {
             latch.await(); // Wait for all threads to complete
+        }
+        catch (InterruptedException e)
+        {
+            System.err.println("Main thread interrupted: " + e.getMessage());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
 
-            var endTime = System.currentTimeMillis();
+        result.totalMillis = System.currentTimeMillis() - startTime;
 
-            System.out.println("***\n=== Test Results ===");
+        result.successful = successfulBookings.get();
 
-            System.out.println("***Total threads: " + TOTAL_THREADS);
+        result.failed = failedBookings.get();
 
-            System.out.println("***Successful bookings: " + successfulBookings.get());
+        result.roomSuccessCount = roomSuccessCount;
 
-            System.out.println("***Failed bookings: " + failedBookings.get());
+        return result;
+    }
 
-            // Print success rate per room
-            System.out.println("***\n=== Room Success Rates ===");
+    // Launches the server from this JVM's classpath and waits until it accepts connections
+    private static Process startServer(int port, String threadMode) throws Exception
+    {
+        var java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
 
-            for (var i = 1; i <= ROOMS; i++)
-            {
-                System.out.println("***Room " + i + ": " + roomSuccessCount[i].get() +
-                        "/" + REQUESTS_PER_ROOM + " successful (" +
-                        (roomSuccessCount[i].get() * 100.0 / REQUESTS_PER_ROOM) + "%)");
-            }
+        var server = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "src.Server.Server",
+                "--port=" + port, "--io=blocking", "--threads=" + threadMode, "--rateLimit=false")
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
 
-            System.out.println("***\nTotal time: " + (endTime - startTime) + "ms");
+        for (var attempt = 0; attempt < 100; attempt++)
+        {
+            try
+            {
+                new Socket(SERVER_ADDRESS, port).close();
 
-            System.out.println("***Average response time per request: " +
-                   ((endTime - startTime) / (float)TOTAL_THREADS) + "ms");
+                return server;
+            }
+            catch (IOException e)
+            {
+                Thread.sleep(100);
+            }
+        }
 
-            System.out.println("***Requests per second: " +
-                   (1000.0 * TOTAL_THREADS / (endTime - startTime)));
+        server.destroy();
 
-        }
-        catch (InterruptedException e)
-        {
-            System.err.println("Main thread interrupted: " + e.getMessage());
-        }
-        finally
-        {
-            executor.shutdown();
-        }
+        throw new IOException("Server did not start on port " + port);
     }
 
-    private static String sendCommand(String command) throws IOException
+    private static String sendCommand(int port, String command) throws IOException
     {
-        try (var socket = new Socket(SERVER_ADDRESS, SERVER_PORT))
+        try (var socket = new Socket(SERVER_ADDRESS, port))
         {
             // Set a timeout to prevent hanging connections
             socket.setSoTimeout(10000); // 10 seconds timeout
@@ -151,11 +256,14 @@ public class Tester
 
             var line = "";
 
-            while ((line = in.readLine()) != null)
+            // The server keeps the connection open, a response ends with an empty line
+            while ((line = in.readLine()) != null && !line.isEmpty())
             {
                 response.append(line).append("\n");
             }
 
+            out.println("QUIT");
+
             in.close();
 
             String res = response.toString().trim();
@@ -165,4 +273,112 @@ public class Tester
             return res;
         }
     }
-}
\ No newline at end of file
+
+    // Returns the response status followed by the booking ids, or the error message
+    private static String sendBinaryBooking(int port, int room) throws IOException
+    {
+        try (var socket = new Socket(SERVER_ADDRESS, port))
+        {
+            socket.setSoTimeout(10000);
+
+            var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            out.writeByte(BinaryProtocol.MAGIC);
+
+            out.write(BinaryProtocol.encodeBook(new int[] {room}, CHECK_IN, CHECK_OUT, "user", "user"));
+
+            out.write(BinaryProtocol.encodeQuit());
+
+            out.flush();
+
+            var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            var frame = new byte[in.readInt()];
+
+            in.readFully(frame);
+
+            var response = ByteBuffer.wrap(frame);
+
+            var status = response.getShort();
+
+            response.get(); // opcode
+
+            if (status != 200)
+            {
+                return status + " " + BinaryProtocol.readLongString(response);
+            }
+
+            var transactionId = response.getInt();
+
+            var bookingIds = new StringBuilder();
+
+            for (var i = response.getInt(); i > 0; i--)
+            {
+                bookingIds.append(' ').append(response.getInt());
+            }
+
+            return status + " transaction " + transactionId + " bookings" + bookingIds;
+        }
+    }
+
+    private static class Result
+    {
+        private String label = "";
+
+        private final long[] latenciesNanos = new long[TOTAL_THREADS];
+
+        private long totalMillis;
+
+        private int successful;
+
+        private int failed;
+
+        private AtomicInteger[] roomSuccessCount;
+
+        private double throughput()
+        {
+            return 1000.0 * TOTAL_THREADS / Math.max(1, totalMillis);
+        }
+
+        private double percentile(int percentile)
+        {
+            var sorted = latenciesNanos.clone();
+
+            Arrays.sort(sorted);
+
+            var index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+
+            return sorted[Math.max(0, index)] / 1_000_000.0;
+        }
+
+        private void print()
+        {
+            System.out.println("***\n=== Test Results ===");
+
+            System.out.println("***Total threads: " + TOTAL_THREADS);
+
+            System.out.println("***Successful bookings: " + successful);
+
+            System.out.println("***Failed bookings: " + failed);
+
+            // Print success rate per room
+            System.out.println("***\n=== Room Success Rates ===");
+
+            for (var i = 1; i <= ROOMS; i++)
+            {
+                System.out.println("***Room " + i + ": " + roomSuccessCount[i].get() +
+                        "/" + REQUESTS_PER_ROOM + " successful (" +
+                        (roomSuccessCount[i].get() * 100.0 / REQUESTS_PER_ROOM) + "%)");
+            }
+
+            System.out.println("***\nTotal time: " + totalMillis + "ms");
+
+            System.out.println("***Average response time per request: " +
+                   (totalMillis / (float)TOTAL_THREADS) + "ms");
+
+            System.out.println("***Requests per second: " + throughput());
+
+            System.out.printf("***Latency p50: %.1fms, p99: %.1fms, max: %.1fms%n", percentile(50), percentile(99), percentile(100));
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package src.Testing;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+import src.Server.Command;
+import src.Util.Tokens;
+
+// Parse cost of BOOK, CHECK and LIST requests: the old split(" ") + String switch + parseInt/LocalDateTime.parse
+// path against Tokens and the Command table. Only parsing is measured, the handlers never run.
+// Usage: TokenizerBenchmark [--iterations=2000000]
+public class TokenizerBenchmark
+{
+    private static final String[] REQUESTS = {
+            "BOOK 1 2 3 2025-05-12T10:10 2025-05-21T10:10 user user",
+            "CHECK 2025-05-12T10:10 2025-05-21T10:10 user user",
+            "LIST ROOMS admin admin"
+    };
+
+    private static final DateTimeFormatter formatter = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+
+    private static final int WARMUP_ROUNDS = 3;
+
+    // Written so the JIT cannot drop the parsing as dead code
+    private static long sink;
+
+    public static void main(String[] args)
+    {
+        var iterations = 2_000_000;
+
+        for (var arg : args)
+        {
+            if (arg.startsWith("--iterations="))
+            {
+                iterations = Integer.parseInt(arg.substring("--iterations=".length()));
+            }
+        }
+
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        var tokens = new Tokens();
+
+        System.out.printf("%-8s %-8s %12s %14s%n", "command", "parser", "ns/request", "bytes/request");
+
+        for (var request : REQUESTS)
+        {
+            var verb = request.substring(0, request.indexOf(' '));
+
+            for (var round = 0; round <= WARMUP_ROUNDS; round++)
+            {
+                var report = round == WARMUP_ROUNDS;
+
+                measure(report, verb, "split", iterations, threads, () -> sink += parseSplit(request));
+
+                measure(report, verb, "tokens", iterations, threads, () -> sink += parseTokens(tokens, request));
+            }
+        }
+
+        System.out.println(sink == 42 ? "" : "done");
+    }
+
+    private static void measure(boolean report, String verb, String parser, int iterations,
+                                com.sun.management.ThreadMXBean threads, Runnable parse)
+    {
+        var thread = Thread.currentThread().getId();
+
+        var bytesBefore = threads.getThreadAllocatedBytes(thread);
+
+        var start = System.nanoTime();
+
+        for (var i = 0; i < iterations; i++)
+        {
+            parse.run();
+        }
+
+        var nanos = System.nanoTime() - start;
+
+        var bytes = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+
+        if (report)
+        {
+            System.out.printf("%-8s %-8s %12.1f %14.1f%n", verb, parser, (double) nanos / iterations, (double) bytes / iterations);
+        }
+    }
+
+    // What Worker/Dispatcher did before: one String per word, then parse from those
+    private static long parseSplit(String request)
+    {
+        var parts = request.trim().split(" ");
+
+        return switch (parts[0])
+        {
+            case "BOOK" ->
+            {
+                var last = parts.length - 1;
+
+                var sum = (long) parts[last].length() + parts[last - 1].length();
+
+                sum += LocalDateTime.parse(parts[last - 2], formatter).getMinute();
+
+                sum += LocalDateTime.parse(parts[last - 3], formatter).getMinute();
+
+                for (var i = 1; i < parts.length - 4; i++)
+                {
+                    sum += Integer.parseInt(parts[i]);
+                }
+
+                yield sum;
+            }
+
+            case "CHECK" -> LocalDateTime.parse(parts[1], formatter).getMinute()
+                    + LocalDateTime.parse(parts[2], formatter).getMinute() + parts[3].length() + parts[4].length();
+
+            case "LIST" -> switch (parts[1])
+            {
+                case "ROOMS" -> 1 + parts[2].length() + parts[3].length();
+                default -> 0;
+            };
+
+            default -> 0;
+        };
+    }
+
+    // The same work on Tokens: only the credentials become Strings
+    private static long parseTokens(Tokens tokens, String request)
+    {
+        tokens.reset(request);
+
+        var command = Command.of(tokens);
+
+        if (command == null)
+        {
+            return 0;
+        }
+
+        return switch (command)
+        {
+            case BOOK ->
+            {
+                var last = tokens.count() - 1;
+
+                var sum = (long) tokens.text(last).length() + tokens.text(last - 1).length();
+
+                sum += tokens.parseDateTime(last - 2).getMinute();
+
+                sum += tokens.parseDateTime(last - 3).getMinute();
+
+                for (var i = 1; i < tokens.count() - 4; i++)
+                {
+                    sum += tokens.parseInt(i);
+                }
+
+                yield sum;
+            }
+
+            case CHECK -> tokens.parseDateTime(1).getMinute() + tokens.parseDateTime(2).getMinute()
+                    + tokens.text(3).length() + tokens.text(4).length();
+
+            case LIST -> tokens.is(1, "ROOMS") ? 1 + tokens.text(2).length() + tokens.text(3).length() : 0;
+
+            default -> 0;
+        };
+    }
+}
@@ -0,0 +1,218 @@
+package src.Testing;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// BOOK throughput with the write-ahead log in each durability mode. Every client keeps one connection and
+// books its own room night after night, so no BOOK fails on a conflict and each one appends a record.
+// The wal.records and wal.syncs counters show how many records one fsync carried (group commit).
+// Usage: WalBenchmark [--port=9191] [--clients=16] [--bookings=200]
+public class WalBenchmark
+{
+    private static final String SERVER_ADDRESS = "localhost";
+
+    private static final String[] DURABILITY_MODES = {"sync", "batch", "async"};
+
+    private static final int ROOMS = 20;
+
+    private static final LocalDateTime FIRST_NIGHT = LocalDateTime.parse("2030-01-01T14:00");
+
+    public static void main(String[] args) throws Exception
+    {
+        var port = 9191;
+
+        var clients = 16;
+
+        var bookings = 200;
+
+        for (var arg : args)
+        {
+            if (arg.startsWith("--port="))
+            {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            }
+            else if (arg.startsWith("--clients="))
+            {
+                clients = Integer.parseInt(arg.substring("--clients=".length()));
+            }
+            else if (arg.startsWith("--bookings="))
+            {
+                bookings = Integer.parseInt(arg.substring("--bookings=".length()));
+            }
+        }
+
+        System.out.printf("%d clients, %d bookings each%n", clients, bookings);
+
+        System.out.printf("%-8s %12s %10s %10s %14s%n", "mode", "BOOK/s", "records", "syncs", "records/sync");
+
+        for (var mode : DURABILITY_MODES)
+        {
+            var wal = Files.createTempFile("wal-benchmark-", ".log");
+
+            var server = startServer(port, mode, wal.toString());
+
+            try
+            {
+                var booked = new AtomicInteger();
+
+                var elapsed = run(port, clients, bookings, booked);
+
+                var stats = sendCommand(port, "STATS admin admin");
+
+                var records = counter(stats, "wal.records");
+
+                var syncs = counter(stats, "wal.syncs");
+
+                System.out.printf("%-8s %12.1f %10d %10d %14.1f%n", mode, booked.get() * 1e9 / elapsed, records, syncs,
+                        syncs == 0 ? 0.0 : (double) records / syncs);
+            }
+            finally
+            {
+                server.destroy();
+
+                server.waitFor(10, TimeUnit.SECONDS);
+
+                Files.deleteIfExists(wal);
+            }
+        }
+    }
+
+    // Nanoseconds until every client has made its bookings
+    private static long run(int port, int clients, int bookings, AtomicInteger booked) throws InterruptedException
+    {
+        var done = new CountDownLatch(clients);
+
+        var start = System.nanoTime();
+
+        for (var c = 0; c < clients; c++)
+        {
+            var client = c;
+
+            new Thread(() ->
+            {
+                try (var socket = new Socket(SERVER_ADDRESS, port))
+                {
+                    var out = new PrintWriter(socket.getOutputStream(), true);
+
+                    var in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+                    var room = client % ROOMS + 1;
+
+                    // Clients sharing a room take turns over the nights, so their stays never overlap
+                    var sharing = (clients + ROOMS - 1) / ROOMS;
+
+                    var turn = client / ROOMS;
+
+                    for (var i = 0; i < bookings; i++)
+                    {
+                        var checkIn = FIRST_NIGHT.plusDays(2L * (i * sharing + turn));
+
+                        out.println("BOOK " + room + " " + checkIn + " " + checkIn.plusHours(20) + " user user");
+
+                        if (readResponse(in).startsWith("200"))
+                        {
+                            booked.incrementAndGet();
+                        }
+                    }
+                }
+                catch (IOException e)
+                {
+                    System.err.println("Client " + client + " error: " + e.getMessage());
+                }
+                finally
+                {
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        done.await();
+
+        return System.nanoTime() - start;
+    }
+
+    // Launches the server from this JVM's classpath and waits until it accepts connections
+    private static Process startServer(int port, String durability, String wal) throws Exception
+    {
+        var java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+        var server = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "src.Server.Server",
+                "--port=" + port, "--rateLimit=false", "--wal=" + wal, "--durability=" + durability)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+
+        for (var attempt = 0; attempt < 100; attempt++)
+        {
+            try
+            {
+                new Socket(SERVER_ADDRESS, port).close();
+
+                return server;
+            }
+            catch (IOException e)
+            {
+                Thread.sleep(100);
+            }
+        }
+
+        server.destroy();
+
+        throw new IOException("Server did not start on port " + port);
+    }
+
+    private static String sendCommand(int port, String command) throws IOException
+    {
+        try (var socket = new Socket(SERVER_ADDRESS, port))
+        {
+            var out = new PrintWriter(socket.getOutputStream(), true);
+
+            out.println(command);
+
+            var response = readResponse(new BufferedReader(new InputStreamReader(socket.getInputStream())));
+
+            out.println("QUIT");
+
+            return response;
+        }
+    }
+
+    // The server keeps the connection open, a response ends with an empty line
+    private static String readResponse(BufferedReader in) throws IOException
+    {
+        var response = new StringBuilder();
+
+        var line = "";
+
+        while ((line = in.readLine()) != null && !line.isEmpty())
+        {
+            response.append(line).append("\n");
+        }
+
+        return response.toString().trim();
+    }
+
+    private static long counter(String stats, String name)
+    {
+        for (var line : stats.split("\n"))
+        {
+            var trimmed = line.trim();
+
+            if (trimmed.startsWith(name + ": "))
+            {
+                return Long.parseLong(trimmed.substring(name.length() + 2));
+            }
+        }
+
+        return 0;
+    }
+}
@@ -1,14 +1,20 @@
 package src.UI;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.Scanner;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 import src.Util.Validator;
 
@@ -22,10 +28,21 @@ public class Client
 
     private String password;
 
+    // Appended to every command: "SESSION <token>" once logged in
+    private String credentials;
+
     private boolean isAdmin = false;
 
     private final Scanner sc;
 
+    private Socket client;
+
+    private PrintWriter serverWriter;
+
+    private DataInputStream serverInput;
+
+    private boolean compressionRequested = false;
+
     private static final DateTimeFormatter formatter = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
 
     private static final DateTimeFormatter inputFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm");
@@ -111,6 +128,13 @@ public class Client
         {
             System.out.println("Worker shutdown hook triggered...");
 
+            if (client != null && !client.isClosed())
+            {
+                serverWriter.println("QUIT");
+            }
+
+            closeConnection();
+
             sc.close();
 
             System.out.println("Worker shutdown complete.");
@@ -138,22 +162,18 @@ public class Client
 
         this.password = parts[2];
 
-        try (
-                var client = new Socket(HOST, PORT);
-
-                var serverWriter = new PrintWriter(client.getOutputStream(), true);
-
-                var serverReader = new BufferedReader(new InputStreamReader(client.getInputStream()))
-        )
+        try
         {
-            serverWriter.println(command);
-
-            var response = serverReader.readLine();
+            var response = sendCommand(command);
 
             System.out.println(response);
 
             if (response.startsWith("200"))
             {
+                var session = response.indexOf("Session: ");
+
+                credentials = session < 0 ? username + " " + password : "SESSION " + response.substring(session + "Session: ".length()).trim();
+
                 if (username.equals("admin"))
                 {
                     this.isAdmin = true;
@@ -174,24 +194,130 @@ public class Client
 
     private void processCreateUserCommand(String command)
     {
-        try (
-                var client = new Socket(HOST, PORT);
+        try
+        {
+            System.out.println(sendCommand(command));
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error connecting to server: " + e.getMessage());
+        }
+    }
+
+    // One connection is opened lazily and reused for the whole session
+    private String sendCommand(String command) throws IOException
+    {
+        if (client == null || client.isClosed())
+        {
+            client = new Socket(HOST, PORT);
 
-                var serverWriter = new PrintWriter(client.getOutputStream(), true);
+            serverWriter = new PrintWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8), true);
 
-                var serverReader = new BufferedReader(new InputStreamReader(client.getInputStream()))
-        )
+            serverInput = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+        }
+
+        try
         {
+            if (!compressionRequested)
+            {
+                // Large listings then come gzipped; the answer to this needs no showing
+                serverWriter.println("COMPRESS GZIP");
+
+                readResponse(serverInput);
+
+                compressionRequested = true;
+            }
+
             serverWriter.println(command);
 
-            var response = serverReader.readLine();
+            return readResponse(serverInput);
+        }
+        catch (IOException e)
+        {
+            // Drop the broken connection so the next command reconnects
+            closeConnection();
 
-            System.out.println(response);
+            throw e;
+        }
+    }
+
+    // Responses end with an empty line; a compressed one is announced by "COMPRESSED <gzip|deflate> <length>"
+    private static String readResponse(DataInputStream input) throws IOException
+    {
+        var line = readLine(input);
+
+        if (line != null && line.startsWith("COMPRESSED "))
+        {
+            var parts = line.split(" ");
+
+            var compressed = new byte[Integer.parseInt(parts[2])];
+
+            input.readFully(compressed);
+
+            var bytes = new ByteArrayInputStream(compressed);
+
+            input = new DataInputStream(new BufferedInputStream(parts[1].equals("gzip") ? new GZIPInputStream(bytes) : new InflaterInputStream(bytes)));
+
+            line = readLine(input);
+        }
+
+        var response = new StringBuilder();
+
+        while (line != null && !line.isEmpty())
+        {
+            response.append(line).append("\n");
+
+            line = readLine(input);
+        }
+
+        if (line == null)
+        {
+            throw new IOException("Connection closed by server");
+        }
+
+        return response.toString().trim();
+    }
+
+    // One UTF-8 line without its line end, or null at the end of the stream. Reads byte by byte (from a
+    // buffered stream) so no bytes past the line are consumed, compressed data may follow it.
+    private static String readLine(DataInputStream input) throws IOException
+    {
+        var line = new ByteArrayOutputStream();
+
+        int b;
+
+        while ((b = input.read()) != -1 && b != '\n')
+        {
+            line.write(b);
+        }
+
+        if (b == -1 && line.size() == 0)
+        {
+            return null;
+        }
+
+        var text = line.toString(StandardCharsets.UTF_8);
+
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+
+    private void closeConnection()
+    {
+        try
+        {
+            if (client != null && !client.isClosed())
+            {
+                client.close();
+            }
         }
         catch (IOException e)
         {
-            System.out.println("Error connecting to server: " + e.getMessage());
+            System.out.println("Client error = " + e.getMessage());
         }
+
+        client = null;
+
+        compressionRequested = false;
     }
 
     private void showUserInterface()
@@ -212,6 +338,8 @@ public class Client
 
             System.out.println("- LIST BOOKINGS");
 
+            System.out.println("- CANCEL <TRANSACTIONID>");
+
             System.out.println("- HELP");
 
             System.out.println("- EXIT");
@@ -222,7 +350,7 @@ public class Client
 
             if(!command.startsWith("HELP") && !command.startsWith("EXIT"))
             {
-                command += " " + username + " " + password;
+                command += " " + credentials;
             }
 
             if (command.equalsIgnoreCase("EXIT"))
@@ -289,6 +417,12 @@ public class Client
 
             System.out.println("- REMOVE BOOKING <BOOKINGID>");
 
+            System.out.println("- CANCEL <TRANSACTIONID>");
+
+            System.out.println("--- Server ---");
+
+            System.out.println("- STATS");
+
             System.out.println("--- Other ---");
 
             System.out.println("- HELP");
@@ -301,7 +435,7 @@ public class Client
 
             if(!command.startsWith("CREATE USER") && !command.startsWith("HELP") && !command.startsWith("EXIT"))
             {
-                command += " " + username + " " + password;
+                command += " " + credentials;
             }
 
             if (command.equalsIgnoreCase("EXIT"))
@@ -395,6 +529,16 @@ public class Client
             System.out.println("REMOVE BOOKING <BOOKINGID>");
 
             System.out.println("  - Removes an existing booking");
+
+            System.out.println("CANCEL <TRANSACTIONID>");
+
+            System.out.println("  - Removes every booking of one transaction");
+
+            System.out.println("\n--- Server ---");
+
+            System.out.println("STATS");
+
+            System.out.println("  - Shows admission and load shedding counters");
         }
         else
         {
@@ -415,6 +559,10 @@ public class Client
             System.out.println("LIST BOOKINGS <USERNAME> <USERPASS>");
 
             System.out.println("  - Lists all your bookings");
+
+            System.out.println("CANCEL <TRANSACTIONID> <USERNAME> <USERPASS>");
+
+            System.out.println("  - Cancels all rooms booked together in one of your transactions");
         }
 
         System.out.println("\n--- Other Commands ---");
@@ -434,32 +582,9 @@ public class Client
             command = formatDateTimeInCommand(command);
         }
 
-        try (
-                var client = new Socket(HOST, PORT);
-
-                var serverWriter = new PrintWriter(client.getOutputStream(), true);
-
-                var serverReader = new BufferedReader(new InputStreamReader(client.getInputStream()))
-        )
+        try
         {
-            serverWriter.println(command);
-
-            // Read all lines of the response
-            var response = new StringBuilder();
-
-            var line = "";
-
-            while ((line = serverReader.readLine()) != null)
-            {
-                response.append(line).append("\n");
-
-                if (line.isEmpty())
-                {
-                    break;
-                }
-            }
-
-            System.out.println(response); // TODO : why to string explixit call?
+            System.out.println(sendCommand(command));
         }
         catch (IOException e)
         {
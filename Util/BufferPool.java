@@ -0,0 +1,57 @@
+package src.Util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Direct buffers of one fixed size, shared by every thread that writes responses. Allocating a direct
+// buffer is expensive and its memory is only returned by the GC, so buffers are reused instead.
+public class BufferPool
+{
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    // Upper bound on idle buffers kept around, 16MB; anything released beyond this is left to the GC
+    private static final int MAX_POOLED = 256;
+
+    private static final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private static final LongAdder allocated = Metrics.counter("buffers.allocated");
+
+    private BufferPool() {}
+
+    public static ByteBuffer acquire()
+    {
+        var buffer = free.poll();
+
+        if (buffer == null)
+        {
+            allocated.increment();
+
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+
+        pooled.decrementAndGet();
+
+        return buffer.clear();
+    }
+
+    public static void release(ByteBuffer buffer)
+    {
+        if (!buffer.isDirect() || buffer.capacity() != BUFFER_SIZE)
+        {
+            return;
+        }
+
+        if (pooled.incrementAndGet() > MAX_POOLED)
+        {
+            pooled.decrementAndGet();
+
+            return;
+        }
+
+        free.offer(buffer.clear());
+    }
+}
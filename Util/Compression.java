@@ -0,0 +1,32 @@
+package src.Util;
+
+import java.util.Locale;
+
+// Response compression a text protocol client can ask for with COMPRESS <GZIP|DEFLATE|NONE>.
+// A compressed response is sent as the line "COMPRESSED <gzip|deflate> <length>" followed by exactly
+// length bytes, which decompress to the usual response including its closing empty line.
+public enum Compression
+{
+    NONE, GZIP, DEFLATE;
+
+    // Responses that fit in one pooled buffer are not worth compressing
+    public static final int THRESHOLD = BufferPool.BUFFER_SIZE;
+
+    // Null for anything that is not a known name
+    public static Compression parse(String name)
+    {
+        try
+        {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        }
+        catch (IllegalArgumentException e)
+        {
+            return null;
+        }
+    }
+
+    public String token()
+    {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
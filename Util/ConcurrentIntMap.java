@@ -0,0 +1,358 @@
+package src.Util;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Concurrent map from int to V without boxing: open addressing with linear probing over plain int keys.
+// The table is split into segments; writers lock one segment, readers never lock. A slot's key is written
+// once and never moved while its table is in use, removal only clears the value, and a segment that fills
+// up is rehashed into a new table that replaces the old one in a single volatile write. So a reader always
+// probes a table that is consistent in itself, at worst one that a concurrent write has just replaced.
+// Iteration is weakly consistent, like ConcurrentHashMap's, and in ascending key order as long as the keys
+// are dense, as ids handed out one after another are. Integer.MIN_VALUE cannot be used as a key.
+public class ConcurrentIntMap<V>
+{
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    private static final int SEGMENT_BITS = 4;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final Segment<V>[] segments;
+
+    public ConcurrentIntMap()
+    {
+        @SuppressWarnings("unchecked")
+        Segment<V>[] created = (Segment<V>[]) new Segment<?>[1 << SEGMENT_BITS];
+
+        segments = created;
+
+        for (var i = 0; i < segments.length; i++)
+        {
+            segments[i] = new Segment<>();
+        }
+    }
+
+    public V get(int key)
+    {
+        var hash = hash(key);
+
+        return segmentFor(hash).get(key, hash);
+    }
+
+    public boolean containsKey(int key)
+    {
+        return get(key) != null;
+    }
+
+    // Returns the previous value, null if there was none
+    public V put(int key, V value)
+    {
+        if (key == EMPTY || value == null)
+        {
+            throw new IllegalArgumentException(value == null ? "null value" : "reserved key " + key);
+        }
+
+        var hash = hash(key);
+
+        return segmentFor(hash).put(key, hash, value);
+    }
+
+    // Returns the removed value, null if there was none
+    public V remove(int key)
+    {
+        var hash = hash(key);
+
+        return segmentFor(hash).remove(key, hash);
+    }
+
+    public int size()
+    {
+        var size = 0;
+
+        for (var segment : segments)
+        {
+            size += segment.size;
+        }
+
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        for (var segment : segments)
+        {
+            if (segment.size > 0)
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // Live view in no particular order; sized, so it can be copied with new ArrayList<>(map.values())
+    public AbstractCollection<V> values()
+    {
+        return new AbstractCollection<>()
+        {
+            @Override
+            public Iterator<V> iterator()
+            {
+                return new ValueIterator();
+            }
+
+            @Override
+            public int size()
+            {
+                return ConcurrentIntMap.this.size();
+            }
+        };
+    }
+
+    // Tuned for sequential ids: the low bits pick the segment and the rest is the slot as is, so consecutive
+    // ids go to different segments and never collide within one
+    private static int hash(int key)
+    {
+        return key;
+    }
+
+    private Segment<V> segmentFor(int hash)
+    {
+        return segments[hash & (segments.length - 1)];
+    }
+
+    private static final class Table<V>
+    {
+        private final int[] keys;
+
+        // Written after the key, read with volatile semantics, so a reader that finds a value sees its key
+        private final AtomicReferenceArray<V> values;
+
+        private final int mask;
+
+        private Table(int capacity)
+        {
+            keys = new int[capacity];
+
+            Arrays.fill(keys, EMPTY);
+
+            values = new AtomicReferenceArray<>(capacity);
+
+            mask = capacity - 1;
+        }
+
+        // Slot holding key, or the empty slot where probing for it ended
+        private int find(int key, int hash)
+        {
+            var slot = (hash >>> SEGMENT_BITS) & mask;
+
+            while (keys[slot] != key && keys[slot] != EMPTY)
+            {
+                slot = (slot + 1) & mask;
+            }
+
+            return slot;
+        }
+    }
+
+    private static final class Segment<V>
+    {
+        private volatile Table<V> table = new Table<>(MIN_CAPACITY);
+
+        private volatile int size = 0;
+
+        // Slots with a key, including those whose value was removed; these count towards the load factor
+        private int used = 0;
+
+        private V get(int key, int hash)
+        {
+            // Every new key is followed by a write of size, so reading it first makes the keys written so far visible
+            if (size == 0)
+            {
+                return null;
+            }
+
+            var current = table;
+
+            var slot = current.find(key, hash);
+
+            return current.keys[slot] == key ? current.values.get(slot) : null;
+        }
+
+        private synchronized V put(int key, int hash, V value)
+        {
+            var current = table;
+
+            var slot = current.find(key, hash);
+
+            if (current.keys[slot] == key)
+            {
+                var previous = current.values.getAndSet(slot, value);
+
+                if (previous == null)
+                {
+                    size++;
+                }
+
+                return previous;
+            }
+
+            // Keep at least a quarter of the slots empty so probes stay short and always end
+            if ((used + 1) * 4 > current.keys.length * 3)
+            {
+                current = rehash(current);
+
+                slot = current.find(key, hash);
+            }
+
+            current.keys[slot] = key;
+
+            current.values.set(slot, value);
+
+            used++;
+
+            size++;
+
+            return null;
+        }
+
+        private synchronized V remove(int key, int hash)
+        {
+            var current = table;
+
+            var slot = current.find(key, hash);
+
+            if (current.keys[slot] != key)
+            {
+                return null;
+            }
+
+            var previous = current.values.getAndSet(slot, null);
+
+            if (previous != null)
+            {
+                size--;
+            }
+
+            return previous;
+        }
+
+        // Copies the live entries into a table sized for them, dropping the keys of removed values
+        private Table<V> rehash(Table<V> old)
+        {
+            var capacity = MIN_CAPACITY;
+
+            while ((size + 1) * 2 > capacity)
+            {
+                capacity <<= 1;
+            }
+
+            var fresh = new Table<V>(capacity);
+
+            for (var slot = 0; slot < old.keys.length; slot++)
+            {
+                var value = old.values.get(slot);
+
+                if (value != null)
+                {
+                    var key = old.keys[slot];
+
+                    var target = fresh.find(key, hash(key));
+
+                    fresh.keys[target] = key;
+
+                    fresh.values.set(target, value);
+                }
+            }
+
+            used = size;
+
+            // Publishes the filled table, readers either see the old one or all of this one
+            table = fresh;
+
+            return fresh;
+        }
+    }
+
+    // Walks the tables row by row across the segments, which visits dense ids in ascending order
+    private final class ValueIterator implements Iterator<V>
+    {
+        private final Table<V>[] tables;
+
+        private final int rows;
+
+        private int row = 0;
+
+        private int segment = 0;
+
+        private V next;
+
+        private ValueIterator()
+        {
+            @SuppressWarnings("unchecked")
+            Table<V>[] current = (Table<V>[]) new Table<?>[segments.length];
+
+            tables = current;
+
+            var longest = 0;
+
+            for (var i = 0; i < segments.length; i++)
+            {
+                tables[i] = segments[i].table;
+
+                longest = Math.max(longest, tables[i].keys.length);
+            }
+
+            rows = longest;
+
+            advance();
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return next != null;
+        }
+
+        @Override
+        public V next()
+        {
+            if (next == null)
+            {
+                throw new NoSuchElementException();
+            }
+
+            var value = next;
+
+            advance();
+
+            return value;
+        }
+
+        private void advance()
+        {
+            next = null;
+
+            while (next == null && row < rows)
+            {
+                var table = tables[segment];
+
+                if (row < table.keys.length)
+                {
+                    next = table.values.get(row);
+                }
+
+                if (++segment == tables.length)
+                {
+                    segment = 0;
+
+                    row++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package src.Util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Ids of every model, one atomic sequence per kind, so concurrent CREATE and BOOK never get the same id and
+// taking one is a single getAndAdd. reserve() hands out a run of ids at once for a multi-room BOOK.
+//
+// With configure() the sequences continue after a restart: ids are handed out below a ceiling per sequence,
+// and a ceiling is written to the file before any id under it is returned. Crossing a ceiling raises it a
+// block at a time, so the file is written once per BLOCK ids; a restart skips what was left of the blocks.
+// Without a file the sequences start at 1 on every run, as before.
+public final class IdAllocator
+{
+    public enum Sequence
+    {
+        USER,
+
+        HOTEL,
+
+        ROOM,
+
+        BOOKING,
+
+        TRANSACTION
+    }
+
+    private static final int BLOCK = 1024;
+
+    private static final Sequence[] SEQUENCES = Sequence.values();
+
+    // Next id of each sequence
+    private static final AtomicInteger[] next = new AtomicInteger[SEQUENCES.length];
+
+    // Ids below these are on record in the file, or may be handed out freely when there is none
+    private static final AtomicIntegerArray ceilings = new AtomicIntegerArray(SEQUENCES.length);
+
+    private static Path file;
+
+    static
+    {
+        for (var i = 0; i < SEQUENCES.length; i++)
+        {
+            next[i] = new AtomicInteger(1);
+
+            ceilings.set(i, Integer.MAX_VALUE);
+        }
+    }
+
+    private IdAllocator() {}
+
+    public static int next(Sequence sequence)
+    {
+        return reserve(sequence, 1);
+    }
+
+    // The first of count consecutive ids
+    public static int reserve(Sequence sequence, int count)
+    {
+        var i = sequence.ordinal();
+
+        var first = next[i].getAndAdd(count);
+
+        var last = first + count - 1;
+
+        if (last >= ceilings.get(i))
+        {
+            raiseCeiling(i, last);
+        }
+
+        return first;
+    }
+
+    // Moves the sequence past an id that is in use already, e.g. one replayed from the write-ahead log
+    public static void advance(Sequence sequence, int used)
+    {
+        next[sequence.ordinal()].accumulateAndGet(used + 1, Math::max);
+    }
+
+    // Keeps the high-water marks in file from now on, continuing from the marks already in it. Called at
+    // startup before anything is created.
+    public static synchronized void configure(Path path) throws IOException
+    {
+        if (Files.exists(path))
+        {
+            for (var line : Files.readAllLines(path, StandardCharsets.UTF_8))
+            {
+                var separator = line.indexOf('=');
+
+                if (separator == -1)
+                {
+                    continue;
+                }
+
+                var i = Sequence.valueOf(line.substring(0, separator).trim()).ordinal();
+
+                next[i].set(Math.max(next[i].get(), Integer.parseInt(line.substring(separator + 1).trim())));
+            }
+        }
+
+        file = path;
+
+        // Nothing past the current ids is on record yet, the first id of every sequence writes the file
+        for (var i = 0; i < SEQUENCES.length; i++)
+        {
+            ceilings.set(i, next[i].get());
+        }
+
+        System.out.println("Ids continue from " + path + " " + describe());
+    }
+
+    // Threads below the ceiling never get here; those above it wait until the new one is on disk
+    private static synchronized void raiseCeiling(int i, int last)
+    {
+        if (last < ceilings.get(i))
+        {
+            return;
+        }
+
+        var ceiling = last + 1 + BLOCK;
+
+        try
+        {
+            write(i, ceiling);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Could not record ids in " + file, e);
+        }
+
+        ceilings.set(i, ceiling);
+    }
+
+    // Replaces the file in one rename, so a crash leaves either the old marks or the new ones
+    private static void write(int raised, int ceiling) throws IOException
+    {
+        var text = new StringBuilder();
+
+        for (var i = 0; i < SEQUENCES.length; i++)
+        {
+            text.append(SEQUENCES[i].name()).append('=').append(i == raised ? ceiling : ceilings.get(i)).append('\n');
+        }
+
+        var temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (var channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            channel.write(ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8)));
+
+            channel.force(true);
+        }
+
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String describe()
+    {
+        var text = new StringBuilder("[");
+
+        for (var i = 0; i < SEQUENCES.length; i++)
+        {
+            text.append(i == 0 ? "" : ", ").append(SEQUENCES[i].name()).append(' ').append(next[i].get());
+        }
+
+        return text.append("]").toString();
+    }
+}
@@ -0,0 +1,184 @@
+package src.Util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+// Writes JSON token by token straight to the output, so a long array never exists as one String.
+// Commas are placed automatically; nesting is the caller's job, there is no validation beyond that.
+public class JsonWriter
+{
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer out;
+
+    // Per nesting level: whether a value was already written there and the next one needs a comma
+    private boolean[] hasValue = new boolean[16];
+
+    private int depth = 0;
+
+    // Set by name(), the value that follows belongs to it and takes no comma
+    private boolean afterName = false;
+
+    public JsonWriter(Writer out)
+    {
+        this.out = out;
+    }
+
+    public JsonWriter beginObject() throws IOException
+    {
+        return open('{');
+    }
+
+    public JsonWriter endObject() throws IOException
+    {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() throws IOException
+    {
+        return open('[');
+    }
+
+    public JsonWriter endArray() throws IOException
+    {
+        return close(']');
+    }
+
+    public JsonWriter name(String name) throws IOException
+    {
+        separate();
+
+        string(name);
+
+        out.write(':');
+
+        afterName = true;
+
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException
+    {
+        if (value == null)
+        {
+            return nullValue();
+        }
+
+        separate();
+
+        string(value);
+
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException
+    {
+        separate();
+
+        out.write(Long.toString(value));
+
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException
+    {
+        separate();
+
+        out.write(value ? "true" : "false");
+
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException
+    {
+        separate();
+
+        out.write("null");
+
+        return this;
+    }
+
+    public void flush() throws IOException
+    {
+        out.flush();
+    }
+
+    private JsonWriter open(char bracket) throws IOException
+    {
+        separate();
+
+        out.write(bracket);
+
+        if (++depth == hasValue.length)
+        {
+            hasValue = Arrays.copyOf(hasValue, depth * 2);
+        }
+
+        hasValue[depth] = false;
+
+        return this;
+    }
+
+    private JsonWriter close(char bracket) throws IOException
+    {
+        depth--;
+
+        out.write(bracket);
+
+        return this;
+    }
+
+    private void separate() throws IOException
+    {
+        if (afterName)
+        {
+            afterName = false;
+
+            return;
+        }
+
+        if (hasValue[depth])
+        {
+            out.write(',');
+        }
+
+        hasValue[depth] = true;
+    }
+
+    private void string(String value) throws IOException
+    {
+        out.write('"');
+
+        for (var i = 0; i < value.length(); i++)
+        {
+            var c = value.charAt(i);
+
+            switch (c)
+            {
+                case '"' -> out.write("\\\"");
+                case '\\' -> out.write("\\\\");
+                case '\n' -> out.write("\\n");
+                case '\r' -> out.write("\\r");
+                case '\t' -> out.write("\\t");
+                default ->
+                {
+                    if (c < 0x20)
+                    {
+                        out.write("\\u00");
+
+                        out.write(HEX[c >> 4]);
+
+                        out.write(HEX[c & 0xF]);
+                    }
+                    else
+                    {
+                        out.write(c);
+                    }
+                }
+            }
+        }
+
+        out.write('"');
+    }
+}
@@ -0,0 +1,168 @@
+package src.Util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Fixed-width int and long columns addressed by a dense int row number, kept outside the Java heap in
+// memory-mapped segments of a scratch file. A segment holds SEGMENT_ROWS rows with each column contiguous in
+// it, and segments are added as rows further out are written. The file is deleted when the columns are
+// closed or the process ends, so the pages are only the OS's to write out and read back under pressure.
+// Rows nobody wrote read as 0.
+//
+// One thread writes at a time. Readers learn of a row through a release/acquire pair, e.g. a column that
+// marks the row in use written last with putIntRelease and read first with getIntAcquire.
+public final class MappedColumns implements Closeable
+{
+    private static final int SEGMENT_BITS = 20;
+
+    private static final int SEGMENT_ROWS = 1 << SEGMENT_BITS;
+
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final FileChannel channel;
+
+    private final int[] widths;
+
+    // Where each column starts within a segment
+    private final int[] starts;
+
+    private final int segmentBytes;
+
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    // widths are 4 for an int column and 8 for a long one
+    public MappedColumns(Path directory, String name, int... widths) throws IOException
+    {
+        this.widths = widths.clone();
+
+        this.starts = new int[widths.length];
+
+        var bytes = 0L;
+
+        for (var i = 0; i < widths.length; i++)
+        {
+            if (widths[i] != Integer.BYTES && widths[i] != Long.BYTES)
+            {
+                throw new IllegalArgumentException("Column width " + widths[i]);
+            }
+
+            starts[i] = (int) bytes;
+
+            bytes += (long) widths[i] * SEGMENT_ROWS;
+        }
+
+        if (bytes > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("Rows too wide for one segment");
+        }
+
+        this.segmentBytes = (int) bytes;
+
+        var file = Files.createTempFile(directory, name + "-", ".columns");
+
+        this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    // Rows below this can be read and written
+    public long capacity()
+    {
+        return (long) segments.length << SEGMENT_BITS;
+    }
+
+    // Maps segments up to the one holding row; the writer calls it before writing a row further out
+    public void ensure(int row)
+    {
+        if (row >= capacity())
+        {
+            grow(row);
+        }
+    }
+
+    // Several loading threads may ask at once, so unlike the puts this is safe to call concurrently
+    private synchronized void grow(int row)
+    {
+        var current = segments;
+
+        var needed = (row >>> SEGMENT_BITS) + 1;
+
+        if (needed <= current.length)
+        {
+            return;
+        }
+
+        var grown = Arrays.copyOf(current, needed);
+
+        try
+        {
+            for (var i = current.length; i < needed; i++)
+            {
+                grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * segmentBytes, segmentBytes);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Could not map column segment", e);
+        }
+
+        segments = grown;
+    }
+
+    public int getInt(int column, int row)
+    {
+        return (int) INTS.get(segments[row >>> SEGMENT_BITS], offset(column, row));
+    }
+
+    public int getIntAcquire(int column, int row)
+    {
+        return (int) INTS.getAcquire(segments[row >>> SEGMENT_BITS], offset(column, row));
+    }
+
+    public void putInt(int column, int row, int value)
+    {
+        INTS.set(segments[row >>> SEGMENT_BITS], offset(column, row), value);
+    }
+
+    public void putIntRelease(int column, int row, int value)
+    {
+        INTS.setRelease(segments[row >>> SEGMENT_BITS], offset(column, row), value);
+    }
+
+    public long getLong(int column, int row)
+    {
+        return (long) LONGS.get(segments[row >>> SEGMENT_BITS], offset(column, row));
+    }
+
+    public void putLong(int column, int row, long value)
+    {
+        LONGS.set(segments[row >>> SEGMENT_BITS], offset(column, row), value);
+    }
+
+    // Bytes mapped so far
+    public long mappedBytes()
+    {
+        return (long) segments.length * segmentBytes;
+    }
+
+    private int offset(int column, int row)
+    {
+        return starts[column] + (row & (SEGMENT_ROWS - 1)) * widths[column];
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+}
@@ -0,0 +1,112 @@
+package src.Util;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Named process-wide counters and rates, reported to admins by the STATS command
+public class Metrics
+{
+    private static final ConcurrentSkipListMap<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+
+    private static final ConcurrentSkipListMap<String, Rate> rates = new ConcurrentSkipListMap<>();
+
+    private Metrics() {}
+
+    public static LongAdder counter(String name)
+    {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    public static Rate rate(String name)
+    {
+        return rates.computeIfAbsent(name, key -> new Rate());
+    }
+
+    public static String render()
+    {
+        if (counters.isEmpty() && rates.isEmpty())
+        {
+            return "404 📊 No statistics recorded yet";
+        }
+
+        var response = new StringBuilder("200 📊 Statistics:\n");
+
+        for (var entry : counters.entrySet())
+        {
+            response.append("  ").append(entry.getKey()).append(": ").append(entry.getValue().sum()).append("\n");
+        }
+
+        for (var entry : rates.entrySet())
+        {
+            var rate = entry.getValue();
+
+            response.append("  ").append(entry.getKey()).append(": ")
+                    .append(String.format(Locale.ROOT, "%.0f/s last second, %.1f/s last minute", rate.perSecond(1), rate.perSecond(Rate.SECONDS)))
+                    .append("\n");
+        }
+
+        return response.toString();
+    }
+
+    // Events per second, counted in one slot per second for the last minute
+    public static final class Rate
+    {
+        static final int SECONDS = 60;
+
+        private final AtomicLongArray counts = new AtomicLongArray(SECONDS);
+
+        // The second each slot currently counts
+        private final AtomicLongArray seconds = new AtomicLongArray(SECONDS);
+
+        private Rate() {}
+
+        public void mark()
+        {
+            var now = now();
+
+            var slot = slot(now);
+
+            var counting = seconds.get(slot);
+
+            // The first mark of a new second takes the slot over; a mark racing with that may get lost
+            if (counting != now && seconds.compareAndSet(slot, counting, now))
+            {
+                counts.set(slot, 0);
+            }
+
+            counts.incrementAndGet(slot);
+        }
+
+        // Average over the last full seconds, the current one is still being counted
+        public double perSecond(int span)
+        {
+            var now = now();
+
+            var sum = 0L;
+
+            for (var second = now - span; second < now; second++)
+            {
+                var slot = slot(second);
+
+                if (seconds.get(slot) == second)
+                {
+                    sum += counts.get(slot);
+                }
+            }
+
+            return (double) sum / span;
+        }
+
+        private static long now()
+        {
+            return System.nanoTime() / 1_000_000_000L;
+        }
+
+        private static int slot(long second)
+        {
+            return (int) Math.floorMod(second, (long) SECONDS);
+        }
+    }
+}
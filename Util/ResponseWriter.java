@@ -0,0 +1,434 @@
+package src.Util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Builds a response directly as UTF-8 in pooled direct buffers, so a listing of thousands of rows is
+// encoded once and handed to the socket as is, without a StringBuilder, a String and a byte[] copy of it.
+// Fixed text such as field labels should be encoded once with constant() and appended as bytes.
+//
+// With compression, a response that outgrows its first buffer is compressed from then on: every time the
+// buffer being written fills up it is deflated into the output buffers and reused, so the uncompressed
+// response never exists in full.
+// Not thread safe; one writer builds one response.
+public class ResponseWriter
+{
+    // Fixed gzip member header: magic, deflate, no flags, no mtime, no extra flags, unknown OS
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private static final byte[] NO_INPUT = new byte[0];
+
+    private static final LongAdder compressedIn = Metrics.counter("compression.bytesIn");
+
+    private static final LongAdder compressedOut = Metrics.counter("compression.bytesOut");
+
+    private final ArrayList<ByteBuffer> buffers = new ArrayList<>();
+
+    // Where appends go: the last of buffers, or once compressing, a staging buffer outside of them
+    private ByteBuffer current;
+
+    private final byte[] digits = new byte[20];
+
+    private final Compression compression;
+
+    // Set once the response outgrew its first buffer and is being compressed
+    private Deflater deflater;
+
+    private final CRC32 crc = new CRC32();
+
+    private long uncompressedSize = 0;
+
+    public ResponseWriter()
+    {
+        this(0, Compression.NONE);
+    }
+
+    // Leaves the first reserved bytes free, for a protocol header that is filled in once the size is known
+    public ResponseWriter(int reserved)
+    {
+        this(reserved, Compression.NONE);
+    }
+
+    // Compression is meant for writers without reserved bytes, a compressed header cannot be patched
+    public ResponseWriter(int reserved, Compression compression)
+    {
+        this.compression = compression;
+
+        next();
+
+        current.position(reserved);
+    }
+
+    public static byte[] constant(String text)
+    {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public ResponseWriter append(byte[] bytes)
+    {
+        var offset = 0;
+
+        while (offset < bytes.length)
+        {
+            if (!current.hasRemaining())
+            {
+                next();
+            }
+
+            var length = Math.min(current.remaining(), bytes.length - offset);
+
+            current.put(bytes, offset, length);
+
+            offset += length;
+        }
+
+        return this;
+    }
+
+    public ResponseWriter append(String text)
+    {
+        for (var i = 0; i < text.length(); i++)
+        {
+            var c = text.charAt(i);
+
+            if (c < 0x80)
+            {
+                ensure(1);
+
+                current.put((byte) c);
+            }
+            else if (c < 0x800)
+            {
+                ensure(2);
+
+                current.put((byte) (0xC0 | c >> 6));
+
+                current.put((byte) (0x80 | c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1)))
+            {
+                var codePoint = Character.toCodePoint(c, text.charAt(++i));
+
+                ensure(4);
+
+                current.put((byte) (0xF0 | codePoint >> 18));
+
+                current.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+
+                current.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+
+                current.put((byte) (0x80 | codePoint & 0x3F));
+            }
+            else if (Character.isSurrogate(c))
+            {
+                // Unpaired surrogate, same replacement String.getBytes would use
+                ensure(1);
+
+                current.put((byte) '?');
+            }
+            else
+            {
+                ensure(3);
+
+                current.put((byte) (0xE0 | c >> 12));
+
+                current.put((byte) (0x80 | c >> 6 & 0x3F));
+
+                current.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+
+        return this;
+    }
+
+    public ResponseWriter append(char c)
+    {
+        if (c >= 0x80)
+        {
+            return append(String.valueOf(c));
+        }
+
+        ensure(1);
+
+        current.put((byte) c);
+
+        return this;
+    }
+
+    public ResponseWriter append(long value)
+    {
+        return appendPadded(value, 1);
+    }
+
+    // Decimal digits of value, left padded with zeros to at least width digits (used for dates)
+    public ResponseWriter appendPadded(long value, int width)
+    {
+        if (value < 0)
+        {
+            if (value == Long.MIN_VALUE)
+            {
+                return append(Long.toString(value));
+            }
+
+            ensure(1);
+
+            current.put((byte) '-');
+
+            value = -value;
+        }
+
+        var start = digits.length;
+
+        do
+        {
+            digits[--start] = (byte) ('0' + value % 10);
+
+            value /= 10;
+        }
+        while (value > 0);
+
+        while (digits.length - start < width)
+        {
+            digits[--start] = '0';
+        }
+
+        ensure(digits.length - start);
+
+        current.put(digits, start, digits.length - start);
+
+        return this;
+    }
+
+    // Appends text without its trailing newlines and ends it with exactly one
+    public ResponseWriter line(String text)
+    {
+        var end = text.length();
+
+        while (end > 0 && text.charAt(end - 1) == '\n')
+        {
+            end--;
+        }
+
+        return append(end == text.length() ? text : text.substring(0, end)).append('\n');
+    }
+
+    // True once the output is compressed; known for sure only after finish
+    public boolean isCompressed()
+    {
+        return deflater != null;
+    }
+
+    public Compression compression()
+    {
+        return compression;
+    }
+
+    // Flips the buffers for reading; they go back to the pool once written, see release
+    public ByteBuffer[] finish()
+    {
+        if (deflater != null)
+        {
+            finishCompressing();
+        }
+
+        for (var buffer : buffers)
+        {
+            buffer.flip();
+        }
+
+        return buffers.toArray(new ByteBuffer[0]);
+    }
+
+    // Copies everything written so far into a String and releases the buffers, for callers without a socket.
+    // Only for writers without compression.
+    public String toText()
+    {
+        var bytes = new byte[size()];
+
+        var offset = 0;
+
+        for (var buffer : finish())
+        {
+            var length = buffer.remaining();
+
+            buffer.get(bytes, offset, length);
+
+            offset += length;
+        }
+
+        release();
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Bytes written so far, including the reserved ones; only meaningful before finish
+    public int size()
+    {
+        var size = 0;
+
+        for (var buffer : buffers)
+        {
+            size += buffer.position();
+        }
+
+        return size;
+    }
+
+    // Gives the buffers back without sending them, e.g. when building the response failed halfway
+    public void release()
+    {
+        for (var buffer : buffers)
+        {
+            BufferPool.release(buffer);
+        }
+
+        if (deflater != null && current != null)
+        {
+            BufferPool.release(current);
+
+            deflater.end();
+        }
+    }
+
+    public static void release(ByteBuffer[] buffers)
+    {
+        for (var buffer : buffers)
+        {
+            BufferPool.release(buffer);
+        }
+    }
+
+    private void ensure(int bytes)
+    {
+        if (current.remaining() < bytes)
+        {
+            next();
+        }
+    }
+
+    private void next()
+    {
+        // A character never straddles two buffers, the rest of a buffer too small for it stays unused
+        if (deflater != null)
+        {
+            compress();
+
+            return;
+        }
+
+        if (current != null && compression != Compression.NONE)
+        {
+            startCompressing();
+
+            return;
+        }
+
+        current = BufferPool.acquire();
+
+        buffers.add(current);
+    }
+
+    // ==== Compression ====
+
+    private void startCompressing()
+    {
+        // GZIP writes its own header and trailer around raw deflate data, DEFLATE is the zlib format
+        deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, compression == Compression.GZIP);
+
+        // The full first buffer becomes the staging buffer, the output starts over
+        buffers.clear();
+
+        buffers.add(BufferPool.acquire());
+
+        if (compression == Compression.GZIP)
+        {
+            output().put(GZIP_HEADER);
+        }
+
+        compress();
+    }
+
+    private void compress()
+    {
+        current.flip();
+
+        uncompressedSize += current.remaining();
+
+        if (compression == Compression.GZIP)
+        {
+            crc.update(current.duplicate());
+        }
+
+        deflater.setInput(current);
+
+        while (!deflater.needsInput())
+        {
+            deflater.deflate(output());
+        }
+
+        // The deflater keeps the buffer as its input, cleared it would look unread again
+        deflater.setInput(NO_INPUT);
+
+        current.clear();
+    }
+
+    private void finishCompressing()
+    {
+        compress();
+
+        deflater.finish();
+
+        while (!deflater.finished())
+        {
+            deflater.deflate(output());
+        }
+
+        deflater.end();
+
+        BufferPool.release(current);
+
+        current = null;
+
+        if (compression == Compression.GZIP)
+        {
+            // Trailer: CRC-32 and size of the uncompressed data, little-endian
+            for (var value : new long[] {crc.getValue(), uncompressedSize})
+            {
+                for (var shift = 0; shift < 32; shift += 8)
+                {
+                    output().put((byte) (value >>> shift));
+                }
+            }
+        }
+
+        var size = 0L;
+
+        for (var buffer : buffers)
+        {
+            size += buffer.position();
+        }
+
+        compressedIn.add(uncompressedSize);
+
+        compressedOut.add(size);
+    }
+
+    // The output buffer compressed data goes to, with room for at least one more byte
+    private ByteBuffer output()
+    {
+        var output = buffers.get(buffers.size() - 1);
+
+        if (!output.hasRemaining())
+        {
+            output = BufferPool.acquire();
+
+            buffers.add(output);
+        }
+
+        return output;
+    }
+}
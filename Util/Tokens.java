@@ -0,0 +1,227 @@
+package src.Util;
+
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+
+// The words of one command line, found in a single pass and kept as offsets into the line instead of
+// one String each. Numbers and dates are parsed straight from the line; text() allocates a String for
+// the arguments that really need one, such as a username used as a map key.
+// Not thread safe; reset() reuses the instance for the next line.
+public final class Tokens
+{
+    private CharSequence line;
+
+    private int[] starts = new int[16];
+
+    private int[] ends = new int[16];
+
+    private int count;
+
+    public Tokens reset(CharSequence line)
+    {
+        this.line = line;
+
+        count = 0;
+
+        var length = line.length();
+
+        var i = 0;
+
+        while (i < length)
+        {
+            // Any run of blanks separates two words, leading and trailing ones are ignored
+            while (i < length && Character.isWhitespace(line.charAt(i)))
+            {
+                i++;
+            }
+
+            if (i == length)
+            {
+                break;
+            }
+
+            var start = i;
+
+            while (i < length && !Character.isWhitespace(line.charAt(i)))
+            {
+                i++;
+            }
+
+            if (count == starts.length)
+            {
+                starts = Arrays.copyOf(starts, count * 2);
+
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+
+            starts[count] = start;
+
+            ends[count] = i;
+
+            count++;
+        }
+
+        return this;
+    }
+
+    public int count()
+    {
+        return count;
+    }
+
+    public int length(int index)
+    {
+        check(index);
+
+        return ends[index] - starts[index];
+    }
+
+    public char charAt(int index, int offset)
+    {
+        return line.charAt(starts[index] + offset);
+    }
+
+    public boolean is(int index, String word)
+    {
+        if (index >= count || length(index) != word.length())
+        {
+            return false;
+        }
+
+        for (var i = 0; i < word.length(); i++)
+        {
+            if (line.charAt(starts[index] + i) != word.charAt(i))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public String text(int index)
+    {
+        check(index);
+
+        return line.subSequence(starts[index], ends[index]).toString();
+    }
+
+    // For handlers that still take the classic split(" ") array
+    public String[] toArray()
+    {
+        var parts = new String[count];
+
+        for (var i = 0; i < count; i++)
+        {
+            parts[i] = text(i);
+        }
+
+        return parts;
+    }
+
+    // Integer.parseInt without the substring, with the same error message
+    public int parseInt(int index)
+    {
+        check(index);
+
+        var i = starts[index];
+
+        var end = ends[index];
+
+        var negative = line.charAt(i) == '-';
+
+        if (negative || line.charAt(i) == '+')
+        {
+            i++;
+        }
+
+        if (i == end)
+        {
+            throw numberFormat(index);
+        }
+
+        // Accumulate negatively so Integer.MIN_VALUE fits
+        var limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+
+        var result = 0;
+
+        for (; i < end; i++)
+        {
+            var digit = line.charAt(i) - '0';
+
+            if (digit < 0 || digit > 9 || result < limit / 10)
+            {
+                throw numberFormat(index);
+            }
+
+            result *= 10;
+
+            if (result < limit + digit)
+            {
+                throw numberFormat(index);
+            }
+
+            result -= digit;
+        }
+
+        return negative ? result : -result;
+    }
+
+    // yyyy-MM-ddTHH:mm is read digit by digit; anything else ISO_LOCAL_DATE_TIME accepts goes the slow way
+    public LocalDateTime parseDateTime(int index)
+    {
+        check(index);
+
+        var s = starts[index];
+
+        if (length(index) != 16 || line.charAt(s + 4) != '-' || line.charAt(s + 7) != '-'
+                || line.charAt(s + 10) != 'T' || line.charAt(s + 13) != ':')
+        {
+            return LocalDateTime.parse(text(index), DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        }
+
+        try
+        {
+            return LocalDateTime.of(digits(s, 4), digits(s + 5, 2), digits(s + 8, 2), digits(s + 11, 2), digits(s + 14, 2));
+        }
+        catch (DateTimeException e)
+        {
+            throw new DateTimeParseException(e.getMessage(), text(index), 0);
+        }
+    }
+
+    private int digits(int from, int length)
+    {
+        var value = 0;
+
+        for (var i = from; i < from + length; i++)
+        {
+            var digit = line.charAt(i) - '0';
+
+            if (digit < 0 || digit > 9)
+            {
+                throw new DateTimeException("Invalid digit at index " + (i - from));
+            }
+
+            value = value * 10 + digit;
+        }
+
+        return value;
+    }
+
+    private void check(int index)
+    {
+        if (index < 0 || index >= count)
+        {
+            throw new ArrayIndexOutOfBoundsException("Index " + index + " out of bounds for length " + count);
+        }
+    }
+
+    private NumberFormatException numberFormat(int index)
+    {
+        return new NumberFormatException("For input string: \"" + text(index) + "\"");
+    }
+}
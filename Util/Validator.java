@@ -40,6 +40,22 @@ public class Validator
             case "BOOK":
                 return validateBookCommand(parts);
 
+            case "CANCEL":
+                // CANCEL <TRANSACTIONID> <USERNAME> <USERPASS>
+                if (parts.length != 4)
+                {
+                    System.out.println("Syntax Error: CANCEL <TRANSACTIONID> <USERNAME> <USERPASS>");
+
+                    return false;
+                }
+
+                if (checkInt(parts[1], "Transaction ID"))
+                {
+                    return false;
+                }
+
+                return checkNull(parts[2], "Username") && checkNull(parts[3], "Password");
+
             case "CREATE":
                 if (parts.length < 2)
                 {
@@ -146,6 +162,17 @@ public class Validator
                     }
                 };
 
+            case "STATS":
+                // STATS <ADMINUSERNAME> <ADMINPASS>
+                if (parts.length != 3)
+                {
+                    System.out.println("Syntax Error: STATS");
+
+                    return false;
+                }
+
+                return checkNull(parts[1], "Admin username") && checkNull(parts[2], "Admin password");
+
             default:
                 System.out.println("Error: Unknown command");
 